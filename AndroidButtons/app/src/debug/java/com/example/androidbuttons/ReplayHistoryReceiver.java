@@ -0,0 +1,24 @@
+package com.example.androidbuttons;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.androidbuttons.core.AppContracts;
+import com.example.androidbuttons.core.ServiceLaunchers;
+
+// Отладочный запуск воспроизведения истории на оверлее (только debug-сборка):
+// adb shell am broadcast -a com.example.androidbuttons.REPLAY_HISTORY -p com.example.androidbuttons \
+//     --el com.example.androidbuttons.extra.REPLAY_FROM_MS <мс> --el com.example.androidbuttons.extra.REPLAY_TO_MS <мс> \
+//     --ef com.example.androidbuttons.extra.REPLAY_SPEED 4
+// Без FROM/TO — вся записанная история. Команда уходит в TcpService с теми же extras
+public class ReplayHistoryReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent == null || !AppContracts.ACTION_REPLAY_HISTORY.equals(intent.getAction())) {
+            return;
+        }
+        ServiceLaunchers.sendToTcpService(context, intent);
+    }
+}
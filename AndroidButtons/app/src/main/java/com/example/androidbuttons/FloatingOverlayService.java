@@ -2,10 +2,7 @@ package com.example.androidbuttons;
 
 import android.app.Notification;
 import android.app.Service;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.PixelFormat;
 import android.os.Build;
 import android.os.Handler;
@@ -14,6 +11,7 @@ import android.os.Looper;
 import android.provider.Settings;
 import android.text.format.DateFormat;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -23,10 +21,15 @@ import android.widget.ImageView;
 
 import androidx.annotation.Nullable;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.example.androidbuttons.core.AppContracts;
 import com.example.androidbuttons.core.AppGraph;
+import com.example.androidbuttons.core.EventBus;
+import com.example.androidbuttons.core.LatencyStats;
+import com.example.androidbuttons.core.Metrics;
 import com.example.androidbuttons.core.OverlaySettingsRepository;
 import com.example.androidbuttons.core.OverlayStateStore;
 import com.example.androidbuttons.core.ServiceLaunchers;
@@ -49,8 +52,6 @@ public class FloatingOverlayService extends Service {
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private final AtomicBoolean overlayAttached = new AtomicBoolean(false);
 
-    private BroadcastReceiver scaleReceiver;
-    private BroadcastReceiver positionReceiver;
     private OverlaySettingsRepository overlaySettingsRepository;
     private OverlaySettingsRepository.OverlaySettings overlaySettings;
     private OverlaySettingsRepository.Listener overlaySettingsListener;
@@ -64,21 +65,78 @@ public class FloatingOverlayService extends Service {
     private OverlayStateAnimator stateAnimator;
     private OverlayGestureHandler gestureHandler;
 
-    private final OverlayStateStore.Listener stripStateListener = state ->
-            mainHandler.post(() -> {
-                boolean editMode = overlaySettings != null && overlaySettings.editModeEnabled;
-                int shownState = stateAnimator != null ? stateAnimator.getCurrentState() : 0;
-                if (editMode && shownState != 0) {
-                    Log.d(TAG, "stripStateListener: ignore state=" + state + " (edit mode, current=" + shownState + ")");
-                    return;
-                }
-                updateOverlayState(state);
-            });
+    // Состояния приходят из потока сервиса; подписка LATEST доставляет их в ближайший кадр
+    // Choreographer: не больше одного применения за кадр, пачка сворачивается в последнее
+    private final OverlayStateStore.Listener stripStateListener = this::applyStripState;
+    private Choreographer choreographer;
+    private final Executor frameExecutor = task -> choreographer.postFrameCallback(frameTimeNanos -> task.run());
+    private EventBus.Subscription<?> stripSubscription;
+    // Момент подписки полосы: доставка с более ранней меткой — повтор последнего состояния
+    private long stripSubscribedAtNanos;
+    private LatencyStats latencyStats;
+    private Metrics metrics;
+    private Metrics.Counter attachCount;
+    private Metrics.Counter detachCount;
+    private Metrics.Counter recreateCount;
+    private Metrics.Counter geometryApplies;
+    private OverlayGeometryApplier geometryApplier;
+
+    private final OverlayGeometryApplier.Window overlayWindow = new OverlayGeometryApplier.Window() {
+        @Override
+        public boolean isShown() {
+            return overlayParams != null && windowManager != null && overlayView != null;
+        }
+
+        @Override public int x() { return overlayParams.x; }
+        @Override public int y() { return overlayParams.y; }
+        @Override public int width() { return overlayParams.width; }
+        @Override public int height() { return overlayParams.height; }
+
+        @Override
+        public void update(int x, int y, int width, int height, float scale) {
+            overlayParams.x = x;
+            overlayParams.y = y;
+            // applyScale выставляет размер, радиус углов и делает единственный updateViewLayout
+            if (gestureHandler != null) {
+                gestureHandler.applyScale(scale);
+                return;
+            }
+            overlayParams.width = width;
+            overlayParams.height = height;
+            try {
+                windowManager.updateViewLayout(overlayView, overlayParams);
+            } catch (Exception ex) {
+                Log.e(TAG, "Failed to apply overlay geometry", ex);
+            }
+        }
+    };
+
+    private void applyStripState(int state, long publishedAtNanos) {
+        boolean editMode = overlaySettings != null && overlaySettings.editModeEnabled;
+        int shownState = stateAnimator != null ? stateAnimator.getCurrentState() : 0;
+        if (editMode && shownState != 0) {
+            Log.d(TAG, "stripStateListener: ignore state=" + state + " (edit mode, current=" + shownState + ")");
+            return;
+        }
+        long appliedAt = System.nanoTime();
+        if (publishedAtNanos >= stripSubscribedAtNanos) {
+            // Повтор при подключении опубликован до подписки — его возраст не задержка доставки
+            latencyStats.record(LatencyStats.RX_APPLY, appliedAt - publishedAtNanos);
+        }
+        updateOverlayState(state);
+        // Кадр с новым состоянием отрисован в этом проходе; на экране он появится к vsync
+        // следующего кадра — его время и считаем моментом показа
+        choreographer.postFrameCallback(frameTimeNanos ->
+                latencyStats.record(LatencyStats.RX_DRAW, frameTimeNanos - appliedAt));
+    }
 
     private final Runnable heartbeatRunnable = new Runnable() {
         @Override
         public void run() {
-            Log.d(TAG, "heartbeat attached=" + overlayAttached.get());
+            EventBus.Subscription<?> strip = stripSubscription;
+            Log.d(TAG, "heartbeat attached=" + overlayAttached.get()
+                    + (strip != null ? " stripApplied=" + strip.deliveredCount()
+                    + " stripMerged=" + strip.conflatedCount() : ""));
             refreshOverlayStatus();
             mainHandler.postDelayed(this, HEARTBEAT_INTERVAL_MS);
         }
@@ -88,19 +146,38 @@ public class FloatingOverlayService extends Service {
     public void onCreate() {
         super.onCreate();
         Log.i(TAG, "onCreate");
+        // Choreographer привязан к looper'у: берём экземпляр main-потока здесь
+        choreographer = Choreographer.getInstance();
         OverlayNotificationHelper.ensureChannel(this);
         AppGraph graph = AppGraph.get();
         ServiceLaunchers.ensureTcpServiceRunning(this);
         overlaySettingsRepository = graph.overlaySettings();
         overlaySettings = overlaySettingsRepository.get();
-        overlaySettingsListener = settings -> mainHandler.post(() -> applyOverlaySettings(settings));
-        overlaySettingsRepository.addListener(overlaySettingsListener);
+        // Правки геометрии из настроек приходят по шине к ближайшему кадру, серия — одним применением
+        overlaySettingsListener = this::applyOverlaySettings;
+        overlaySettingsRepository.addListener(overlaySettingsListener, frameExecutor, EventBus.Policy.LATEST);
         overlayStateStore = graph.overlayStates();
+        latencyStats = graph.latency();
+        metrics = graph.metrics();
+        attachCount = metrics.counter("overlay_attaches");
+        detachCount = metrics.counter("overlay_detaches");
+        recreateCount = metrics.counter("overlay_recreates");
+        geometryApplies = metrics.counter("overlay_geometry_applies");
+        metrics.gauge("overlay_attached", () -> overlayAttached.get() ? 1 : 0);
+        // Поля подписки читаются при снимке; без подписки (оверлей снят) — нули
+        metrics.counter("overlay_strip_applied", () -> {
+            EventBus.Subscription<?> strip = stripSubscription;
+            return strip != null ? strip.deliveredCount() : 0;
+        });
+        metrics.counter("overlay_strip_merged", () -> {
+            EventBus.Subscription<?> strip = stripSubscription;
+            return strip != null ? strip.conflatedCount() : 0;
+        });
         windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
         if (windowManager == null) {
             Log.e(TAG, "WindowManager unavailable");
         }
-        stateAnimator = new OverlayStateAnimator(this, STRIP_ANIM_DURATION);
+        stateAnimator = new OverlayStateAnimator(this, STRIP_ANIM_DURATION, metrics);
         if (windowManager != null) {
             gestureHandler = new OverlayGestureHandler(
                     this,
@@ -108,52 +185,14 @@ public class FloatingOverlayService extends Service {
                     stateAnimator,
                     overlaySettingsRepository,
                     overlayStateStore,
+                    latencyStats,
                     BASE_WIDTH_PX,
                     BASE_HEIGHT_PX
             );
         }
 
-        scaleReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if (!AppContracts.ACTION_APPLY_SCALE.equals(intent.getAction())) {
-                    return;
-                }
-                float fallbackScale = overlaySettings != null ? overlaySettings.scale : 1.0f;
-                float scale = intent.getFloatExtra(AppContracts.EXTRA_OVERLAY_SCALE, fallbackScale);
-                if (gestureHandler != null) {
-                    gestureHandler.applyScale(scale);
-                }
-                Log.d(TAG, "Scale applied immediately: " + scale);
-            }
-        };
-        registerReceiver(scaleReceiver, new IntentFilter(AppContracts.ACTION_APPLY_SCALE));
-
-        positionReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if (!AppContracts.ACTION_APPLY_POSITION.equals(intent.getAction())) {
-                    return;
-                }
-                if (overlayParams == null || windowManager == null || overlayView == null) {
-                    return;
-                }
-                if (intent.hasExtra(AppContracts.EXTRA_OVERLAY_X)) {
-                    int logicalX = intent.getIntExtra(AppContracts.EXTRA_OVERLAY_X, overlayParams.x);
-                    overlayParams.x = logicalX == 0 ? -computeLeftCompensation() : logicalX;
-                }
-                if (intent.hasExtra(AppContracts.EXTRA_OVERLAY_Y)) {
-                    overlayParams.y = intent.getIntExtra(AppContracts.EXTRA_OVERLAY_Y, overlayParams.y);
-                }
-                try {
-                    windowManager.updateViewLayout(overlayView, overlayParams);
-                    Log.d(TAG, "Position applied immediately: x=" + overlayParams.x + " y=" + overlayParams.y);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to apply position", e);
-                }
-            }
-        };
-        registerReceiver(positionReceiver, new IntentFilter(AppContracts.ACTION_APPLY_POSITION));
+        geometryApplier = new OverlayGeometryApplier(BASE_WIDTH_PX, BASE_HEIGHT_PX, computeLeftCompensation(),
+                overlayWindow);
     }
 
     @Override
@@ -162,6 +201,7 @@ public class FloatingOverlayService extends Service {
         Notification notification = OverlayNotificationHelper.buildForegroundNotification(this);
         startForeground(OverlayNotificationHelper.getNotificationId(), notification);
         if (intent != null && ACTION_RECREATE_OVERLAY.equals(intent.getAction())) {
+            recreateCount.increment();
             mainHandler.post(() -> {
                 detachOverlay();
                 maybeAttachOverlay();
@@ -172,30 +212,35 @@ public class FloatingOverlayService extends Service {
         return START_STICKY;
     }
 
+    // adb shell dumpsys activity service .FloatingOverlayService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("FloatingOverlayService attached=" + overlayAttached.get()
+                + " shownState=" + (stateAnimator != null ? stateAnimator.getCurrentState() : 0));
+        if (metrics != null) {
+            metrics.dump(writer, "  ");
+        }
+    }
+
     @Override
     public void onDestroy() {
         Log.i(TAG, "onDestroy");
         mainHandler.removeCallbacks(heartbeatRunnable);
         detachOverlay();
+        // Снимаемые метрики держат ссылку на сервис
+        if (metrics != null) {
+            metrics.remove("overlay_attached");
+            metrics.remove("overlay_strip_applied");
+            metrics.remove("overlay_strip_merged");
+        }
 
         if (overlaySettingsRepository != null && overlaySettingsListener != null) {
             overlaySettingsRepository.removeListener(overlaySettingsListener);
         }
-        if (scaleReceiver != null) {
-            try {
-                unregisterReceiver(scaleReceiver);
-            } catch (IllegalArgumentException ignore) {
-            }
-            scaleReceiver = null;
-        }
-        if (positionReceiver != null) {
-            try {
-                unregisterReceiver(positionReceiver);
-            } catch (IllegalArgumentException ignore) {
-            }
-            positionReceiver = null;
+        if (overlaySettingsRepository != null) {
+            // Последний жест не должен потеряться, если процесс завершат вслед за сервисом
+            overlaySettingsRepository.flush();
         }
-
         super.onDestroy();
     }
 
@@ -228,6 +273,7 @@ public class FloatingOverlayService extends Service {
             overlayParams = buildDefaultLayoutParams();
             windowManager.addView(overlayView, overlayParams);
             overlayAttached.set(true);
+            attachCount.increment();
 
             overlayStateStrip = overlayView.findViewById(R.id.overlayStateStrip);
             if (stateAnimator != null) {
@@ -255,7 +301,8 @@ public class FloatingOverlayService extends Service {
             }
 
             refreshOverlayStatus();
-            overlayStateStore.addListener(stripStateListener);
+            stripSubscribedAtNanos = System.nanoTime();
+            stripSubscription = overlayStateStore.addListener(stripStateListener, frameExecutor, EventBus.Policy.LATEST);
             mainHandler.removeCallbacks(heartbeatRunnable);
             mainHandler.postDelayed(heartbeatRunnable, HEARTBEAT_INTERVAL_MS);
         } catch (RuntimeException ex) {
@@ -279,7 +326,9 @@ public class FloatingOverlayService extends Service {
             }
         }
         overlayStateStore.removeListener(stripStateListener);
+        stripSubscription = null;
         overlayAttached.set(false);
+        detachCount.increment();
         overlayView = null;
         overlayParams = null;
         overlayRoot = null;
@@ -320,20 +369,8 @@ public class FloatingOverlayService extends Service {
         overlaySettings = settings;
         float targetAlpha = settings.editModeEnabled ? ALPHA_EDIT_MODE : ALPHA_NORMAL;
         setOverlayAlpha(targetAlpha);
-        if (overlayParams == null || windowManager == null || overlayView == null) {
-            return;
-        }
-        overlayParams.x = settings.x == 0 ? -computeLeftCompensation() : settings.x;
-        overlayParams.y = settings.y;
-        overlayParams.width = Math.round(BASE_WIDTH_PX * settings.scale);
-        overlayParams.height = Math.round(BASE_HEIGHT_PX * settings.scale);
-        try {
-            windowManager.updateViewLayout(overlayView, overlayParams);
-            if (gestureHandler != null) {
-                gestureHandler.applyScale(settings.scale);
-            }
-        } catch (Exception ex) {
-            Log.e(TAG, "Failed to apply overlay settings", ex);
+        if (geometryApplier.apply(settings)) {
+            geometryApplies.increment();
         }
     }
 
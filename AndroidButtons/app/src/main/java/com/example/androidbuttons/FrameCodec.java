@@ -0,0 +1,24 @@
+package com.example.androidbuttons;
+
+// Кодек кадров управления/состояния. Версия выбирается рукопожатием при подключении:
+// v1 — исходный формат (по кадру на запись), v2 — компактные пакеты из нескольких записей.
+// Разбор байтового потока общий (TcpFrameParser), кодек разбирает уже проверенный по CRC кадр.
+interface FrameCodec {
+
+    // Получатель разобранных записей
+    interface RecordSink {
+        void onState(int loco, int state);
+
+        // Запись не-состояния (телеметрия, диагностика); данные валидны только на время вызова
+        void onPayload(int address, byte[] payload, int off, int len);
+    }
+
+    int version();
+
+    byte[] encodeState(int loco, int state);
+
+    // count записей (locos[i], states[i]) одной записью в сокет
+    byte[] encodeStates(int[] locos, int[] states, int count);
+
+    void decodeFrame(int address, byte[] payload, int off, int len, RecordSink sink);
+}
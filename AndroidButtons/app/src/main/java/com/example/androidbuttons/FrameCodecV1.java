@@ -0,0 +1,68 @@
+package com.example.androidbuttons;
+
+import static com.example.androidbuttons.core.ProtocolConstraints.LOCO_MAX;
+import static com.example.androidbuttons.core.ProtocolConstraints.LOCO_MIN;
+import static com.example.androidbuttons.core.ProtocolConstraints.STATE_MAX;
+import static com.example.androidbuttons.core.ProtocolConstraints.STATE_MIN;
+
+// Исходный формат: 0x7E | loco(1) | len(2 BE) | data(N) | CRC8, состояние — один байт data.
+// Понимается любой прошивкой, поэтому остаётся запасным вариантом без рукопожатия.
+final class FrameCodecV1 implements FrameCodec {
+
+    static final FrameCodecV1 INSTANCE = new FrameCodecV1();
+
+    static final int START = 0x7E;
+
+    private FrameCodecV1() {
+    }
+
+    @Override
+    public int version() {
+        return 1;
+    }
+
+    @Override
+    public byte[] encodeState(int loco, int state) {
+        int l = Math.max(LOCO_MIN, Math.min(LOCO_MAX, loco));
+        int st = Math.max(STATE_MIN, Math.min(STATE_MAX, state));
+        return buildFrame(l, new byte[] { (byte) st });
+    }
+
+    // Кадры склеиваются в один буфер: одна запись в сокет вместо count
+    @Override
+    public byte[] encodeStates(int[] locos, int[] states, int count) {
+        byte[] batch = new byte[count * 6];
+        for (int i = 0; i < count; i++) {
+            byte[] frame = encodeState(locos[i], states[i]);
+            System.arraycopy(frame, 0, batch, i * frame.length, frame.length);
+        }
+        return batch;
+    }
+
+    @Override
+    public void decodeFrame(int address, byte[] payload, int off, int len, RecordSink sink) {
+        if (len == 1) {
+            sink.onState(address, payload[off] & 0xFF);
+        } else {
+            sink.onPayload(address, payload, off, len);
+        }
+    }
+
+    static byte[] buildFrame(int address, byte[] payload) {
+        int len = payload.length;
+
+        byte[] crcBuf = new byte[3 + len];
+        crcBuf[0] = (byte) (address & 0xFF);
+        crcBuf[1] = (byte) ((len >> 8) & 0xFF);   // lenHi
+        crcBuf[2] = (byte) (len & 0xFF);          // lenLo
+        System.arraycopy(payload, 0, crcBuf, 3, len);
+
+        byte crc = (byte) TcpFrameParser.crc8Update(0, crcBuf, 0, crcBuf.length);
+
+        byte[] frame = new byte[1 + crcBuf.length + 1];
+        frame[0] = START;
+        System.arraycopy(crcBuf, 0, frame, 1, crcBuf.length);
+        frame[frame.length - 1] = crc;
+        return frame;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.androidbuttons;
+
+import java.io.ByteArrayOutputStream;
+
+import static com.example.androidbuttons.core.ProtocolConstraints.LOCO_MAX;
+import static com.example.androidbuttons.core.ProtocolConstraints.LOCO_MIN;
+import static com.example.androidbuttons.core.ProtocolConstraints.STATE_MAX;
+import static com.example.androidbuttons.core.ProtocolConstraints.STATE_MIN;
+
+// Компактный формат v2 (только после рукопожатия):
+//   0x7E | 0xFE | len(varint) | запись... | CRC8 (по адресу, длине и записям)
+// Записи:
+//   0b00lllsss                      — состояние: loco-1 в битах 5..3, state-1 в битах 2..0
+//   0b01000lll | len(varint) | data — не-состояние (телеметрия) для loco
+// Одно состояние — 5 байт вместо 6, восемь состояний — один кадр на 12 байт вместо 48.
+// Компактные кадры не длиннее INLINE_PAYLOAD_MAX и разбираются целиком. Кадры с другими
+// адресами (системный канал, старые кадры) разбираются как v1.
+final class FrameCodecV2 implements FrameCodec {
+
+    static final int COMPACT_ADDRESS = 0xFE;
+    static final int MAX_COMPACT_PAYLOAD = TcpFrameParser.INLINE_PAYLOAD_MAX;
+
+    private static final int RECORD_KIND_MASK = 0xC0;
+    private static final int RECORD_STATE = 0x00;
+    private static final int RECORD_PAYLOAD = 0x40;
+
+    private final int maxPayload;
+
+    FrameCodecV2(int maxPayload) {
+        this.maxPayload = Math.max(2, Math.min(MAX_COMPACT_PAYLOAD, maxPayload));
+    }
+
+    @Override
+    public int version() {
+        return 2;
+    }
+
+    @Override
+    public byte[] encodeState(int loco, int state) {
+        return compactFrame(new byte[] { stateRecord(loco, state) }, 1);
+    }
+
+    // Записи пакуются в кадры не длиннее maxPayload
+    @Override
+    public byte[] encodeStates(int[] locos, int[] states, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count + 8);
+        byte[] records = new byte[maxPayload];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (size == maxPayload) {
+                byte[] frame = compactFrame(records, size);
+                out.write(frame, 0, frame.length);
+                size = 0;
+            }
+            records[size++] = stateRecord(locos[i], states[i]);
+        }
+        if (size > 0) {
+            byte[] frame = compactFrame(records, size);
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+
+    // Запись не-состояния в компактном кадре (для симметрии с прошивкой и тестов)
+    byte[] encodePayload(int loco, byte[] data) {
+        int l = Math.max(LOCO_MIN, Math.min(LOCO_MAX, loco));
+        byte[] records = new byte[1 + varintSize(data.length) + data.length];
+        records[0] = (byte) (RECORD_PAYLOAD | (l - LOCO_MIN));
+        int pos = writeVarint(records, 1, data.length);
+        System.arraycopy(data, 0, records, pos, data.length);
+        return compactFrame(records, records.length);
+    }
+
+    @Override
+    public void decodeFrame(int address, byte[] payload, int off, int len, RecordSink sink) {
+        if (address != COMPACT_ADDRESS) {
+            FrameCodecV1.INSTANCE.decodeFrame(address, payload, off, len, sink);
+            return;
+        }
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            int record = payload[i++] & 0xFF;
+            int kind = record & RECORD_KIND_MASK;
+            if (kind == RECORD_STATE) {
+                int loco = LOCO_MIN + ((record >> 3) & 0x07);
+                int state = STATE_MIN + (record & 0x07);
+                if (state > STATE_MAX) return;
+                sink.onState(loco, state);
+            } else if (kind == RECORD_PAYLOAD) {
+                int loco = LOCO_MIN + (record & 0x07);
+                int dataLen = 0;
+                int shift = 0;
+                int b;
+                do {
+                    if (i >= end || shift > 14) return;
+                    b = payload[i++] & 0xFF;
+                    dataLen |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                if (dataLen > end - i) return;
+                sink.onPayload(loco, payload, i, dataLen);
+                i += dataLen;
+            } else {
+                // Неизвестный вид записи — остаток кадра не разобрать
+                return;
+            }
+        }
+    }
+
+    private static byte stateRecord(int loco, int state) {
+        int l = Math.max(LOCO_MIN, Math.min(LOCO_MAX, loco));
+        int st = Math.max(STATE_MIN, Math.min(STATE_MAX, state));
+        return (byte) (RECORD_STATE | ((l - LOCO_MIN) << 3) | (st - STATE_MIN));
+    }
+
+    private static byte[] compactFrame(byte[] records, int len) {
+        int lenSize = varintSize(len);
+        byte[] frame = new byte[2 + lenSize + len + 1];
+        frame[0] = (byte) FrameCodecV1.START;
+        frame[1] = (byte) COMPACT_ADDRESS;
+        int pos = writeVarint(frame, 2, len);
+        System.arraycopy(records, 0, frame, pos, len);
+        pos += len;
+        frame[pos] = (byte) TcpFrameParser.crc8Update(0, frame, 1, pos - 1);
+        return frame;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    static int writeVarint(byte[] out, int pos, int value) {
+        int v = value;
+        while ((v & ~0x7F) != 0) {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+}
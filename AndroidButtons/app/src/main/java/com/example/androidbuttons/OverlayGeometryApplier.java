@@ -0,0 +1,70 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.OverlaySettingsRepository;
+
+// Применение геометрии из настроек к окну оверлея. Настройки приходят по шине репозитория
+// (в сервисе — подпиской LATEST на кадр Choreographer), окно обновляется только если его
+// геометрия отличается от целевой: правка из настроек — ровно один проход layout, а коммит
+// жеста, после которого окно уже стоит на месте, — ни одного. Без Android-зависимостей.
+final class OverlayGeometryApplier {
+
+    interface Window {
+        boolean isShown();
+
+        int x();
+
+        int y();
+
+        int width();
+
+        int height();
+
+        // Один updateViewLayout с новой геометрией
+        void update(int x, int y, int width, int height, float scale);
+    }
+
+    private final int baseWidthPx;
+    private final int baseHeightPx;
+    private final int leftCompensationPx;
+    private final Window window;
+    private long appliedCount;
+    private long skippedCount;
+
+    OverlayGeometryApplier(int baseWidthPx, int baseHeightPx, int leftCompensationPx, Window window) {
+        this.baseWidthPx = baseWidthPx;
+        this.baseHeightPx = baseHeightPx;
+        this.leftCompensationPx = leftCompensationPx;
+        this.window = window;
+    }
+
+    // true — окно обновлено
+    boolean apply(OverlaySettingsRepository.OverlaySettings settings) {
+        if (settings == null || !window.isShown()) {
+            return false;
+        }
+        int x = windowX(settings.x);
+        int y = settings.y;
+        int width = Math.round(baseWidthPx * settings.scale);
+        int height = Math.round(baseHeightPx * settings.scale);
+        if (x == window.x() && y == window.y() && width == window.width() && height == window.height()) {
+            skippedCount++;
+            return false;
+        }
+        window.update(x, y, width, height, settings.scale);
+        appliedCount++;
+        return true;
+    }
+
+    // Логический x = 0 — окно прижато к левому краю с компенсацией рамки
+    int windowX(int logicalX) {
+        return logicalX == 0 ? -leftCompensationPx : logicalX;
+    }
+
+    long appliedCount() {
+        return appliedCount;
+    }
+
+    long skippedCount() {
+        return skippedCount;
+    }
+}
@@ -2,6 +2,7 @@ package com.example.androidbuttons;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
@@ -9,6 +10,7 @@ import android.view.WindowManager;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
+import com.example.androidbuttons.core.LatencyStats;
 import com.example.androidbuttons.core.OverlaySettingsRepository;
 import com.example.androidbuttons.core.OverlayStateStore;
 
@@ -26,6 +28,7 @@ final class OverlayGestureHandler implements View.OnTouchListener {
     private final OverlayStateAnimator stateAnimator;
     private final OverlaySettingsRepository overlaySettingsRepository;
     private final OverlayStateStore overlayStateStore;
+    private final LatencyStats latencyStats;
     private final int baseWidthPx;
     private final int baseHeightPx;
     private final int[] tmpLocation = new int[2];
@@ -61,6 +64,7 @@ final class OverlayGestureHandler implements View.OnTouchListener {
                           OverlayStateAnimator stateAnimator,
                           OverlaySettingsRepository overlaySettingsRepository,
                           OverlayStateStore overlayStateStore,
+                          LatencyStats latencyStats,
                           int baseWidthPx,
                           int baseHeightPx) {
         this.context = context.getApplicationContext();
@@ -68,6 +72,7 @@ final class OverlayGestureHandler implements View.OnTouchListener {
         this.stateAnimator = stateAnimator;
         this.overlaySettingsRepository = overlaySettingsRepository;
         this.overlayStateStore = overlayStateStore;
+        this.latencyStats = latencyStats;
         this.baseWidthPx = baseWidthPx;
         this.baseHeightPx = baseHeightPx;
     }
@@ -189,7 +194,7 @@ final class OverlayGestureHandler implements View.OnTouchListener {
             case MotionEvent.ACTION_POINTER_UP:
                 if (gestureMode == GestureMode.SCALE) {
                     isScaling = false;
-                    saveOverlayScale();
+                    commitGeometry(scaleFromParams());
                     resumeAnimationIfNeeded();
                     gestureMode = GestureMode.NONE;
                 }
@@ -198,7 +203,7 @@ final class OverlayGestureHandler implements View.OnTouchListener {
             case MotionEvent.ACTION_UP:
                 if (gestureMode == GestureMode.SCALE) {
                     isScaling = false;
-                    saveOverlayScale();
+                    commitGeometry(scaleFromParams());
                     resumeAnimationIfNeeded();
                 } else if (gestureMode == GestureMode.MOVE) {
                     handleMoveUp(touchView, event);
@@ -268,7 +273,7 @@ final class OverlayGestureHandler implements View.OnTouchListener {
         float totalDelta = Math.abs(getRawXCompat(touchView, event, 0) - initialTouchX)
             + Math.abs(getRawYCompat(touchView, event, 0) - initialTouchY);
         if (didMoveDuringGesture || coordsChanged || totalDelta >= dpToPx(2)) {
-            saveOverlayPosition();
+            commitGeometry(settings.scale);
         } else {
             Log.d(TAG, "ACTION_UP MOVE: no significant movement (" + totalDelta + ") — position unchanged");
         }
@@ -305,6 +310,9 @@ final class OverlayGestureHandler implements View.OnTouchListener {
         if (zone != stateAnimator.getCurrentState()) {
             Log.i(TAG, "Overlay selects state=" + zone);
             stateAnimator.updateState(zone);
+            // Время события касания — uptimeMillis, поэтому точность этой стадии 1 мс
+            latencyStats.record(LatencyStats.TX_INPUT,
+                    (SystemClock.uptimeMillis() - event.getEventTime()) * 1_000_000L);
             overlayStateStore.publishSelection(zone);
         }
         return true;
@@ -367,20 +375,14 @@ final class OverlayGestureHandler implements View.OnTouchListener {
         Log.d(TAG, "Corner radius updated to: " + newRadiusPx + "px (scale=" + scale + ")");
     }
 
-    private void saveOverlayScale() {
-        if (overlayParams == null) {
-            return;
-        }
+    private float scaleFromParams() {
         float currentScale = (float) overlayParams.width / baseWidthPx;
-        currentScale = Math.round(currentScale * 100f) / 100f;
-
-        overlaySettingsRepository.setScale(currentScale);
-
-        Log.d(TAG, "Overlay scale saved: " + currentScale + " (width=" + overlayParams.width + ")");
-
+        return Math.round(currentScale * 100f) / 100f;
     }
 
-    private void saveOverlayPosition() {
+    // Во время жеста геометрия живёт только в overlayParams; в репозиторий она попадает
+    // одним изменением в конце жеста (масштабирование вокруг пальцев сдвигает и x/y)
+    private void commitGeometry(float scale) {
         if (overlayParams == null) {
             return;
         }
@@ -390,10 +392,9 @@ final class OverlayGestureHandler implements View.OnTouchListener {
         }
         int clampedX = eliminateTinyOffset(logicalX);
 
-        overlaySettingsRepository.setPosition(clampedX, overlayParams.y);
-
-        Log.d(TAG, "Overlay position saved: x=" + clampedX + " y=" + overlayParams.y);
+        overlaySettingsRepository.setGeometry(clampedX, overlayParams.y, scale);
 
+        Log.d(TAG, "Overlay geometry committed: x=" + clampedX + " y=" + overlayParams.y + " scale=" + scale);
     }
 
     private float getDistance(MotionEvent event) {
@@ -10,6 +10,8 @@ import android.os.Build;
 
 import androidx.core.app.NotificationCompat;
 
+import com.example.androidbuttons.core.AppContracts;
+
 /**
  * Утилита для создания foreground-уведомления оверлея и канала самого низкого приоритета.
  */
@@ -17,6 +19,7 @@ final class OverlayNotificationHelper {
 
     static final String CHANNEL_ID = "overlay_probe_channel";
     private static final int NOTIFICATION_ID = 1001;
+    private static final int REQUEST_STOP_ALL = 1;
 
     private OverlayNotificationHelper() {}
 
@@ -64,6 +67,15 @@ final class OverlayNotificationHelper {
                         : PendingIntent.FLAG_UPDATE_CURRENT
         );
 
+        // «Стоп усім» доступно из шторки, даже когда оверлей и настройки закрыты
+        Intent stopAllIntent = new Intent(context, TcpService.class).setAction(AppContracts.ACTION_STOP_ALL);
+        int stopAllFlags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+                : PendingIntent.FLAG_UPDATE_CURRENT;
+        PendingIntent stopAllAction = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? PendingIntent.getForegroundService(context, REQUEST_STOP_ALL, stopAllIntent, stopAllFlags)
+                : PendingIntent.getService(context, REQUEST_STOP_ALL, stopAllIntent, stopAllFlags);
+
         return new NotificationCompat.Builder(context, CHANNEL_ID)
                 .setContentTitle(context.getString(R.string.app_name))
                 .setSmallIcon(R.drawable.ic_notification_light)
@@ -72,6 +84,7 @@ final class OverlayNotificationHelper {
                 .setSilent(true)
                 .setVisibility(NotificationCompat.VISIBILITY_SECRET)
                 .setContentIntent(contentIntent)
+                .addAction(R.drawable.ic_notification_light, context.getString(R.string.notification_stop_all), stopAllAction)
                 .setOngoing(true)
                 .build();
     }
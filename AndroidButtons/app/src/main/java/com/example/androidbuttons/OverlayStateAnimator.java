@@ -11,6 +11,8 @@ import android.widget.ImageView;
 
 import androidx.appcompat.content.res.AppCompatResources;
 
+import com.example.androidbuttons.core.Metrics;
+
 /**
  * Отвечает за смену состояний полосы overlay и их анимацию.
  */
@@ -28,9 +30,16 @@ final class OverlayStateAnimator {
     private int currentState = 0;
     private int lastResId = 0;
 
-    OverlayStateAnimator(Context context, long animDurationMs) {
+    private final Metrics.Counter appliedImmediately;
+    private final Metrics.Counter crossfadesStarted;
+    private final Metrics.Counter crossfadesCancelled;
+
+    OverlayStateAnimator(Context context, long animDurationMs, Metrics metrics) {
         this.context = context.getApplicationContext();
         this.animDurationMs = animDurationMs;
+        appliedImmediately = metrics.counter("overlay_states_applied_immediately");
+        crossfadesStarted = metrics.counter("overlay_crossfades_started");
+        crossfadesCancelled = metrics.counter("overlay_crossfades_cancelled");
     }
 
     void bind(FrameLayout root, ImageView strip) {
@@ -56,6 +65,14 @@ final class OverlayStateAnimator {
             Log.d(TAG, "updateState: view null, skip state=" + state);
             return;
         }
+        if (state == 0) {
+            // Неизвестное состояние: полоса гаснет, первый же отчёт зажжёт её без перехода
+            cancelAnimator();
+            overlayStateStrip.setImageDrawable(null);
+            currentState = 0;
+            lastResId = 0;
+            return;
+        }
         int resId = resolveDrawableForState(state);
         if (resId == 0) {
             Log.w(TAG, "updateState: unresolved drawable for state=" + state);
@@ -74,6 +91,7 @@ final class OverlayStateAnimator {
             cancelAnimator();
             overlayStateStrip.setAlpha(1f);
             overlayStateStrip.setImageDrawable(newDrawable);
+            appliedImmediately.increment();
             Log.d(TAG, "updateState: applied immediately state=" + state + " resId=" + resId);
         } else {
             startCrossfade(newDrawable);
@@ -161,10 +179,12 @@ final class OverlayStateAnimator {
 
             @Override
             public void onAnimationCancel(Animator animation) {
+                crossfadesCancelled.increment();
                 finishCrossfade(newDrawable);
             }
         });
         overlayAnimator.start();
+        crossfadesStarted.increment();
     }
 
     private void finishCrossfade(Drawable finalDrawable) {
@@ -0,0 +1,138 @@
+package com.example.androidbuttons;
+
+import java.util.Locale;
+
+// Рукопожатие на системном канале (адрес 0, кадр всегда v1, старая прошивка его игнорирует):
+//   HELLO: 0x01 | version(1) | caps(2 BE) | maxPayload(2 BE)
+// Синхронизация часов (CAP_TIME_SYNC, метки времени — мкс, 8 байт BE):
+//   TIME_REQUEST: 0x03 | seq(1) | t0         — планшет, t0 по его монотонным часам
+//   TIME_REPLY:   0x04 | seq(1) | t0 | t1 | t2 — контроллер: эхо t0, время приёма и отправки
+//   TIME_MARK:    0x05 | t                   — контроллер: время отправки для оценки downlink
+// Подписка (CAP_SUBSCRIBE):
+//   SUBSCRIBE:    0x06 | locoMask(1)         — планшет: по каким локомотивам слать отчёты (бит N — loco N+1)
+// Планшет шлёт HELLO сразу после подключения; ответный HELLO контроллера фиксирует
+// общую версию и пересечение возможностей. Нет ответа — остаёмся на v1 без возможностей.
+final class ProtocolHandshake {
+
+    static final int SYSTEM_ADDRESS = 0x00;
+
+    static final int MSG_HELLO = 0x01;
+    static final int MSG_SNAPSHOT_REQUEST = 0x02;
+    static final int MSG_TIME_REQUEST = 0x03;
+    static final int MSG_TIME_REPLY = 0x04;
+    static final int MSG_TIME_MARK = 0x05;
+    static final int MSG_SUBSCRIBE = 0x06;
+
+    static final int CAP_SNAPSHOT = 1;
+    static final int CAP_ACK = 1 << 1;
+    static final int CAP_GROUP = 1 << 2;
+    static final int CAP_HEARTBEAT = 1 << 3;
+    static final int CAP_TELEMETRY = 1 << 4;
+    static final int CAP_TIME_SYNC = 1 << 5;
+    static final int CAP_SUBSCRIBE = 1 << 6;
+
+    static final int LOCAL_VERSION = 2;
+    // Подтверждения (ACK) пока не реализованы — не объявляем
+    static final int LOCAL_CAPS = CAP_SNAPSHOT | CAP_GROUP | CAP_HEARTBEAT | CAP_TELEMETRY | CAP_TIME_SYNC
+            | CAP_SUBSCRIBE;
+    static final int LOCAL_MAX_PAYLOAD = TcpFrameParser.MAX_PAYLOAD;
+
+    private static final int HELLO_LEN = 6;
+    static final int TIME_REQUEST_LEN = 10;
+    static final int TIME_REPLY_LEN = 26;
+    static final int TIME_MARK_LEN = 9;
+
+    // Итог согласования для текущего соединения
+    static final class Negotiated {
+        static final Negotiated V1_FALLBACK = new Negotiated(1, 0, LOCAL_MAX_PAYLOAD);
+
+        final int version;
+        final int caps;
+        final int maxPayload;
+
+        Negotiated(int version, int caps, int maxPayload) {
+            this.version = version;
+            this.caps = caps;
+            this.maxPayload = maxPayload;
+        }
+
+        boolean has(int cap) {
+            return (caps & cap) != 0;
+        }
+
+        FrameCodec codec() {
+            return version >= 2 ? new FrameCodecV2(maxPayload) : FrameCodecV1.INSTANCE;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "v%d caps=0x%02X maxPayload=%d", version, caps, maxPayload);
+        }
+    }
+
+    private ProtocolHandshake() {
+    }
+
+    static byte[] helloFrame() {
+        byte[] payload = new byte[HELLO_LEN];
+        payload[0] = MSG_HELLO;
+        payload[1] = LOCAL_VERSION;
+        payload[2] = (byte) (LOCAL_CAPS >> 8);
+        payload[3] = (byte) LOCAL_CAPS;
+        payload[4] = (byte) (LOCAL_MAX_PAYLOAD >> 8);
+        payload[5] = (byte) LOCAL_MAX_PAYLOAD;
+        return FrameCodecV1.buildFrame(SYSTEM_ADDRESS, payload);
+    }
+
+    static byte[] snapshotRequestFrame() {
+        return FrameCodecV1.buildFrame(SYSTEM_ADDRESS, new byte[] { MSG_SNAPSHOT_REQUEST });
+    }
+
+    static byte[] timeRequestFrame(int seq, long t0Us) {
+        byte[] payload = new byte[TIME_REQUEST_LEN];
+        payload[0] = MSG_TIME_REQUEST;
+        payload[1] = (byte) seq;
+        writeLong(payload, 2, t0Us);
+        return FrameCodecV1.buildFrame(SYSTEM_ADDRESS, payload);
+    }
+
+    static byte[] subscribeFrame(int locoMask) {
+        return FrameCodecV1.buildFrame(SYSTEM_ADDRESS, new byte[] { MSG_SUBSCRIBE, (byte) locoMask });
+    }
+
+    static long readLong(byte[] buf, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (buf[off + i] & 0xFFL);
+        }
+        return v;
+    }
+
+    static void writeLong(byte[] buf, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            buf[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    // Разбор HELLO от контроллера; null — это не HELLO или он повреждён
+    static Negotiated parseHello(byte[] payload, int off, int len) {
+        if (len < HELLO_LEN || (payload[off] & 0xFF) != MSG_HELLO) {
+            return null;
+        }
+        int peerVersion = payload[off + 1] & 0xFF;
+        int peerCaps = ((payload[off + 2] & 0xFF) << 8) | (payload[off + 3] & 0xFF);
+        int peerMax = ((payload[off + 4] & 0xFF) << 8) | (payload[off + 5] & 0xFF);
+        if (peerVersion < 1) {
+            return null;
+        }
+        return negotiate(peerVersion, peerCaps, peerMax);
+    }
+
+    static Negotiated negotiate(int peerVersion, int peerCaps, int peerMaxPayload) {
+        int version = Math.min(LOCAL_VERSION, peerVersion);
+        int caps = LOCAL_CAPS & peerCaps;
+        int max = Math.min(LOCAL_MAX_PAYLOAD, peerMaxPayload > 0 ? peerMaxPayload : LOCAL_MAX_PAYLOAD);
+        return new Negotiated(version, caps, max);
+    }
+}
@@ -1,8 +1,8 @@
 package com.example.androidbuttons;
 
-import android.content.Intent;
 import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.method.ScrollingMovementMethod;
@@ -11,7 +11,9 @@ import android.view.View;
 import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.SeekBar;
 import android.widget.Toast;
 
@@ -20,6 +22,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.example.androidbuttons.core.AppContracts;
 import com.example.androidbuttons.core.AppGraph;
 import com.example.androidbuttons.core.ConsoleLogRepository;
+import com.example.androidbuttons.core.DwellAnalytics;
+import com.example.androidbuttons.core.EventBus;
+import com.example.androidbuttons.core.LatencyStats;
 import com.example.androidbuttons.core.OverlaySettingsRepository;
 import com.example.androidbuttons.core.OverlayStateStore;
 import com.example.androidbuttons.core.ProtocolConstraints;
@@ -29,6 +34,8 @@ import com.example.androidbuttons.core.TcpState;
 import com.example.androidbuttons.core.TcpStatusStore;
 import com.example.androidbuttons.databinding.ActivitySettingsBinding;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -53,6 +60,9 @@ public class SettingsActivity extends AppCompatActivity {
     private TcpStatusStore tcpStatusStore;
     private TcpStatusStore.Listener tcpStatusListener;
     private OverlayStateStore overlayStateStore;
+    private DwellAnalytics dwellAnalytics;
+    private LatencyStats latencyStats;
+    private int dwellRefreshTicks;
 
     private String pendingHost;
     private String pendingPort;
@@ -63,6 +73,11 @@ public class SettingsActivity extends AppCompatActivity {
     private boolean suppressWatchers;
     private boolean suppressOverlaySwitch;
 
+    private ArrayAdapter<String> profileAdapter;
+    private final List<String> profileNames = new ArrayList<>();
+    private final List<CheckBox> priorityStateBoxes = new ArrayList<>();
+    private final List<CheckBox> priorityLocoBoxes = new ArrayList<>();
+
     private boolean keyboardVisible;
     private ViewTreeObserver.OnGlobalLayoutListener keyboardListener;
 
@@ -80,6 +95,8 @@ public class SettingsActivity extends AppCompatActivity {
         setupOverlayPositionWatchers();
         setupOverlayScaleSeekBar();
         setupLocoSpinner();
+        setupProfileSpinners();
+        setupPriorityLanes();
         setupOverlaySwitch();
         startConsolePump();
         setupKeyboardListener();
@@ -93,17 +110,20 @@ public class SettingsActivity extends AppCompatActivity {
         consoleLogRepository = graph.consoleLog();
         tcpStatusStore = graph.tcpStatuses();
         overlayStateStore = graph.overlayStates();
+        dwellAnalytics = graph.dwell();
+        latencyStats = graph.latency();
 
         overlaySettings = overlaySettingsRepository.get();
         tcpConfig = tcpConfigRepository.get();
 
-        overlaySettingsListener = settings -> runOnUiThread(() -> handleOverlaySettingsChanged(settings));
-        tcpConfigListener = config -> runOnUiThread(() -> handleTcpConfigChanged(config));
-        tcpStatusListener = status -> runOnUiThread(() -> updateStatusIndicators(status));
+        overlaySettingsListener = this::handleOverlaySettingsChanged;
+        tcpConfigListener = this::handleTcpConfigChanged;
+        tcpStatusListener = this::updateStatusIndicators;
 
-        overlaySettingsRepository.addListener(overlaySettingsListener);
-        tcpConfigRepository.addListener(tcpConfigListener);
-        tcpStatusStore.addListener(tcpStatusListener);
+        // Экрану нужны только последние значения: пачка событий — одна доставка в UI-поток
+        overlaySettingsRepository.addListener(overlaySettingsListener, this::runOnUiThread, EventBus.Policy.LATEST);
+        tcpConfigRepository.addListener(tcpConfigListener, this::runOnUiThread, EventBus.Policy.LATEST);
+        tcpStatusStore.addListener(tcpStatusListener, this::runOnUiThread, EventBus.Policy.LATEST);
     }
 
     private void handleOverlaySettingsChanged(OverlaySettingsRepository.OverlaySettings settings) {
@@ -129,6 +149,8 @@ public class SettingsActivity extends AppCompatActivity {
         if (binding.spinnerNum.getSelectedItemPosition() != targetSelection) {
             binding.spinnerNum.setSelection(targetSelection, false);
         }
+        refreshProfiles(config);
+        refreshPriorityLanes(config);
     }
 
     private void setupHostAndPortWatchers() {
@@ -167,7 +189,6 @@ public class SettingsActivity extends AppCompatActivity {
                     int sanitized = eliminateTinyOffset(xValue);
                     int currentY = currentOverlaySettings().y;
                     overlaySettingsRepository.setPosition(sanitized, currentY);
-                    sendPositionBroadcast(sanitized, null);
                 }
             }
         });
@@ -184,7 +205,6 @@ public class SettingsActivity extends AppCompatActivity {
                 if (yValue != null) {
                     int currentX = eliminateTinyOffset(currentOverlaySettings().x);
                     overlaySettingsRepository.setPosition(currentX, yValue);
-                    sendPositionBroadcast(null, yValue);
                 }
             }
         });
@@ -200,7 +220,6 @@ public class SettingsActivity extends AppCompatActivity {
                     pendingOverlayScale = String.valueOf(scale);
                     pendingDirty = true;
                     overlaySettingsRepository.setScale(scale);
-                    sendScaleBroadcast(scale);
                 }
             }
 
@@ -228,6 +247,8 @@ public class SettingsActivity extends AppCompatActivity {
                 int loco = ProtocolConstraints.locoFromIndex(position);
                 TcpConfigRepository.TcpConfig current = currentTcpConfig();
                 if (current.selectedLoco != loco) {
+                    // Кэшированное состояние нового локомотива — на оверлей сразу, не дожидаясь RX
+                    overlayStateStore.select(loco);
                     tcpConfigRepository.setSelectedLoco(loco);
                 }
             }
@@ -236,6 +257,154 @@ public class SettingsActivity extends AppCompatActivity {
         });
     }
 
+    private void setupProfileSpinners() {
+        profileAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, profileNames);
+        profileAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        binding.spinnerProfile.setAdapter(profileAdapter);
+        refreshProfiles(currentTcpConfig());
+        binding.spinnerProfile.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (position < 0 || position >= profileNames.size()) {
+                    return;
+                }
+                String name = profileNames.get(position);
+                if (!name.equals(currentTcpConfig().activeProfile)) {
+                    tcpConfigRepository.activateProfile(name);
+                }
+            }
+
+            @Override public void onNothingSelected(AdapterView<?> parent) { }
+        });
+        binding.buttonProfileSave.setOnClickListener(v -> saveNamedProfile());
+        binding.buttonProfileDelete.setOnClickListener(v -> deleteNamedProfile());
+
+        String[] standbyItems = new String[TcpConfigRepository.MAX_STANDBY_LINKS + 1];
+        for (int i = 0; i < standbyItems.length; i++) {
+            standbyItems[i] = "Резерв " + i;
+        }
+        ArrayAdapter<String> standbyAdapter = new ArrayAdapter<>(
+                this,
+                android.R.layout.simple_spinner_item,
+                standbyItems
+        );
+        standbyAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        binding.spinnerStandby.setAdapter(standbyAdapter);
+        binding.spinnerStandby.setSelection(currentTcpConfig().standbyCount, false);
+        binding.spinnerStandby.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (currentTcpConfig().standbyCount != position) {
+                    tcpConfigRepository.setStandbyCount(position);
+                }
+            }
+
+            @Override public void onNothingSelected(AdapterView<?> parent) { }
+        });
+
+        binding.switchStatusServer.setChecked(currentTcpConfig().statusServerEnabled);
+        binding.switchStatusServer.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (currentTcpConfig().statusServerEnabled != isChecked) {
+                tcpConfigRepository.setStatusServerEnabled(isChecked);
+            }
+        });
+    }
+
+    // Адрес и порт из полей ввода сохраняются под введённым именем и сразу становятся активными
+    private void saveNamedProfile() {
+        String name = String.valueOf(binding.valueProfileName.getText()).trim();
+        String host = pendingHost != null ? pendingHost.trim() : "";
+        Integer port = parseIntSafe(pendingPort, 1, 65535);
+        if (name.isEmpty() || host.isEmpty() || port == null
+                || !tcpConfigRepository.saveProfile(name, host, port)) {
+            Toast.makeText(this, "Профиль не сохранён: нужны имя, адрес и порт", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        tcpConfigRepository.activateProfile(name);
+        pendingDirty = false;
+        updateField(binding.valueProfileName, "");
+    }
+
+    // Пустое имя — удаляется активный профиль; адрес и порт остаются прежними
+    private void deleteNamedProfile() {
+        String name = String.valueOf(binding.valueProfileName.getText()).trim();
+        if (name.isEmpty()) {
+            name = currentTcpConfig().activeProfile;
+        }
+        if (name == null || !tcpConfigRepository.removeProfile(name)) {
+            Toast.makeText(this, "Профиль не найден", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        updateField(binding.valueProfileName, "");
+    }
+
+    // Список профилей в порядке MRU: активный профиль всегда первый
+    private void refreshProfiles(TcpConfigRepository.TcpConfig config) {
+        if (profileAdapter == null) {
+            return;
+        }
+        profileNames.clear();
+        for (TcpConfigRepository.ConnectionProfile profile : tcpConfigRepository.getProfiles()) {
+            profileNames.add(profile.name);
+        }
+        profileAdapter.notifyDataSetChanged();
+        int active = config.activeProfile != null ? profileNames.indexOf(config.activeProfile) : -1;
+        if (active >= 0 && binding.spinnerProfile.getSelectedItemPosition() != active) {
+            binding.spinnerProfile.setSelection(active, false);
+        }
+        if (binding.spinnerStandby.getSelectedItemPosition() != config.standbyCount) {
+            binding.spinnerStandby.setSelection(config.standbyCount, false);
+        }
+        if (binding.switchStatusServer.isChecked() != config.statusServerEnabled) {
+            binding.switchStatusServer.setChecked(config.statusServerEnabled);
+        }
+    }
+
+    // Флажки срочной полосы TX: команды в отмеченные состояния и для отмеченных локомотивов
+    // обгоняют очередь обычных кадров
+    private void setupPriorityLanes() {
+        for (int state = ProtocolConstraints.STATE_MIN; state <= ProtocolConstraints.STATE_MAX; state++) {
+            priorityStateBoxes.add(addPriorityBox(binding.layoutPriorityStates, "S" + state, state, true));
+        }
+        for (int loco = ProtocolConstraints.LOCO_MIN; loco <= ProtocolConstraints.LOCO_MAX; loco++) {
+            priorityLocoBoxes.add(addPriorityBox(binding.layoutPriorityLocos, String.valueOf(loco), loco, false));
+        }
+        refreshPriorityLanes(currentTcpConfig());
+    }
+
+    private CheckBox addPriorityBox(LinearLayout row, String label, int bit, boolean state) {
+        CheckBox box = new CheckBox(this);
+        box.setText(label);
+        box.setTextColor(0xFFE0E0E0);
+        box.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            // Маску берём из репозитория: снимок экрана может отставать на быстрых нажатиях
+            TcpConfigRepository.TcpConfig current = tcpConfigRepository.get();
+            int mask = state ? current.priorityStates : current.priorityLocos;
+            int next = isChecked ? mask | (1 << bit) : mask & ~(1 << bit);
+            if (next == mask) {
+                return;
+            }
+            if (state) {
+                tcpConfigRepository.setPriorityStates(next);
+            } else {
+                tcpConfigRepository.setPriorityLocos(next);
+            }
+        });
+        row.addView(box);
+        return box;
+    }
+
+    private void refreshPriorityLanes(TcpConfigRepository.TcpConfig config) {
+        for (int i = 0; i < priorityStateBoxes.size(); i++) {
+            int bit = 1 << (ProtocolConstraints.STATE_MIN + i);
+            priorityStateBoxes.get(i).setChecked((config.priorityStates & bit) != 0);
+        }
+        for (int i = 0; i < priorityLocoBoxes.size(); i++) {
+            int bit = 1 << (ProtocolConstraints.LOCO_MIN + i);
+            priorityLocoBoxes.get(i).setChecked((config.priorityLocos & bit) != 0);
+        }
+    }
+
     private void setupOverlaySwitch() {
         boolean editModeEnabled = currentOverlaySettings().editModeEnabled;
         suppressOverlaySwitch = true;
@@ -264,6 +433,14 @@ public class SettingsActivity extends AppCompatActivity {
                 if (!drained.isEmpty()) {
                     runOnUiThread(() -> appendColored(drained));
                 }
+                // Сводки простоя и задержек обновляются раз в секунду (каждый 5-й тик)
+                if (++dwellRefreshTicks >= 5) {
+                    dwellRefreshTicks = 0;
+                    runOnUiThread(() -> {
+                        updateDwellSummary();
+                        updateLatencySummary();
+                    });
+                }
             }
         }, 200, 200);
     }
@@ -286,6 +463,38 @@ public class SettingsActivity extends AppCompatActivity {
         updateField(binding.valuePortTCP, pendingPort);
     }
 
+    // p50/p95/p99 по стадиям приёма и отправки, в миллисекундах
+    private void updateLatencySummary() {
+        binding.textLatency.setText(latencyStats.formatTable());
+    }
+
+    // Время в каждом состоянии для выбранного локомотива: всё время / последний час / смена
+    private void updateDwellSummary() {
+        int loco = currentTcpConfig().selectedLoco;
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-6s %9s %9s %9s %5s %9s",
+                "", "всего", "час", "смена", "раз", "макс"));
+        for (int state = ProtocolConstraints.STATE_MIN; state <= ProtocolConstraints.STATE_MAX; state++) {
+            DwellAnalytics.Stats all = dwellAnalytics.stats(loco, state, DwellAnalytics.WINDOW_ALL, now);
+            DwellAnalytics.Stats hour = dwellAnalytics.stats(loco, state, DwellAnalytics.WINDOW_HOUR, now);
+            DwellAnalytics.Stats shift = dwellAnalytics.stats(loco, state, DwellAnalytics.WINDOW_SHIFT, now);
+            sb.append('\n').append(String.format(Locale.US, "%-6s %9s %9s %9s %5d %9s",
+                    (dwellAnalytics.currentState(loco) == state ? "*" : " ") + "S" + state,
+                    formatDuration(all.totalMs), formatDuration(hour.totalMs), formatDuration(shift.totalMs),
+                    all.count, formatDuration(all.maxMs)));
+        }
+        binding.textDwell.setText(sb);
+    }
+
+    private static String formatDuration(long ms) {
+        long seconds = ms / 1000L;
+        if (seconds < 3600L) {
+            return String.format(Locale.US, "%d:%02d", seconds / 60L, seconds % 60L);
+        }
+        return String.format(Locale.US, "%dh%02d", seconds / 3600L, (seconds / 60L) % 60L);
+    }
+
     private void updateStatusIndicators(TcpState state) {
         binding.switchTCPIndicator.setChecked(state.reachable);
         binding.progressBarTCPIndicator.setVisibility(state.connecting ? View.VISIBLE : View.GONE);
@@ -462,11 +671,9 @@ public class SettingsActivity extends AppCompatActivity {
         }
         if (overlayXValue != currentOverlay.x || overlayYValue != currentOverlay.y) {
             overlaySettingsRepository.setPosition(overlayXValue, overlayYValue);
-            sendPositionBroadcast(overlayXValue, overlayYValue);
         }
         if (Math.abs(overlayScaleValue - currentOverlay.scale) > 0.001f) {
             overlaySettingsRepository.setScale(overlayScaleValue);
-            sendScaleBroadcast(overlayScaleValue);
         }
 
         pendingHost = hostValue;
@@ -527,23 +734,6 @@ public class SettingsActivity extends AppCompatActivity {
         suppressWatchers = false;
     }
 
-    private void sendPositionBroadcast(Integer x, Integer y) {
-        Intent intent = new Intent(AppContracts.ACTION_APPLY_POSITION);
-        if (x != null) {
-            intent.putExtra(AppContracts.EXTRA_OVERLAY_X, x);
-        }
-        if (y != null) {
-            intent.putExtra(AppContracts.EXTRA_OVERLAY_Y, y);
-        }
-        sendBroadcast(intent);
-    }
-
-    private void sendScaleBroadcast(float scale) {
-        Intent intent = new Intent(AppContracts.ACTION_APPLY_SCALE);
-        intent.putExtra(AppContracts.EXTRA_OVERLAY_SCALE, scale);
-        sendBroadcast(intent);
-    }
-
     private OverlaySettingsRepository.OverlaySettings currentOverlaySettings() {
         if (overlaySettings == null) {
             overlaySettings = overlaySettingsRepository.get();
@@ -0,0 +1,227 @@
+package com.example.androidbuttons;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.example.androidbuttons.core.TcpConfigRepository;
+
+// Пул «тёплых» резервных соединений к недавно использованным контроллерам.
+// Резервные сокеты не участвуют в обмене: раз в тик пул лишь вычитывает и выбрасывает
+// входящие байты и проверяет, что соединение живо. Бюджет жёсткий: не больше
+// MAX_LINKS сокетов, один поток, одно пробуждение за тик и не больше одной попытки
+// подключения за тик.
+final class StandbyConnectionPool {
+
+    static final int MAX_LINKS = 3;
+
+    private static final long TICK_MS = 10_000L;
+    private static final int CONNECT_TIMEOUT_MS = 4000;
+    private static final int ACTIVE_READ_TIMEOUT_MS = 4000;
+    private static final int POLL_TIMEOUT_MS = 1;
+    private static final int DRAIN_LIMIT_BYTES = 16 * 1024;
+    private static final long RETRY_DELAY_MS = 10_000L;
+    private static final long RETRY_MAX_DELAY_MS = 120_000L;
+
+    // Резервная цель и её сокет
+    private static final class Link {
+        final String host;
+        final int port;
+        Socket socket;
+        int failures;
+        long nextAttemptAt;
+
+        Link(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        boolean matches(String h, int p) {
+            return host.equals(h) && port == p;
+        }
+
+        boolean isLive() {
+            return socket != null && socket.isConnected() && !socket.isClosed();
+        }
+    }
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<Link> links = new ArrayList<>();
+    private final byte[] drainBuf = new byte[1024];
+    private ScheduledFuture<?> tickTask;
+
+    // Обновление набора резервных целей (в порядке приоритета, лишнее отбрасывается)
+    synchronized void retain(List<TcpConfigRepository.ConnectionProfile> profiles) {
+        List<Link> next = new ArrayList<>();
+        for (TcpConfigRepository.ConnectionProfile profile : profiles) {
+            if (next.size() >= MAX_LINKS) break;
+            Link existing = find(profile.host, profile.port);
+            next.add(existing != null ? existing : new Link(profile.host, profile.port));
+        }
+        for (Link link : links) {
+            if (!next.contains(link)) {
+                closeQuietly(link);
+            }
+        }
+        links.clear();
+        links.addAll(next);
+        System.out.println("[TCP][STANDBY] retain count=" + links.size());
+        if (links.isEmpty()) {
+            stopTicking();
+        } else if (tickTask == null) {
+            // Первый тик сразу, чтобы резерв поднялся без ожидания полного интервала
+            tickTask = scheduler.scheduleWithFixedDelay(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Забрать готовый сокет к указанной цели. Сокет выходит из пула, вычищенный от
+    // накопленных в резерве байтов и с обычным таймаутом чтения; null — если тёплого нет.
+    synchronized Socket take(String host, int port) {
+        Link link = find(host, port);
+        if (link == null || !link.isLive()) {
+            return null;
+        }
+        Socket socket = link.socket;
+        link.socket = null;
+        try {
+            if (!drain(socket)) {
+                closeQuietly(socket);
+                return null;
+            }
+            socket.setSoTimeout(ACTIVE_READ_TIMEOUT_MS);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            return null;
+        }
+        links.remove(link);
+        System.out.println("[TCP][STANDBY] handed over host=" + host + " port=" + port);
+        return socket;
+    }
+
+    synchronized int liveCount() {
+        int count = 0;
+        for (Link link : links) {
+            if (link.isLive()) count++;
+        }
+        return count;
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            stopTicking();
+            for (Link link : links) {
+                closeQuietly(link);
+            }
+            links.clear();
+        }
+        try { scheduler.shutdownNow(); } catch (Exception ignored) {}
+    }
+
+    private void tick() {
+        Link toConnect = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Link link : links) {
+                if (link.isLive()) {
+                    try {
+                        if (drain(link.socket)) continue;
+                    } catch (IOException ignored) {
+                    }
+                    System.out.println("[TCP][STANDBY] lost host=" + link.host + " port=" + link.port);
+                    closeQuietly(link);
+                    noteFailure(link, now);
+                } else if (toConnect == null && now >= link.nextAttemptAt) {
+                    toConnect = link;
+                }
+            }
+        }
+        if (toConnect != null) {
+            connect(toConnect);
+        }
+    }
+
+    // Подключение идёт вне монитора, чтобы take() не ждал таймаут подключения
+    private void connect(Link link) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(link.host, link.port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.setSoTimeout(POLL_TIMEOUT_MS);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            synchronized (this) {
+                noteFailure(link, System.currentTimeMillis());
+            }
+            System.out.println("[TCP][STANDBY] connect failed host=" + link.host + " port=" + link.port
+                    + " msg=" + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            if (!links.contains(link)) {
+                // Пока подключались, цель выпала из резерва
+                closeQuietly(socket);
+                return;
+            }
+            link.socket = socket;
+            link.failures = 0;
+        }
+        System.out.println("[TCP][STANDBY] ready host=" + link.host + " port=" + link.port);
+    }
+
+    // Вычитывает и выбрасывает накопленные байты. false — соединение закрыто пиром.
+    private boolean drain(Socket socket) throws IOException {
+        socket.setSoTimeout(POLL_TIMEOUT_MS);
+        InputStream in = socket.getInputStream();
+        int total = 0;
+        while (total < DRAIN_LIMIT_BYTES) {
+            int n;
+            try {
+                n = in.read(drainBuf);
+            } catch (SocketTimeoutException empty) {
+                return true;
+            }
+            if (n == -1) return false;
+            total += n;
+        }
+        return true;
+    }
+
+    private void noteFailure(Link link, long now) {
+        link.failures++;
+        long delay = RETRY_DELAY_MS * (1L << Math.min(4, link.failures - 1));
+        link.nextAttemptAt = now + Math.min(RETRY_MAX_DELAY_MS, delay);
+    }
+
+    private Link find(String host, int port) {
+        for (Link link : links) {
+            if (link.matches(host, port)) return link;
+        }
+        return null;
+    }
+
+    private void stopTicking() {
+        if (tickTask != null) {
+            tickTask.cancel(false);
+            tickTask = null;
+        }
+    }
+
+    private static void closeQuietly(Link link) {
+        closeQuietly(link.socket);
+        link.socket = null;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) return;
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+}
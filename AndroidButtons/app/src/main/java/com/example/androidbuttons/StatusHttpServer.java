@@ -0,0 +1,400 @@
+package com.example.androidbuttons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Крошечный HTTP-сервер состояния для опроса планшетов с площадки: GET /metrics, GET /status.
+// Один поток на селекторе с минимальным приоритетом, сокеты неблокирующие, каждый ответ —
+// "Connection: close". Тело пишется рендерером в переиспользуемый StringBuilder и кодируется
+// в переиспользуемый буфер; частота рендеринга ограничена ведром токенов, лишние запросы
+// получают 429 без обращения к данным — опрос не отнимает время у управления.
+final class StatusHttpServer {
+
+    interface Renderer {
+        // Дописывает тело ответа; вызывается в потоке сервера
+        void render(StringBuilder out);
+    }
+
+    static final int DEFAULT_PORT = 9100;
+    static final int DEFAULT_MAX_PER_SECOND = 5;
+    static final String CONTENT_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    static final String CONTENT_JSON = "application/json; charset=utf-8";
+
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int MAX_REQUEST_BYTES = 2048;
+    private static final long IDLE_TIMEOUT_NS = 5_000_000_000L;
+    private static final long SELECT_TIMEOUT_MS = 1_000L;
+
+    private final Map<String, Route> routes = new HashMap<>();
+    private final int maxPerSecond;
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Буферы потока сервера: переиспользуются между ответами
+    private final StringBuilder body = new StringBuilder(4096);
+    private final StringBuilder header = new StringBuilder(256);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private ByteBuffer headBytes = ByteBuffer.allocate(256);
+    private ByteBuffer bodyBytes = ByteBuffer.allocate(8192);
+
+    private double tokens;
+    private long refillAtNanos;
+    private int connections;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private volatile boolean running;
+
+    StatusHttpServer() {
+        this(DEFAULT_MAX_PER_SECOND);
+    }
+
+    StatusHttpServer(int maxPerSecond) {
+        this.maxPerSecond = Math.max(1, maxPerSecond);
+        this.tokens = this.maxPerSecond;
+    }
+
+    // Маршруты регистрируются до start()
+    StatusHttpServer route(String path, String contentType, Renderer renderer) {
+        routes.put(path, new Route(contentType, renderer));
+        return this;
+    }
+
+    synchronized void start(InetSocketAddress address) throws IOException {
+        if (running) {
+            return;
+        }
+        Selector sel = Selector.open();
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(address, MAX_CONNECTIONS);
+            channel.configureBlocking(false);
+            channel.register(sel, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            sel.close();
+            throw e;
+        }
+        selector = sel;
+        server = channel;
+        refillAtNanos = System.nanoTime();
+        tokens = maxPerSecond;
+        connections = 0;
+        running = true;
+        thread = new Thread(this::loop, "status-http");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(500L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    // Фактический порт (для bind на порт 0 в тестах), -1 если сервер не запущен
+    int localPort() {
+        ServerSocketChannel channel = server;
+        return running && channel != null ? channel.socket().getLocalPort() : -1;
+    }
+
+    long servedCount() {
+        return served.get();
+    }
+
+    long rejectedCount() {
+        return rejected.get();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MS);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            flushPending(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+                closeIdle(System.nanoTime());
+            }
+        } catch (IOException e) {
+            System.out.println("[HTTP] selector failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+            running = false;
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client;
+        while ((client = server.accept()) != null) {
+            if (connections >= MAX_CONNECTIONS) {
+                closeQuietly(client);
+                rejected.incrementAndGet();
+                continue;
+            }
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ, new Conn(System.nanoTime()));
+            connections++;
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Conn conn = (Conn) key.attachment();
+        int n = channel.read(conn.request);
+        if (n < 0) {
+            close(key);
+            return;
+        }
+        conn.lastActiveNanos = System.nanoTime();
+        if (headersComplete(conn.request)) {
+            respond(key, conn);
+        } else if (!conn.request.hasRemaining()) {
+            writeResponse(key, 431, "Request Header Fields Too Large", null, false);
+        }
+    }
+
+    private void respond(SelectionKey key, Conn conn) throws IOException {
+        ByteBuffer request = conn.request;
+        int end = 0;
+        while (end < request.position() && request.get(end) != '\r' && request.get(end) != '\n') {
+            end++;
+        }
+        String line = new String(request.array(), 0, end, StandardCharsets.US_ASCII);
+        int firstSpace = line.indexOf(' ');
+        int secondSpace = firstSpace < 0 ? -1 : line.indexOf(' ', firstSpace + 1);
+        if (secondSpace < 0) {
+            writeResponse(key, 400, "Bad Request", null, false);
+            return;
+        }
+        String method = line.substring(0, firstSpace);
+        String target = line.substring(firstSpace + 1, secondSpace);
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            writeResponse(key, 405, "Method Not Allowed", null, false);
+            return;
+        }
+        Route route = routes.get(path);
+        if (route == null) {
+            writeResponse(key, 404, "Not Found", null, false);
+            return;
+        }
+        if (!acquireToken()) {
+            rejected.incrementAndGet();
+            writeResponse(key, 429, "Too Many Requests", null, false);
+            return;
+        }
+        served.incrementAndGet();
+        writeResponse(key, 200, "OK", route, head);
+    }
+
+    // Ведро токенов: не больше maxPerSecond рендеров в секунду, с запасом на одну секунду
+    private boolean acquireToken() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxPerSecond, tokens + (now - refillAtNanos) * (double) maxPerSecond / 1e9);
+        refillAtNanos = now;
+        if (tokens < 1d) {
+            return false;
+        }
+        tokens -= 1d;
+        return true;
+    }
+
+    private void writeResponse(SelectionKey key, int code, String reason, Route route, boolean headOnly)
+            throws IOException {
+        body.setLength(0);
+        if (route != null) {
+            route.renderer.render(body);
+        } else {
+            body.append(code).append(' ').append(reason).append('\n');
+        }
+        encodeBody();
+        header.setLength(0);
+        header.append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n")
+                .append("Content-Type: ").append(route != null ? route.contentType : "text/plain; charset=utf-8").append("\r\n")
+                .append("Content-Length: ").append(bodyBytes.remaining()).append("\r\n")
+                .append("Cache-Control: no-store\r\n");
+        if (code == 429) {
+            header.append("Retry-After: 1\r\n");
+        }
+        header.append("Connection: close\r\n\r\n");
+        encodeHeader();
+        if (headOnly) {
+            bodyBytes.limit(bodyBytes.position());
+        }
+
+        SocketChannel channel = (SocketChannel) key.channel();
+        gather[0] = headBytes;
+        gather[1] = bodyBytes;
+        channel.write(gather);
+        int left = headBytes.remaining() + bodyBytes.remaining();
+        if (left == 0) {
+            close(key);
+            return;
+        }
+        // Сокет не принял всё сразу: остаток копируем, общие буферы нужны следующему ответу
+        ByteBuffer pending = ByteBuffer.allocate(left);
+        pending.put(headBytes).put(bodyBytes).flip();
+        ((Conn) key.attachment()).pending = pending;
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void flushPending(SelectionKey key) throws IOException {
+        Conn conn = (Conn) key.attachment();
+        ((SocketChannel) key.channel()).write(conn.pending);
+        conn.lastActiveNanos = System.nanoTime();
+        if (!conn.pending.hasRemaining()) {
+            close(key);
+        }
+    }
+
+    private void encodeBody() {
+        encoder.reset();
+        bodyBytes.clear();
+        CharBuffer in = CharBuffer.wrap(body);
+        while (true) {
+            CoderResult result = encoder.encode(in, bodyBytes, true);
+            if (result.isOverflow()) {
+                bodyBytes = grow(bodyBytes);
+                continue;
+            }
+            result = encoder.flush(bodyBytes);
+            if (result.isOverflow()) {
+                bodyBytes = grow(bodyBytes);
+                continue;
+            }
+            break;
+        }
+        bodyBytes.flip();
+    }
+
+    // Заголовок — только ASCII
+    private void encodeHeader() {
+        if (headBytes.capacity() < header.length()) {
+            headBytes = ByteBuffer.allocate(header.length() * 2);
+        }
+        headBytes.clear();
+        for (int i = 0; i < header.length(); i++) {
+            headBytes.put((byte) header.charAt(i));
+        }
+        headBytes.flip();
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    private static boolean headersComplete(ByteBuffer request) {
+        int limit = request.position();
+        for (int i = 0; i + 1 < limit; i++) {
+            byte b = request.get(i);
+            if (b == '\n' && request.get(i + 1) == '\n') {
+                return true;
+            }
+            if (b == '\r' && i + 3 < limit && request.get(i + 1) == '\n'
+                    && request.get(i + 2) == '\r' && request.get(i + 3) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeIdle(long nowNanos) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Conn && nowNanos - ((Conn) attachment).lastActiveNanos > IDLE_TIMEOUT_NS) {
+                close(key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        if (key.attachment() instanceof Conn && key.isValid()) {
+            connections--;
+        }
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class Route {
+        final String contentType;
+        final Renderer renderer;
+
+        Route(String contentType, Renderer renderer) {
+            this.contentType = contentType;
+            this.renderer = renderer;
+        }
+    }
+
+    private static final class Conn {
+        final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        ByteBuffer pending;
+        long lastActiveNanos;
+
+        Conn(long nowNanos) {
+            lastActiveNanos = nowNanos;
+        }
+    }
+}
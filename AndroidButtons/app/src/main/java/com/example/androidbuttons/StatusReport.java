@@ -0,0 +1,152 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.LatencyHistogram;
+import com.example.androidbuttons.core.LatencyStats;
+import com.example.androidbuttons.core.Metrics;
+import com.example.androidbuttons.core.OverlayStateStore;
+import com.example.androidbuttons.core.ProtocolConstraints;
+
+// Форматирование снимка состояния для StatusHttpServer. Всё пишется прямо в переданный
+// StringBuilder, без промежуточных строк на метрику; без Android-зависимостей.
+final class StatusReport {
+
+    static final String PREFIX = "androidbuttons_";
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private StatusReport() {
+    }
+
+    // Prometheus text format 0.0.4: счётчики и гауги реестра, таймеры — summary в секундах,
+    // задержки конвейера — одно семейство с меткой stage, состояния локомотивов — с меткой loco
+    static void appendPrometheus(final StringBuilder out, Metrics metrics, LatencyStats latency,
+                                 OverlayStateStore.Snapshot locos) {
+        if (metrics != null) {
+            metrics.visit(new Metrics.Visitor() {
+                @Override
+                public void onCounter(String name, long value) {
+                    type(out, name, "counter");
+                    out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+                }
+
+                @Override
+                public void onGauge(String name, long value) {
+                    type(out, name, "gauge");
+                    out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+                }
+
+                @Override
+                public void onTimer(String name, Metrics.Timer timer) {
+                    String family = name + "_seconds";
+                    type(out, family, "summary");
+                    for (double q : QUANTILES) {
+                        out.append(PREFIX).append(family).append("{quantile=\"").append(q).append("\"} ");
+                        appendSeconds(out, timer.percentileUs(q * 100d));
+                        out.append('\n');
+                    }
+                    out.append(PREFIX).append(family).append("_sum ").append(timer.totalNanos() / 1e9).append('\n');
+                    out.append(PREFIX).append(family).append("_count ").append(timer.count()).append('\n');
+                }
+            });
+        }
+        if (latency != null) {
+            String family = "pipeline_latency_seconds";
+            type(out, family, "summary");
+            for (int stage = 0; stage < LatencyStats.STAGE_COUNT; stage++) {
+                LatencyHistogram histogram = latency.stage(stage);
+                String key = LatencyStats.stageKey(stage);
+                for (double q : QUANTILES) {
+                    out.append(PREFIX).append(family).append("{stage=\"").append(key)
+                            .append("\",quantile=\"").append(q).append("\"} ");
+                    appendSeconds(out, histogram.percentileUs(q * 100d));
+                    out.append('\n');
+                }
+                out.append(PREFIX).append(family).append("_count{stage=\"").append(key).append("\"} ")
+                        .append(histogram.count()).append('\n');
+            }
+        }
+        if (locos != null) {
+            type(out, "loco_state", "gauge");
+            for (int loco = ProtocolConstraints.LOCO_MIN; loco <= ProtocolConstraints.LOCO_MAX; loco++) {
+                int state = locos.state(loco);
+                if (state > 0) {
+                    out.append(PREFIX).append("loco_state{loco=\"").append(loco).append("\"} ")
+                            .append(state).append('\n');
+                }
+            }
+            type(out, "loco_state_age_seconds", "gauge");
+            for (int loco = ProtocolConstraints.LOCO_MIN; loco <= ProtocolConstraints.LOCO_MAX; loco++) {
+                long ageMs = locos.ageMs(loco);
+                if (ageMs >= 0) {
+                    out.append(PREFIX).append("loco_state_age_seconds{loco=\"").append(loco).append("\"} ")
+                            .append(ageMs / 1e3).append('\n');
+                }
+            }
+        }
+    }
+
+    // Состояния известных локомотивов как JSON-массив
+    static void appendLocosJson(StringBuilder out, OverlayStateStore.Snapshot locos) {
+        out.append('[');
+        boolean first = true;
+        for (int loco = ProtocolConstraints.LOCO_MIN; loco <= ProtocolConstraints.LOCO_MAX; loco++) {
+            int state = locos.state(loco);
+            if (state <= 0) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"loco\":").append(loco)
+                    .append(",\"state\":").append(state)
+                    .append(",\"version\":").append(locos.version(loco))
+                    .append(",\"age_ms\":").append(locos.ageMs(loco))
+                    .append('}');
+        }
+        out.append(']');
+    }
+
+    // "name": — ключ объекта; запятую перед ним ставит вызывающий
+    static StringBuilder key(StringBuilder out, String name) {
+        return string(out, name).append(':');
+    }
+
+    static StringBuilder string(StringBuilder out, String value) {
+        if (value == null) {
+            return out.append("null");
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00");
+                        out.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    private static void type(StringBuilder out, String family, String type) {
+        out.append("# TYPE ").append(PREFIX).append(family).append(' ').append(type).append('\n');
+    }
+
+    // Пустая гистограмма (-1) — NaN, как принято для summary без наблюдений
+    private static void appendSeconds(StringBuilder out, long micros) {
+        if (micros < 0) {
+            out.append("NaN");
+        } else {
+            out.append(micros / 1e6);
+        }
+    }
+}
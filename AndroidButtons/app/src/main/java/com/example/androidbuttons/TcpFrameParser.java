@@ -0,0 +1,253 @@
+package com.example.androidbuttons;
+
+// Потоковый разборщик кадров протокола: 0x7E | addr(1) | len(2 BE) | data(N) | CRC8.
+// Байты обрабатываются по мере поступления конечным автоматом, CRC считается на лету.
+// Короткие кадры (до INLINE_PAYLOAD_MAX) копируются во внутренний буфер и отдаются целиком
+// только с верным CRC; при ошибке разбор повторяется с байта после 0x7E, как раньше.
+// Длинные кадры не буферизуются: payload уходит потребителю кусками прямо из входного
+// массива, а в конце кадр подтверждается или откатывается по CRC. Память фиксирована.
+// Цена потоковости: после битого длинного кадра разбор продолжается за его концом,
+// уже отданные байты повторно не просматриваются.
+// После рукопожатия v2 включается компактное кадрирование: адрес 0xFE, длина varint
+// (см. FrameCodecV2); такие кадры всегда короткие и разбираются целиком.
+// Не потокобезопасен: вызывается только из потока чтения.
+final class TcpFrameParser {
+
+    static final int START = 0x7E;
+    static final int MAX_PAYLOAD = 4096;
+    static final int INLINE_PAYLOAD_MAX = 64;
+
+    private static final int HEADER_LEN = 4;
+
+    interface Listener {
+        // Короткий кадр с проверенным CRC; payload валиден только на время вызова
+        void onFrame(int address, byte[] payload, int off, int len);
+
+        // Начало длинного кадра
+        void onStreamStart(int address, int length);
+
+        // Очередной кусок payload длинного кадра (CRC ещё не проверен)
+        void onStreamChunk(byte[] buf, int off, int len);
+
+        // Конец длинного кадра: committed=false — CRC не сошёлся, принятое надо отбросить
+        void onStreamEnd(int address, int length, boolean committed);
+    }
+
+    private static final int S_SYNC = 0;
+    private static final int S_ADDR = 1;
+    private static final int S_LEN_HI = 2;
+    private static final int S_LEN_LO = 3;
+    private static final int S_PAYLOAD = 4;
+    private static final int S_CRC = 5;
+    private static final int S_VARLEN = 6;
+
+    private static final byte[] CRC_TABLE = buildCrcTable();
+
+    private final Listener listener;
+    // Заголовок, payload и CRC короткого кадра (без стартового байта)
+    private final byte[] inline = new byte[HEADER_LEN - 1 + INLINE_PAYLOAD_MAX + 1];
+    private int inlineSize;
+    private int state = S_SYNC;
+    private int address;
+    private int length;
+    private int received;
+    private int crc;
+    private boolean streaming;
+    private boolean compactFraming;
+    private int varlenShift;
+    private int payloadOffset;
+
+    private long framesOk;
+    private long framesBad;
+    // Байты, пропущенные в поиске стартового 0x7E (мусор между кадрами, ресинхронизация)
+    private long bytesSkipped;
+
+    TcpFrameParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Сброс незаконченного кадра (например, при смене сокета)
+    void reset() {
+        if (streaming) {
+            streaming = false;
+            listener.onStreamEnd(address, length, false);
+        }
+        state = S_SYNC;
+        inlineSize = 0;
+    }
+
+    void setCompactFraming(boolean enabled) {
+        compactFraming = enabled;
+    }
+
+    boolean isCompactFraming() {
+        return compactFraming;
+    }
+
+    long framesOk() {
+        return framesOk;
+    }
+
+    long framesBad() {
+        return framesBad;
+    }
+
+    long bytesSkipped() {
+        return bytesSkipped;
+    }
+
+    void feed(byte[] src, int off, int len) {
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            int b = src[i] & 0xFF;
+            switch (state) {
+                case S_SYNC:
+                    if (b == START) {
+                        state = S_ADDR;
+                        crc = 0;
+                        inlineSize = 0;
+                    } else {
+                        bytesSkipped++;
+                    }
+                    i++;
+                    break;
+                case S_ADDR:
+                    address = b;
+                    header(b);
+                    if (compactFraming && b == FrameCodecV2.COMPACT_ADDRESS) {
+                        length = 0;
+                        varlenShift = 0;
+                        state = S_VARLEN;
+                    } else {
+                        state = S_LEN_HI;
+                    }
+                    i++;
+                    break;
+                case S_VARLEN:
+                    header(b);
+                    i++;
+                    length |= (b & 0x7F) << varlenShift;
+                    varlenShift += 7;
+                    if ((b & 0x80) != 0) {
+                        if (varlenShift >= 14) {
+                            framesBad++;
+                            rescanInline();
+                        }
+                        break;
+                    }
+                    if (length > FrameCodecV2.MAX_COMPACT_PAYLOAD) {
+                        framesBad++;
+                        rescanInline();
+                        break;
+                    }
+                    received = 0;
+                    payloadOffset = inlineSize;
+                    streaming = false;
+                    state = length == 0 ? S_CRC : S_PAYLOAD;
+                    break;
+                case S_LEN_HI:
+                    length = b << 8;
+                    header(b);
+                    state = S_LEN_LO;
+                    i++;
+                    break;
+                case S_LEN_LO:
+                    length |= b;
+                    header(b);
+                    i++;
+                    if (length > MAX_PAYLOAD) {
+                        // Мусорная длина: ищем следующий старт внутри заголовка
+                        framesBad++;
+                        rescanInline();
+                        break;
+                    }
+                    received = 0;
+                    payloadOffset = inlineSize;
+                    streaming = length > INLINE_PAYLOAD_MAX;
+                    if (streaming) {
+                        listener.onStreamStart(address, length);
+                    }
+                    state = length == 0 ? S_CRC : S_PAYLOAD;
+                    break;
+                case S_PAYLOAD: {
+                    int n = Math.min(end - i, length - received);
+                    crc = crc8Update(crc, src, i, n);
+                    if (streaming) {
+                        listener.onStreamChunk(src, i, n);
+                    } else {
+                        System.arraycopy(src, i, inline, inlineSize, n);
+                        inlineSize += n;
+                    }
+                    received += n;
+                    i += n;
+                    if (received == length) {
+                        state = S_CRC;
+                    }
+                    break;
+                }
+                case S_CRC:
+                default:
+                    i++;
+                    finishFrame(b);
+                    break;
+            }
+        }
+    }
+
+    private void header(int b) {
+        crc = CRC_TABLE[(crc ^ b) & 0xFF] & 0xFF;
+        inline[inlineSize++] = (byte) b;
+    }
+
+    private void finishFrame(int crcByte) {
+        boolean crcOk = crcByte == crc;
+        state = S_SYNC;
+        if (crcOk) framesOk++; else framesBad++;
+        if (streaming) {
+            streaming = false;
+            listener.onStreamEnd(address, length, crcOk);
+            return;
+        }
+        if (crcOk) {
+            listener.onFrame(address, inline, payloadOffset, length);
+            return;
+        }
+        // Битый короткий кадр: возможно, 0x7E был мусором — разбираем заново со следующего байта
+        inline[inlineSize++] = (byte) crcByte;
+        rescanInline();
+    }
+
+    // Повторный разбор сохранённых байтов короткого кадра (после стартового 0x7E)
+    private void rescanInline() {
+        state = S_SYNC;
+        int n = inlineSize;
+        if (n == 0) return;
+        byte[] copy = new byte[n];
+        System.arraycopy(inline, 0, copy, 0, n);
+        inlineSize = 0;
+        feed(copy, 0, n);
+    }
+
+    // CRC8, полином 0x31 (как на стороне ESP), с продолжением от предыдущего значения
+    static int crc8Update(int crc, byte[] buf, int off, int len) {
+        int c = crc & 0xFF;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            c = CRC_TABLE[(c ^ buf[i]) & 0xFF] & 0xFF;
+        }
+        return c;
+    }
+
+    private static byte[] buildCrcTable() {
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            int c = v;
+            for (int b = 0; b < 8; b++) {
+                c = (c & 0x80) != 0 ? ((c << 1) ^ 0x31) & 0xFF : (c << 1) & 0xFF;
+            }
+            table[v] = (byte) c;
+        }
+        return table;
+    }
+}
@@ -1,5 +1,9 @@
 package com.example.androidbuttons;
 
+import com.example.androidbuttons.core.ClockSyncEstimator;
+import com.example.androidbuttons.core.LatencyStats;
+import com.example.androidbuttons.core.Metrics;
+
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -8,8 +12,8 @@ import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.Locale;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.example.androidbuttons.core.ProtocolConstraints.LOCO_MAX;
 import static com.example.androidbuttons.core.ProtocolConstraints.LOCO_MIN;
@@ -25,6 +29,63 @@ class TcpManager {
         void accept(String s);
     }
 
+    // Потребитель длинных кадров (диагностика/телеметрия), получает payload кусками
+    interface StreamConsumer {
+        void onStreamStart(int address, int length);
+
+        void onStreamChunk(byte[] buf, int off, int len);
+
+        // committed=false — CRC не сошёлся, принятые куски надо отбросить
+        void onStreamEnd(int address, int length, boolean committed);
+    }
+
+    // Короткий кадр не-состояния (len != 1); true — разобран, строка в onData не нужна
+    interface PayloadCallback {
+        boolean onPayload(int address, byte[] payload, int off, int len);
+    }
+
+    // Результат make-before-break переключения на новый host/port
+    interface SwitchCallback {
+        void onSwitchResult(boolean success, String host, int port, String reason);
+    }
+
+    enum ConnState { IDLE, CONNECTING, CONNECTED, CLOSING }
+
+    // Снимок соединения. generation растёт с каждой попыткой подключения: колбэки потоков
+    // подключения/чтения сверяют его и молча выходят, если их поколение уже не текущее.
+    private static final class Conn {
+        final ConnState state;
+        final int generation;
+        final Socket socket;
+        final String host;
+        final int port;
+
+        Conn(ConnState state, int generation, Socket socket, String host, int port) {
+            this.state = state;
+            this.generation = generation;
+            this.socket = socket;
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    // Подготовленная подмена сокета для потока чтения
+    private static final class Handover {
+        final Socket replaced;
+        final Socket socket;
+        final String host;
+        final int port;
+        final byte[] prefetch;
+
+        Handover(Socket replaced, Socket socket, String host, int port, byte[] prefetch) {
+            this.replaced = replaced;
+            this.socket = socket;
+            this.host = host;
+            this.port = port;
+            this.prefetch = prefetch;
+        }
+    }
+
     // Колбэк старта поиска/подключения
     private final Runnable onStart;
     // Колбэк остановки поиска/подключения
@@ -38,16 +99,57 @@ class TcpManager {
 
     // Поток для подключения и чтения входящих данных
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
-    // Отдельный поток для записи, чтобы чтение не блокировало отправку
-    private final ExecutorService writer = Executors.newSingleThreadExecutor();
-    private Future<?> task;
-    private Socket socket;
-    private final AtomicBoolean running = new AtomicBoolean(false);
+    // Отдельный поток записи с полосами приоритета, чтобы чтение не блокировало отправку,
+    // а стоп-команды не ждали за обычными кадрами
+    private final TxScheduler txScheduler = new TxScheduler(this::writeFrame, this::handleWriteError);
+    // Маски состояний/локомотивов, чьи кадры идут в высокую полосу (бит N — значение N)
+    private volatile int priorityStateMask = 1 << DEFAULT_PRIORITY_STATE;
+    private volatile int priorityLocoMask = 0;
+    // Понимает ли контроллер групповой кадр (адрес GROUP_ADDRESS); иначе шлём пачку обычных кадров.
+    // Выставляется рукопожатием (CAP_GROUP) и сбрасывается с каждым новым соединением.
+    private volatile boolean groupFramesSupported = false;
+    // Согласованный протокол текущего соединения и кодек исходящих/входящих кадров
+    private volatile ProtocolHandshake.Negotiated negotiated = ProtocolHandshake.Negotiated.V1_FALLBACK;
+    private volatile FrameCodec codec = FrameCodecV1.INSTANCE;
+    // Оценка часов контроллера по обменам TIME_REQUEST/TIME_REPLY (если контроллер умеет)
+    private volatile ClockSyncEstimator clockSync;
+    private final AtomicInteger timeSyncSeq = new AtomicInteger();
+    // Гистограммы задержек по стадиям; rxChunkAtNanos — момент чтения текущей порции (поток чтения)
+    private volatile LatencyStats latencyStats;
+    private long rxChunkAtNanos;
+    // Счётчики для dumpsys и /metrics; до setMetrics пишутся в собственный реестр менеджера
+    private volatile Metrics metrics;
+    private volatile Metrics.Counter rxBytes;
+    private volatile Metrics.Counter txBytes;
+    private volatile Metrics.Counter txFrames;
+    private volatile Metrics.Counter connectAttempts;
+    private volatile Metrics.Counter connectFailures;
+    private volatile Metrics.Counter sessionsEstablished;
+    private volatile Metrics.Timer connectTime;
+    // Локомотивы, отчёты по которым нужны (бит N — loco N+1). Контроллеру с CAP_SUBSCRIBE
+    // уходит SUBSCRIBE, остальное отсекается в FrameHandler до форматирования строки.
+    private volatile int subscriptionMask = ALL_LOCOS_MASK;
+    // Пишется только потоком чтения
+    private volatile long filteredRecords;
+    // Поток для подключения и проверки кандидата при смене адреса
+    private final ExecutorService switcher = Executors.newSingleThreadExecutor();
+    private volatile Future<?> task;
+    // Состояние соединения: неизменяемый снимок, переходы только через CAS
+    private final AtomicReference<Conn> conn =
+            new AtomicReference<>(new Conn(ConnState.IDLE, 0, null, null, -1));
 
     private static final long AUTO_RETRY_DELAY_MS = 1000;
     private static final long AUTO_RETRY_MAX_DELAY_MS = 30000;
     private static final int CONNECT_TIMEOUT_MS = 4000;
     private static final int READ_TIMEOUT_MS = 4000;
+    private static final long SWITCH_PROBE_MS = 1500;
+    // Красный (стоп) — см. OverlayStateAnimator.resolveDrawableForState
+    private static final int DEFAULT_PRIORITY_STATE = 4;
+    // Групповой кадр: 0x7E | 0xFF | len=2 | mask(бит N — loco N+1) | state | CRC8
+    static final int GROUP_ADDRESS = 0xFF;
+    static final int ALL_LOCOS_MASK = 0xFF;
+    // Порог тишины, если контроллер объявил heartbeat, а явный таймаут не задан
+    private static final long HEARTBEAT_IDLE_TIMEOUT_MS = 5000;
 
     // Планировщик для авто-подключения
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
@@ -55,15 +157,22 @@ class TcpManager {
     private volatile boolean autoMode = false;
     private volatile String targetHost = null;
     private volatile int targetPort = -1;
-    private volatile boolean connecting = false;
     private volatile boolean searching = false;
     private final AtomicInteger consecutiveFailures = new AtomicInteger();
     private volatile long nextAutoAttemptAt = 0L;
     private volatile boolean manualDisconnectRequested = false;
+    // Тишина дольше этого считается полуоткрытым соединением (0 — выключено).
+    // Имеет смысл только если контроллер шлёт что-то периодически (heartbeat/отчёты).
+    private volatile long idleTimeoutMs = 0L;
+    private final AtomicInteger switchGeneration = new AtomicInteger();
+    private final AtomicReference<Handover> handover = new AtomicReference<>();
 
-    // Внутренний буфер для приёма фреймов
-    private byte[] rxBuf = new byte[2048];
-    private int rxSize = 0;
+    // Потоковый разбор входящих кадров (только поток чтения)
+    private final TcpFrameParser parser = new TcpFrameParser(new FrameHandler());
+    private volatile StreamConsumer streamConsumer;
+    private volatile PayloadCallback payloadCallback;
+    // Сколько первых байт длинного кадра попадает в строку лога
+    private static final int STREAM_PREVIEW_BYTES = 32;
 
     // Обновление флага "идёт поиск/подключение"
     private void setSearching(boolean s) {
@@ -87,195 +196,570 @@ class TcpManager {
         this.onData = onData;
         this.onError = onError;
         this.onStatus = onStatus;
+        bindMetrics(new Metrics());
+    }
+
+    void setMetrics(Metrics registry) {
+        if (registry != null) {
+            bindMetrics(registry);
+        }
+    }
+
+    private void bindMetrics(Metrics registry) {
+        rxBytes = registry.counter("tcp_rx_bytes");
+        txBytes = registry.counter("tcp_tx_bytes");
+        txFrames = registry.counter("tcp_tx_frames");
+        connectAttempts = registry.counter("tcp_connect_attempts");
+        connectFailures = registry.counter("tcp_connect_failures");
+        sessionsEstablished = registry.counter("tcp_sessions_established");
+        connectTime = registry.timer("tcp_connect_time");
+        // Счётчики разборщика и очередей читаются только при снимке
+        // (поля разборщика пишет поток чтения; для метрик достаточно чуть устаревшего значения)
+        registry.counter(SAMPLED_METRICS[0], parser::framesOk);
+        registry.counter(SAMPLED_METRICS[1], parser::framesBad);
+        registry.counter(SAMPLED_METRICS[2], parser::bytesSkipped);
+        registry.counter(SAMPLED_METRICS[3], () -> filteredRecords);
+        registry.counter(SAMPLED_METRICS[4], () -> txScheduler.stats(TxScheduler.LANE_HIGH).dropped.get()
+                + txScheduler.stats(TxScheduler.LANE_NORMAL).dropped.get());
+        registry.gauge(SAMPLED_METRICS[5], consecutiveFailures::get);
+        registry.gauge(SAMPLED_METRICS[6], () -> isConnected() ? 1 : 0);
+        registry.gauge(SAMPLED_METRICS[7], this::connectionGeneration);
+        registry.gauge(SAMPLED_METRICS[8], () -> txScheduler.queueDepth(TxScheduler.LANE_HIGH));
+        registry.gauge(SAMPLED_METRICS[9], () -> txScheduler.queueDepth(TxScheduler.LANE_NORMAL));
+        bindLaneMetrics(registry, 10, txScheduler.stats(TxScheduler.LANE_HIGH));
+        bindLaneMetrics(registry, 14, txScheduler.stats(TxScheduler.LANE_NORMAL));
+        registry.counter(SAMPLED_METRICS[18], txScheduler.stats(TxScheduler.LANE_NORMAL).overflowed::get);
+        metrics = registry;
+    }
+
+    // Метрики, читающие поля менеджера; снимаются при shutdown, чтобы реестр не держал менеджер
+    private static final String[] SAMPLED_METRICS = {
+            "tcp_rx_frames_decoded",
+            "tcp_rx_frames_crc_failed",
+            "tcp_rx_resync_bytes_skipped",
+            "tcp_rx_records_filtered",
+            "tcp_tx_dropped",
+            "tcp_backoff_level",
+            "tcp_connected",
+            "tcp_connection_generation",
+            "tcp_tx_queue_high",
+            "tcp_tx_queue_normal",
+            "tcp_tx_high_sent",
+            "tcp_tx_high_dropped",
+            "tcp_tx_high_delay_avg_us",
+            "tcp_tx_high_delay_max_us",
+            "tcp_tx_normal_sent",
+            "tcp_tx_normal_dropped",
+            "tcp_tx_normal_delay_avg_us",
+            "tcp_tx_normal_delay_max_us",
+            "tcp_tx_normal_overflow",
+    };
+
+    // Четыре метрики полосы подряд в SAMPLED_METRICS, начиная с first; задержка — в очереди, мкс
+    private static void bindLaneMetrics(Metrics registry, int first, TxScheduler.LaneStats lane) {
+        registry.counter(SAMPLED_METRICS[first], lane.sent::get);
+        registry.counter(SAMPLED_METRICS[first + 1], lane.dropped::get);
+        registry.gauge(SAMPLED_METRICS[first + 2], () -> lane.averageDelayNanos() / 1000L);
+        registry.gauge(SAMPLED_METRICS[first + 3], () -> lane.maxDelayNanos.get() / 1000L);
     }
 
     // Запрос ручного подключения к указанному хосту/порту
     // Валидация параметров, закрытие старого сокета и запуск фонового потока.
-    synchronized void connect(String host, int port) {
+    void connect(String host, int port) {
         if (host == null || host.trim().isEmpty() || port < 1 || port > 65535) return;
-        if (connecting) return;
 
-        // Проверяем, что мы не уже подключены к тому же адресу
-        if (isConnected()) {
-            try {
-                String curHost = socket.getInetAddress() != null ? socket.getInetAddress().getHostAddress() : null;
-                int curPort = socket.getPort();
-                if (curHost != null && curHost.equals(host) && curPort == port) {
+        Conn next;
+        while (true) {
+            Conn cur = conn.get();
+            if (cur.state == ConnState.CONNECTING || cur.state == ConnState.CLOSING) return;
+            if (cur.state == ConnState.CONNECTED) {
+                // Проверяем, что мы не уже подключены к тому же адресу
+                if (host.equals(cur.host) && port == cur.port) {
                     System.out.println("[TCP][CONNECT] skip (already connected) host=" + host + " port=" + port);
                     return;
                 }
-            } catch (Throwable ignored) {}
-            // Адрес/порт изменились — закрываем старый сокет
-            System.out.println("[TCP][CONNECT] host/port changed oldHost=" + socket.getInetAddress().getHostAddress()
-                    + " oldPort=" + socket.getPort() + " newHost=" + host + " newPort=" + port);
-            disconnect();
+                // Адрес/порт изменились — закрываем старый сокет
+                System.out.println("[TCP][CONNECT] host/port changed oldHost=" + cur.host
+                        + " oldPort=" + cur.port + " newHost=" + host + " newPort=" + port);
+                disconnect();
+                continue;
+            }
+            next = new Conn(ConnState.CONNECTING, cur.generation + 1, null, host, port);
+            if (conn.compareAndSet(cur, next)) break;
         }
 
-        System.out.println("[TCP][CONNECT] attempt host=" + host + " port=" + port);
-        connecting = true;
-        running.set(true);
+        System.out.println("[TCP][CONNECT] attempt host=" + host + " port=" + port + " gen=" + next.generation);
+        connectAttempts.increment();
         setSearching(true);
 
         // Запоминаем целевые параметры для авто-режима и логов
         targetHost = host;
         targetPort = port;
 
+        final int gen = next.generation;
         task = executor.submit(() -> {
-                boolean normalClose = false;
+                Socket newSock = null;
+                long connectStartedAt = System.nanoTime();
                 try {
                     // Создаём и подключаем новый сокет
-                    Socket newSock = new Socket();
+                    newSock = new Socket();
                     newSock.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                    connectTime.recordNanos(System.nanoTime() - connectStartedAt);
                     newSock.setSoTimeout(READ_TIMEOUT_MS);
                     newSock.setTcpNoDelay(true);
-                    synchronized (TcpManager.this) { socket = newSock; }
+                } catch (IOException e) {
+                    if (newSock != null) {
+                        try { newSock.close(); } catch (IOException ignored) {}
+                    }
+                    connectFailures.increment();
+                    if (isGeneration(gen)) {
+                        System.out.println("[TCP][CONNECT] error host=" + host + " port=" + port + " msg=" + e.getMessage());
+                        if (onData != null) onData.accept("[TCP] Connection error: " + e.getMessage() + "\n");
+                        if (onError != null) onError.accept(e.getMessage());
+                    }
+                    finishSession(gen, false);
+                    return;
+                }
+                // Пока шло подключение, цель могла смениться (make-before-break к другому адресу)
+                if (!host.equals(targetHost) || port != targetPort) {
+                    System.out.println("[TCP][CONNECT] target changed while connecting, drop host=" + host + " port=" + port);
+                    try { newSock.close(); } catch (IOException ignored) {}
+                    finishSession(gen, true);
+                    return;
+                }
+                runSession(gen, newSock, host, port, null);
+        });
+    }
 
-                    setSearching(false);
-                    if (onStatus != null) onStatus.accept("connected");
-                    if (onData != null) onData.accept("[TCP] Connected to " + host + ":" + port + "\n");
-                    System.out.println("[TCP][CONNECT] success host=" + host + " port=" + port);
-                    noteAutoSuccess();
-
-                    // Читаем поток и передаём байты в парсер фреймов
-                    InputStream in = new BufferedInputStream(newSock.getInputStream());
-                    byte[] buf = new byte[512];
-                    while (running.get()) {
-                        try {
-                            int n = in.read(buf);
-                            if (n == -1) {
-                                normalClose = true;
-                                break;
-                            }
-                            if (n > 0) {
-                                try {
-                                    System.out.println("TCP RX (" + n + " bytes): " + toHex(buf, 0, n));
-                                } catch (Throwable ignored) {}
-                                feedRx(buf, n);
-                                drainFrames();
-                            }
-                        } catch (SocketTimeoutException timeout) {
-                            if (!running.get()) break;
+    // Цикл обслуживания уже подключённого сокета: чтение, разбор кадров и подмена
+    // сокета при make-before-break переключении без разрыва сессии.
+    private void runSession(int gen, Socket sock, String host, int port, byte[] prefetch) {
+        Conn connecting = conn.get();
+        if (connecting.generation != gen || connecting.state != ConnState.CONNECTING
+                || !conn.compareAndSet(connecting, new Conn(ConnState.CONNECTED, gen, sock, host, port))) {
+            // Пока подключались, соединение отменили или заменили — сокет никому не нужен
+            try { sock.close(); } catch (IOException ignored) {}
+            System.out.println("[TCP][CONNECT] stale session dropped host=" + host + " port=" + port + " gen=" + gen);
+            finishSession(gen, true);
+            return;
+        }
+        boolean normalClose = false;
+        try {
+            setSearching(false);
+            if (onStatus != null) onStatus.accept("connected");
+            if (onData != null) onData.accept("[TCP] Connected to " + host + ":" + port + "\n");
+            System.out.println("[TCP][CONNECT] success host=" + host + " port=" + port);
+            sessionsEstablished.increment();
+            noteAutoSuccess();
+
+            Socket active = sock;
+            parser.reset();
+            beginHandshake();
+            applyReadTimeout(active);
+            InputStream in = new BufferedInputStream(active.getInputStream());
+            long lastRxAt = System.currentTimeMillis();
+            if (prefetch != null && prefetch.length > 0) {
+                parser.feed(prefetch, 0, prefetch.length);
+            }
+            // Читаем поток и передаём байты в парсер фреймов
+            byte[] buf = new byte[512];
+            while (isCurrent(gen)) {
+                try {
+                    int n = in.read(buf);
+                    if (n == -1) {
+                        Handover next = takeHandover(active);
+                        if (next == null) {
+                            normalClose = true;
+                            break;
                         }
+                        active = next.socket;
+                        in = acceptHandover(next);
+                        lastRxAt = System.currentTimeMillis();
+                        continue;
                     }
-                } catch (IOException e) {
-                    System.out.println("[TCP][CONNECT] error host=" + host + " port=" + port + " msg=" + e.getMessage());
-                    if (onData != null) onData.accept("[TCP] Connection error: " + e.getMessage() + "\n");
-                    if (onError != null) onError.accept(e.getMessage());
-                } finally {
-                    // Любое завершение цикла чтения приводит к закрытию сокета и обновлению статуса
-                    closeQuietly();
-                    running.set(false);
-                    connecting = false;
-                    boolean manual = manualDisconnectRequested;
-                    manualDisconnectRequested = false;
-                    if (autoMode) {
-                        if (manual) {
-                            noteManualDisconnect();
-                        } else if (normalClose) {
-                            noteGracefulClose();
-                        } else {
-                            noteAutoFailure();
-                        }
+                    if (n > 0) {
+                        lastRxAt = System.currentTimeMillis();
+                        rxChunkAtNanos = System.nanoTime();
+                        rxBytes.add(n);
+                        try {
+                            System.out.println("TCP RX (" + n + " bytes): " + toHex(buf, 0, n));
+                        } catch (Throwable ignored) {}
+                        parser.feed(buf, 0, n);
                     }
-                    if (onStatus != null) onStatus.accept("disconnected");
-                    if (onData != null) {
-                        onData.accept("[TCP] Disconnected from " + targetHost + ":" + targetPort
-                                + (normalClose ? " (normal)" : " (error)") + "\n");
+                } catch (SocketTimeoutException timeout) {
+                    if (!isCurrent(gen)) break;
+                    long idle = effectiveIdleTimeoutMs();
+                    if (idle > 0 && System.currentTimeMillis() - lastRxAt >= idle) {
+                        // Сокет формально жив, но данных нет — считаем соединение потерянным
+                        throw new SocketTimeoutException("no data for " + idle + " ms");
                     }
-                    System.out.println("[TCP][DISCONNECT] closed host=" + targetHost + " port=" + targetPort
-                            + " normalClose=" + normalClose);
+                } catch (IOException readError) {
+                    // Старый сокет закрыт переключателем — продолжаем на новом
+                    Handover next = takeHandover(active);
+                    if (next == null) throw readError;
+                    active = next.socket;
+                    in = acceptHandover(next);
+                    lastRxAt = System.currentTimeMillis();
                 }
-        });
+            }
+        } catch (IOException e) {
+            if (isGeneration(gen)) {
+                System.out.println("[TCP][CONNECT] error host=" + targetHost + " port=" + targetPort + " msg=" + e.getMessage());
+                if (onData != null) onData.accept("[TCP] Connection error: " + e.getMessage() + "\n");
+                if (onError != null) onError.accept(e.getMessage());
+            }
+        } finally {
+            finishSession(gen, normalClose);
+        }
+    }
+
+    // Любое завершение цикла чтения приводит к закрытию сокета и обновлению статуса.
+    // Колбэк устаревшего поколения (его уже закрыли и, возможно, начали новое) ничего не трогает.
+    private void finishSession(int gen, boolean normalClose) {
+        closeGeneration(gen);
+        if (conn.get().generation != gen) {
+            System.out.println("[TCP][DISCONNECT] stale finish ignored gen=" + gen);
+            return;
+        }
+        boolean manual = manualDisconnectRequested;
+        manualDisconnectRequested = false;
+        if (autoMode) {
+            if (manual) {
+                noteManualDisconnect();
+            } else if (normalClose) {
+                noteGracefulClose();
+            } else {
+                noteAutoFailure();
+            }
+        }
+        if (onStatus != null) onStatus.accept("disconnected");
+        if (onData != null) {
+            onData.accept("[TCP] Disconnected from " + targetHost + ":" + targetPort
+                    + (normalClose ? " (normal)" : " (error)") + "\n");
+        }
+        System.out.println("[TCP][DISCONNECT] closed host=" + targetHost + " port=" + targetPort
+                + " normalClose=" + normalClose);
+    }
+
+    // Переключение на новый host/port по схеме make-before-break.
+    // Новый сокет подключается и проверяется, пока старый продолжает обслуживать трафик;
+    // затем сокеты подменяются атомарно, и только после этого закрывается старый.
+    // При неудаче старое соединение остаётся нетронутым (откат).
+    void switchTarget(String host, int port, SwitchCallback callback) {
+        switchTarget(host, port, null, callback);
+    }
+
+    // Вариант с уже подключённым и проверенным сокетом (например, из резервного пула):
+    // подключение и окно проверки пропускаются, остаётся только атомарная подмена.
+    void switchTarget(String host, int port, Socket prewarmed, SwitchCallback callback) {
+        if (host == null || host.trim().isEmpty() || port < 1 || port > 65535) {
+            if (prewarmed != null) {
+                try { prewarmed.close(); } catch (IOException ignored) {}
+            }
+            if (callback != null) callback.onSwitchResult(false, host, port, "invalid target");
+            return;
+        }
+        final int generation = switchGeneration.incrementAndGet();
+        System.out.println("[TCP][SWITCH] request host=" + host + " port=" + port + " gen=" + generation
+                + " prewarmed=" + (prewarmed != null));
+        switcher.submit(() -> runSwitch(generation, host, port, prewarmed, callback));
+    }
+
+    private void runSwitch(int generation, String host, int port, Socket prewarmed, SwitchCallback callback) {
+        Socket candidate = prewarmed != null ? prewarmed : new Socket();
+        byte[] prefetch = null;
+        try {
+            if (prewarmed == null) {
+                candidate.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                candidate.setTcpNoDelay(true);
+                prefetch = probeCandidate(candidate);
+            }
+            candidate.setSoTimeout(READ_TIMEOUT_MS);
+        } catch (IOException e) {
+            try { candidate.close(); } catch (IOException ignored) {}
+            System.out.println("[TCP][SWITCH] rollback host=" + host + " port=" + port + " msg=" + e.getMessage());
+            if (onData != null) {
+                onData.accept("[TCP] Switch to " + host + ":" + port + " failed, staying on "
+                        + targetHost + ":" + targetPort + "\n");
+            }
+            if (callback != null) callback.onSwitchResult(false, host, port, e.getMessage());
+            return;
+        }
+        if (!commitSwitch(generation, candidate, host, port, prefetch)) {
+            // Запрос устарел — уже запрошено другое переключение или ручное отключение
+            try { candidate.close(); } catch (IOException ignored) {}
+            System.out.println("[TCP][SWITCH] superseded host=" + host + " port=" + port + " gen=" + generation);
+            if (callback != null) callback.onSwitchResult(false, host, port, "superseded");
+            return;
+        }
+        if (callback != null) callback.onSwitchResult(true, host, port, null);
+    }
+
+    // Проверка кандидата: сокет должен пережить окно проверки без EOF/ошибок.
+    // Пришедшие за это время байты не теряются — они будут переданы в парсер после подмены.
+    private static byte[] probeCandidate(Socket candidate) throws IOException {
+        candidate.setSoTimeout((int) SWITCH_PROBE_MS);
+        byte[] buf = new byte[512];
+        try {
+            int n = candidate.getInputStream().read(buf);
+            if (n == -1) throw new IOException("closed by peer during validation");
+            byte[] prefetch = new byte[n];
+            System.arraycopy(buf, 0, prefetch, 0, n);
+            return prefetch;
+        } catch (SocketTimeoutException quiet) {
+            // Тишина в окне проверки — соединение живо, просто нет данных
+            return null;
+        }
+    }
+
+    private boolean commitSwitch(int generation, Socket candidate, String host, int port, byte[] prefetch) {
+        Socket old = null;
+        boolean hot = false;
+        while (true) {
+            if (generation != switchGeneration.get()) return false;
+            Conn cur = conn.get();
+            if (cur.state == ConnState.CONNECTED) {
+                // Подмена в пределах того же поколения: сессия продолжается на новом сокете
+                Handover h = new Handover(cur.socket, candidate, host, port, prefetch);
+                handover.set(h);
+                if (!conn.compareAndSet(cur, new Conn(ConnState.CONNECTED, cur.generation, candidate, host, port))) {
+                    handover.compareAndSet(h, null);
+                    continue;
+                }
+                old = cur.socket;
+                hot = true;
+            } else if (cur.state == ConnState.IDLE) {
+                // Старое соединение уже умерло — поднимаем сессию сразу на проверенном сокете
+                Conn next = new Conn(ConnState.CONNECTING, cur.generation + 1, null, host, port);
+                if (!conn.compareAndSet(cur, next)) continue;
+                final int gen = next.generation;
+                task = executor.submit(() -> runSession(gen, candidate, host, port, prefetch));
+            } else {
+                // Идёт подключение или закрытие: попытка к старому адресу отбросит себя сама,
+                // а авто-подключение пойдёт уже на новую цель
+                try { candidate.close(); } catch (IOException ignored) {}
+            }
+            break;
+        }
+        targetHost = host;
+        targetPort = port;
+        consecutiveFailures.set(0);
+        nextAutoAttemptAt = 0L;
+        if (hot) {
+            // Старый сокет закрываем только после подмены: поток чтения перейдёт на новый
+            try { old.close(); } catch (IOException ignored) {}
+        }
+        System.out.println("[TCP][SWITCH] committed host=" + host + " port=" + port + " hot=" + hot);
+        return true;
+    }
+
+    // Забираем подготовленную подмену, если она относится к текущему сокету чтения
+    private Handover takeHandover(Socket active) {
+        Handover h = handover.get();
+        if (h == null || h.replaced != active) return null;
+        return handover.compareAndSet(h, null) ? h : null;
+    }
+
+    private InputStream acceptHandover(Handover next) throws IOException {
+        // Хвост незаконченного кадра со старого сокета не имеет смысла на новом
+        parser.reset();
+        // Новый адрес — возможно, другая прошивка: договариваемся заново
+        beginHandshake();
+        applyReadTimeout(next.socket);
+        InputStream in = new BufferedInputStream(next.socket.getInputStream());
+        if (onData != null) onData.accept("[TCP] Switched to " + next.host + ":" + next.port + "\n");
+        System.out.println("[TCP][SWITCH] reader moved to host=" + next.host + " port=" + next.port);
+        if (next.prefetch != null && next.prefetch.length > 0) {
+            parser.feed(next.prefetch, 0, next.prefetch.length);
+        }
+        return in;
     }
 
     // Ручное отключение клиента и остановка фонового потока чтения
-    synchronized void disconnect() {
+    void disconnect() {
+        Conn cur = conn.get();
+        boolean connected = cur.state == ConnState.CONNECTED;
         System.out.println("[TCP][DISCONNECT] manual request host=" + targetHost + " port=" + targetPort
-                + " connected=" + isConnected());
-        if (isConnected() && onData != null) {
+                + " connected=" + connected);
+        if (connected && onData != null) {
             onData.accept("[TCP] Manual disconnect from " + targetHost + ":" + targetPort + "\n");
         }
-        boolean activeTask = task != null && !task.isDone();
+        // Незавершённое переключение после ручного отключения уже не нужно
+        switchGeneration.incrementAndGet();
+        Future<?> current = task;
+        boolean activeTask = current != null && !current.isDone();
         if (activeTask) manualDisconnectRequested = true;
-        running.set(false);
-        if (task != null) task.cancel(true);
-        closeQuietly();
-        connecting = false;
+        closeGeneration(cur.generation);
+        if (current != null) current.cancel(true);
         if (autoMode && !activeTask) {
             noteManualDisconnect();
         }
         if (onStatus != null) onStatus.accept("disconnected");
     }
 
-    // Тихое закрытие сокета без лишних исключений в логах
-    private synchronized void closeQuietly() {
-        if (socket != null) {
-            try { socket.close(); } catch (IOException ignored) {}
-            socket = null;
+    // CONNECTING/CONNECTED поколения gen → CLOSING → IDLE с закрытием сокета.
+    // Закрывает ровно один вызов; false — поколение уже закрыто или сменилось.
+    private boolean closeGeneration(int gen) {
+        while (true) {
+            Conn cur = conn.get();
+            if (cur.generation != gen || cur.state == ConnState.IDLE || cur.state == ConnState.CLOSING) {
+                return false;
+            }
+            Conn closing = new Conn(ConnState.CLOSING, gen, cur.socket, cur.host, cur.port);
+            if (!conn.compareAndSet(cur, closing)) continue;
+            if (cur.socket != null) {
+                try { cur.socket.close(); } catch (IOException ignored) {}
+            }
+            conn.compareAndSet(closing, new Conn(ConnState.IDLE, gen, null, cur.host, cur.port));
+            return true;
         }
     }
 
-    // Быстрая проверка факта подключения к сокету
-    public synchronized boolean isConnected() {
-        return socket != null && socket.isConnected() && !socket.isClosed();
+    private boolean isCurrent(int gen) {
+        Conn cur = conn.get();
+        return cur.generation == gen && cur.state == ConnState.CONNECTED;
+    }
+
+    private boolean isGeneration(int gen) {
+        Conn cur = conn.get();
+        return cur.generation == gen && cur.state != ConnState.IDLE;
+    }
+
+    // Текущее состояние соединения; одно чтение volatile, без блокировок
+    ConnState connectionState() {
+        return conn.get().state;
+    }
+
+    // Растёт с каждой новой попыткой подключения; подмена сокета при переключении его не меняет
+    int connectionGeneration() {
+        return conn.get().generation;
+    }
+
+    // Быстрая проверка факта подключения (без блокировок: вызывается из main-потока на каждое нажатие)
+    public boolean isConnected() {
+        return conn.get().state == ConnState.CONNECTED;
     }
 
     // Пассивная проверка, что соединение ещё живо
-    // Не шлёт данные, опирается только на флаги сокета.
-    public synchronized boolean checkConnectionAlive() {
-        if (socket == null || socket.isClosed() || !socket.isConnected()) {
+    // Не шлёт данные, опирается только на состояние и флаги сокета.
+    public boolean checkConnectionAlive() {
+        Conn cur = conn.get();
+        Socket sck = cur.socket;
+        if (cur.state != ConnState.CONNECTED || sck == null || sck.isClosed() || !sck.isConnected()) {
             return false;
         }
-        return !socket.isInputShutdown() && !socket.isOutputShutdown();
+        return !sck.isInputShutdown() && !sck.isOutputShutdown();
     }
 
     // Упрощённый флаг активности соединения
-    synchronized boolean connectionActive() { return isConnected(); }
+    boolean connectionActive() { return isConnected(); }
 
-    // Сборка кадра управления: 0x7E | loco(1) | len(2 BE) | data(N) | CRC8
+    // Сборка кадра управления v1: 0x7E | loco(1) | len(2 BE) | data(N) | CRC8
     byte[] buildControlFrame(int loco, int state) {
-        int l = Math.max(LOCO_MIN, Math.min(LOCO_MAX, loco));
-        int st = Math.max(STATE_MIN, Math.min(STATE_MAX, state));
-        final byte START = 0x7E;
-
-        // Пока payload = один байт состояния (резерв для будущих полей)
-        byte[] payload = new byte[1];
-        payload[0] = (byte) st;
-        int len = payload.length;
-
-        byte[] crcBuf = new byte[3 + len];
-        crcBuf[0] = (byte) (l & 0xFF);
-        crcBuf[1] = 0;            // lenHi — всегда 0 при текущей длине payload
-        crcBuf[2] = (byte) len;   // lenLo
-        System.arraycopy(payload, 0, crcBuf, 3, len);
-
-        byte crc = crc8(crcBuf, 0, crcBuf.length);
+        return FrameCodecV1.INSTANCE.encodeState(loco, state);
+    }
 
-        byte[] frame = new byte[1 + crcBuf.length + 1];
-        frame[0] = START;
-        System.arraycopy(crcBuf, 0, frame, 1, crcBuf.length);
-        frame[frame.length - 1] = crc;
-        return frame;
+    // Групповой кадр: одно состояние сразу для всех локомотивов из маски
+    byte[] buildGroupFrame(int locoMask, int state) {
+        int st = Math.max(STATE_MIN, Math.min(STATE_MAX, state));
+        byte[] payload = new byte[2];
+        payload[0] = (byte) (locoMask & 0xFF);
+        payload[1] = (byte) st;
+        return FrameCodecV1.buildFrame(GROUP_ADDRESS, payload);
     }
 
     // Асинхронная отправка управляющего кадра
     // Без повторов, ошибки только логируем через onError.
     void sendControl(int loco, int state) {
         if (!isConnected()) return;
-        final byte[] frame = buildControlFrame(loco, state);
-        writer.submit(() -> {
-            try {
-                Socket sck;
-                synchronized (TcpManager.this) { sck = socket; }
-                if (sck == null || sck.isClosed() || !sck.isConnected()) return;
-                sck.getOutputStream().write(frame);
-                sck.getOutputStream().flush();
-            } catch (IOException e) {
-                if (onError != null) onError.accept("TCP TX error: " + e.getMessage());
-                running.set(false);
-                closeQuietly();
+        final byte[] frame = codec.encodeState(loco, state);
+        txScheduler.submit(frame, laneFor(loco, state));
+    }
+
+    // Одно состояние для нескольких локомотивов (бит N маски — loco N+1).
+    // Если контроллер понимает групповой кадр — один кадр, иначе записи кодируются
+    // текущим кодеком в один буфер (v1 — склейка кадров, v2 — один компактный кадр)
+    // и уходят одной записью и одним flush.
+    void sendGroupControl(int locoMask, int state) {
+        if (!isConnected() || locoMask == 0) return;
+        boolean urgent = false;
+        for (int l = LOCO_MIN; l <= LOCO_MAX; l++) {
+            if ((locoMask & (1 << (l - LOCO_MIN))) != 0 && laneFor(l, state) == TxScheduler.LANE_HIGH) {
+                urgent = true;
+                break;
             }
-        });
+        }
+        int lane = urgent ? TxScheduler.LANE_HIGH : TxScheduler.LANE_NORMAL;
+        if (groupFramesSupported) {
+            txScheduler.submit(buildGroupFrame(locoMask, state), lane);
+            return;
+        }
+        int[] locos = new int[LOCO_MAX - LOCO_MIN + 1];
+        int[] states = new int[locos.length];
+        int count = 0;
+        for (int l = LOCO_MIN; l <= LOCO_MAX; l++) {
+            if ((locoMask & (1 << (l - LOCO_MIN))) == 0) continue;
+            locos[count] = l;
+            states[count] = state;
+            count++;
+        }
+        if (count > 0) {
+            txScheduler.submit(codec.encodeStates(locos, states, count), lane);
+        }
+    }
+
+    void setGroupFramesSupported(boolean supported) {
+        groupFramesSupported = supported;
+    }
+
+    boolean isGroupFramesSupported() {
+        return groupFramesSupported;
+    }
+
+    // Выбор полосы: настроенные состояния/локомотивы идут с высоким приоритетом
+    int laneFor(int loco, int state) {
+        boolean urgent = (state >= 0 && state < 32 && (priorityStateMask & (1 << state)) != 0)
+                || (loco >= 0 && loco < 32 && (priorityLocoMask & (1 << loco)) != 0);
+        return urgent ? TxScheduler.LANE_HIGH : TxScheduler.LANE_NORMAL;
+    }
+
+    // Маски из TcpConfigRepository: бит N — состояние N / локомотив N
+    void setPriorityStateMask(int mask) {
+        priorityStateMask = mask;
+    }
+
+    void setPriorityLocoMask(int mask) {
+        priorityLocoMask = mask;
+    }
+
+    // Кадры, вытесненные переполнением обычной полосы
+    long txNormalOverflowCount() {
+        return txScheduler.stats(TxScheduler.LANE_NORMAL).overflowed.get();
+    }
+
+    int txQueueDepth(int lane) {
+        return txScheduler.queueDepth(lane);
+    }
+
+    // Вызывается потоком записи для каждого кадра целиком
+    private void writeFrame(byte[] frame) throws IOException {
+        Socket sck = conn.get().socket;
+        if (sck == null || sck.isClosed() || !sck.isConnected()) return;
+        sck.getOutputStream().write(frame);
+        sck.getOutputStream().flush();
+        txBytes.add(frame.length);
+        txFrames.increment();
+    }
+
+    private void handleWriteError(IOException e) {
+        if (onError != null) onError.accept("TCP TX error: " + e.getMessage());
+        // Поток чтения увидит закрытый сокет и завершит сессию своего поколения
+        Socket sck = conn.get().socket;
+        if (sck != null) {
+            try { sck.close(); } catch (IOException ignored) {}
+        }
+        // Оставшиеся кадры адресованы мёртвому соединению
+        txScheduler.clear();
     }
 
     // Включение авто-подключения с периодом 1 секунда
@@ -314,7 +798,7 @@ class TcpManager {
                     return;
                 }
 
-                if (!connecting) {
+                if (connectionState() == ConnState.IDLE) {
                     System.out.println("[TCP][AUTO] attempt connect host=" + h + " port=" + p);
                     setSearching(true);
                     connect(h, p);
@@ -345,91 +829,235 @@ class TcpManager {
         this.targetPort = port;
     }
 
-    // Добавление новых байтов в буфер приёма
-    private void feedRx(byte[] src, int len) {
-        ensureCapacity(rxSize + len);
-        System.arraycopy(src, 0, rxBuf, rxSize, len);
-        rxSize += len;
+    // Детектор полуоткрытого соединения; применяется к следующему сокету сессии
+    void setIdleTimeoutMs(long timeoutMs) {
+        idleTimeoutMs = Math.max(0L, timeoutMs);
     }
 
-    // Расширение буфера при необходимости
-    private void ensureCapacity(int need) {
-        if (need <= rxBuf.length) return;
-        int cap = rxBuf.length;
-        while (cap < need) cap *= 2;
-        byte[] nb = new byte[cap];
-        System.arraycopy(rxBuf, 0, nb, 0, rxSize);
-        rxBuf = nb;
+    long getIdleTimeoutMs() {
+        return idleTimeoutMs;
     }
 
-    // Разбор буфера на кадры протокола: 0x7E | loco(1) | len(2 BE) | data(N) | CRC8
-    private void drainFrames() {
-        final byte START = 0x7E;
-        int i = 0;
-        while (true) {
-            // Ищем стартовый байт
-            while (i < rxSize && rxBuf[i] != START) i++;
-            if (i >= rxSize) {
-                rxSize = 0;
-                return;
-            }
+    // При включённом детекторе тишины чтение просыпается чаще, чтобы не проспать порог
+    private void applyReadTimeout(Socket sck) throws IOException {
+        long idle = effectiveIdleTimeoutMs();
+        int timeout = idle > 0 ? (int) Math.max(50L, Math.min(READ_TIMEOUT_MS, idle / 4)) : READ_TIMEOUT_MS;
+        sck.setSoTimeout(timeout);
+    }
 
-            // Сдвигаем буфер так, чтобы кадр начинался с 0
-            if (i > 0) {
-                System.arraycopy(rxBuf, i, rxBuf, 0, rxSize - i);
-                rxSize -= i;
-                i = 0;
-            }
+    private long effectiveIdleTimeoutMs() {
+        long idle = idleTimeoutMs;
+        if (idle == 0 && negotiated.has(ProtocolHandshake.CAP_HEARTBEAT)) {
+            return HEARTBEAT_IDLE_TIMEOUT_MS;
+        }
+        return idle;
+    }
 
-            // Ждём заголовок: минимум 5 байт (1 + 1 + 2 + 1)
-            if (rxSize < 5) return;
+    ProtocolHandshake.Negotiated negotiatedProtocol() {
+        return negotiated;
+    }
 
-            int loco = rxBuf[1] & 0xFF;
-            int len = ((rxBuf[2] & 0xFF) << 8) | (rxBuf[3] & 0xFF);
-            int total = 1 + 1 + 2 + len + 1;
+    // До ответа контроллера работаем как v1. HELLO — первый кадр соединения (очереди сброшены
+    // при разрыве), но идёт обычной полосой: срочная — только для команд оператора
+    private void beginHandshake() {
+        negotiated = ProtocolHandshake.Negotiated.V1_FALLBACK;
+        codec = FrameCodecV1.INSTANCE;
+        groupFramesSupported = false;
+        parser.setCompactFraming(false);
+        ClockSyncEstimator sync = clockSync;
+        if (sync != null) {
+            // Контроллер мог перезагрузиться — его часы начинаются заново
+            sync.reset();
+        }
+        txScheduler.submit(ProtocolHandshake.helloFrame(), TxScheduler.LANE_NORMAL);
+    }
 
-            // Защита от мусорной длины
-            if (len > 4096) {
-                consume(1);
-                continue;
-            }
+    // Новая подписка; повтор той же маски ничего не отправляет
+    void setSubscription(int locoMask) {
+        int mask = locoMask & ALL_LOCOS_MASK;
+        if (mask == subscriptionMask) {
+            return;
+        }
+        subscriptionMask = mask;
+        sendSubscription();
+    }
 
-            // Ждём пока придут все байты кадра
-            if (rxSize < total) return;
+    int getSubscription() {
+        return subscriptionMask;
+    }
 
-            // Проверяем CRC по loco+len+data
-            byte crcExpected = rxBuf[total - 1];
-            byte crc = crc8(rxBuf, 1, 3 + len);
-            if (crc != crcExpected) {
-                consume(1);
-                continue;
-            }
+    // Записи, отброшенные фильтром подписки на стороне планшета
+    long filteredRecordCount() {
+        return filteredRecords;
+    }
 
-            // Валидный кадр
-            if (len == 1) {
-                int state = rxBuf[4] & 0xFF;
-                String line = String.format(Locale.US,
-                        "cmd=0x%02X loco=%d state=%d\n", loco, loco, state);
-                safeOnData(line);
-            } else {
-                String line = String.format(Locale.US,
-                        "cmd=0x%02X len=%d data=%s\n", loco, len, toHex(rxBuf, 4, len));
-                safeOnData(line);
-            }
+    private void sendSubscription() {
+        if (!negotiated.has(ProtocolHandshake.CAP_SUBSCRIBE) || !isConnected()) {
+            return;
+        }
+        txScheduler.submit(ProtocolHandshake.subscribeFrame(subscriptionMask), TxScheduler.LANE_NORMAL);
+    }
 
-            // Съедаем обработанный кадр и продолжаем
-            consume(total);
+    private boolean isSubscribed(int address) {
+        if (address < LOCO_MIN || address > LOCO_MAX) {
+            // Групповые и служебные адреса фильтр не трогает
+            return true;
         }
+        return (subscriptionMask & (1 << (address - LOCO_MIN))) != 0;
+    }
+
+    void setClockSync(ClockSyncEstimator estimator) {
+        clockSync = estimator;
     }
 
-    // Сдвиг буфера после обработки части данных
-    private void consume(int n) {
-        if (n >= rxSize) {
-            rxSize = 0;
+    void setLatencyStats(LatencyStats stats) {
+        latencyStats = stats;
+        txScheduler.setWriteLatency(stats != null ? stats.stage(LatencyStats.TX_WRITE) : null);
+    }
+
+    // Один обмен синхронизации часов; false — контроллер не объявил CAP_TIME_SYNC или нет связи.
+    // Обычная полоса, чтобы замеры не задерживали стоп-команды; t0 ставится при постановке,
+    // так что ожидание в очереди попадает в uplink (best-of-N отбрасывает такие замеры).
+    boolean requestTimeSync() {
+        if (!negotiated.has(ProtocolHandshake.CAP_TIME_SYNC) || !isConnected()) {
+            return false;
+        }
+        int seq = timeSyncSeq.incrementAndGet() & 0xFF;
+        txScheduler.submit(ProtocolHandshake.timeRequestFrame(seq, nowUs()), TxScheduler.LANE_NORMAL);
+        return true;
+    }
+
+    private static long nowUs() {
+        return System.nanoTime() / 1000L;
+    }
+
+    // Системный канал (адрес 0): рукопожатие и синхронизация часов
+    private void handleSystemFrame(byte[] payload, int off, int len) {
+        if (len == 0) {
             return;
         }
-        System.arraycopy(rxBuf, n, rxBuf, 0, rxSize - n);
-        rxSize -= n;
+        int msg = payload[off] & 0xFF;
+        if (msg == ProtocolHandshake.MSG_TIME_REPLY || msg == ProtocolHandshake.MSG_TIME_MARK) {
+            handleTimeFrame(msg, payload, off, len, nowUs());
+            return;
+        }
+        ProtocolHandshake.Negotiated result = ProtocolHandshake.parseHello(payload, off, len);
+        if (result == null) {
+            return;
+        }
+        negotiated = result;
+        codec = result.codec();
+        groupFramesSupported = result.has(ProtocolHandshake.CAP_GROUP);
+        parser.setCompactFraming(result.version >= 2);
+        Socket sck = conn.get().socket;
+        if (sck != null) {
+            try { applyReadTimeout(sck); } catch (IOException ignored) {}
+        }
+        // Подписка раньше среза — контроллер пришлёт срез только по нужным локомотивам
+        sendSubscription();
+        if (result.has(ProtocolHandshake.CAP_SNAPSHOT)) {
+            // Полный срез состояний сразу после согласования — сверка не ждёт периодических отчётов
+            txScheduler.submit(ProtocolHandshake.snapshotRequestFrame(), TxScheduler.LANE_NORMAL);
+        }
+        safeOnData("[TCP] Protocol " + result + "\n");
+        System.out.println("[TCP][HELLO] negotiated " + result);
+    }
+
+    private void handleTimeFrame(int msg, byte[] payload, int off, int len, long receivedUs) {
+        ClockSyncEstimator sync = clockSync;
+        if (sync == null) {
+            return;
+        }
+        if (msg == ProtocolHandshake.MSG_TIME_REPLY && len >= ProtocolHandshake.TIME_REPLY_LEN) {
+            long t0 = ProtocolHandshake.readLong(payload, off + 2);
+            long t1 = ProtocolHandshake.readLong(payload, off + 10);
+            long t2 = ProtocolHandshake.readLong(payload, off + 18);
+            sync.onExchange(t0, t1, t2, receivedUs);
+        } else if (msg == ProtocolHandshake.MSG_TIME_MARK && len >= ProtocolHandshake.TIME_MARK_LEN) {
+            sync.onRemoteTimestamp(ProtocolHandshake.readLong(payload, off + 1), receivedUs);
+        }
+    }
+
+    void setStreamConsumer(StreamConsumer consumer) {
+        streamConsumer = consumer;
+    }
+
+    void setPayloadCallback(PayloadCallback callback) {
+        payloadCallback = callback;
+    }
+
+    // Обработка кадров из парсера: короткие — строкой в onData, длинные — потребителю
+    // кусками, а в лог уходит только их начало
+    private final class FrameHandler implements TcpFrameParser.Listener, FrameCodec.RecordSink {
+        private final byte[] preview = new byte[STREAM_PREVIEW_BYTES];
+        private int previewSize;
+
+        @Override
+        public void onFrame(int address, byte[] payload, int off, int len) {
+            if (address == ProtocolHandshake.SYSTEM_ADDRESS) {
+                handleSystemFrame(payload, off, len);
+                return;
+            }
+            codec.decodeFrame(address, payload, off, len, this);
+        }
+
+        @Override
+        public void onState(int loco, int state) {
+            if (!isSubscribed(loco)) {
+                filteredRecords++;
+                return;
+            }
+            LatencyStats stats = latencyStats;
+            if (stats != null) {
+                stats.recordSince(LatencyStats.RX_DECODE, rxChunkAtNanos);
+            }
+            safeOnData(String.format(Locale.US,
+                    "cmd=0x%02X loco=%d state=%d\n", loco, loco, state));
+        }
+
+        @Override
+        public void onPayload(int address, byte[] payload, int off, int len) {
+            if (!isSubscribed(address)) {
+                filteredRecords++;
+                return;
+            }
+            PayloadCallback callback = payloadCallback;
+            try {
+                if (callback != null && callback.onPayload(address, payload, off, len)) return;
+            } catch (Throwable ignored) {}
+            safeOnData(String.format(Locale.US,
+                    "cmd=0x%02X len=%d data=%s\n", address, len, toHex(payload, off, len)));
+        }
+
+        @Override
+        public void onStreamStart(int address, int length) {
+            previewSize = 0;
+            StreamConsumer consumer = streamConsumer;
+            if (consumer != null) consumer.onStreamStart(address, length);
+        }
+
+        @Override
+        public void onStreamChunk(byte[] buf, int off, int len) {
+            int keep = Math.min(len, preview.length - previewSize);
+            if (keep > 0) {
+                System.arraycopy(buf, off, preview, previewSize, keep);
+                previewSize += keep;
+            }
+            StreamConsumer consumer = streamConsumer;
+            if (consumer != null) consumer.onStreamChunk(buf, off, len);
+        }
+
+        @Override
+        public void onStreamEnd(int address, int length, boolean committed) {
+            StreamConsumer consumer = streamConsumer;
+            if (consumer != null) consumer.onStreamEnd(address, length, committed);
+            if (committed) {
+                safeOnData(String.format(Locale.US, "cmd=0x%02X len=%d data=%s ...\n",
+                        address, length, toHex(preview, 0, previewSize)));
+            } else {
+                System.out.println("[TCP][RX] dropped streamed frame addr=" + address + " len=" + length + " (CRC)");
+            }
+        }
     }
 
     // Безопасный вызов onData с защитой от исключений в обработчике
@@ -439,23 +1067,6 @@ class TcpManager {
         } catch (Throwable ignored) {}
     }
 
-    // Подсчёт CRC8 с полиномом 0x31 (как на стороне ESP)
-    private static byte crc8(byte[] buf, int off, int len) {
-        int crc = 0x00;
-        int end = off + len;
-        for (int i = off; i < end; i++) {
-            crc ^= (buf[i] & 0xFF);
-            for (int b = 0; b < 8; b++) {
-                if ((crc & 0x80) != 0) {
-                    crc = ((crc << 1) ^ 0x31) & 0xFF;
-                } else {
-                    crc = (crc << 1) & 0xFF;
-                }
-            }
-        }
-        return (byte) (crc & 0xFF);
-    }
-
     // Перевод байтов в строку вида "7E 01 00 01 FF"
     private static String toHex(byte[] buf, int off, int len) {
         StringBuilder sb = new StringBuilder(len * 3);
@@ -502,12 +1113,14 @@ class TcpManager {
 
         // Останавливаем все executor’ы
         try { executor.shutdownNow(); } catch (Exception ignored) {}
-        try { writer.shutdownNow(); } catch (Exception ignored) {}
+        try { txScheduler.shutdown(); } catch (Exception ignored) {}
+        try { switcher.shutdownNow(); } catch (Exception ignored) {}
         try { scheduler.shutdownNow(); } catch (Exception ignored) {}
+        for (String name : SAMPLED_METRICS) {
+            metrics.remove(name);
+        }
 
         // Сбрасываем флаги состояния
-        running.set(false);
-        connecting = false;
         searching = false;
     }
 }
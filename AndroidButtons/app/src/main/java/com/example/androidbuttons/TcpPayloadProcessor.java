@@ -0,0 +1,84 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.ConsoleLogRepository;
+import com.example.androidbuttons.core.ProtocolConstraints;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Разбор строк от TcpManager ("cmd=0x.. loco=N state=M") в события состояния локомотивов.
+// Без Android-зависимостей: вызывается в потоке чтения, дальше события уходят в Sink
+// (в сервисе — через поток сервиса), поэтому путь целиком проверяется на JVM.
+final class TcpPayloadProcessor {
+
+    interface Sink {
+        // Валидное состояние от контроллера; selected — адресовано выбранному локомотиву,
+        // decodedAtNanos — момент разбора (System.nanoTime) для замера задержек
+        void onRemoteState(int loco, int state, boolean selected, long decodedAtNanos);
+    }
+
+    private final AtomicInteger selectedLoco;
+    private final ConsoleLogRepository console;
+    private final Sink sink;
+
+    TcpPayloadProcessor(AtomicInteger selectedLoco, ConsoleLogRepository console, Sink sink) {
+        this.selectedLoco = selectedLoco;
+        this.console = console;
+        this.sink = sink;
+    }
+
+    void process(String data) {
+        if (data == null || data.isEmpty()) {
+            return;
+        }
+        int locoTarget = selectedLoco.get();
+        String[] lines = data.split("\n");
+        for (String line : lines) {
+            if (line == null) {
+                continue;
+            }
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("[TCP]")) {
+                continue;
+            }
+            int locoVal = extractDecimal(trimmed, "loco=");
+            if (!ProtocolConstraints.isValidLoco(locoVal)) {
+                continue;
+            }
+            int stateVal = extractDecimal(trimmed, "state=");
+            if (!ProtocolConstraints.isValidState(stateVal)) {
+                continue;
+            }
+            int normalized = ProtocolConstraints.clampState(stateVal);
+            // Сверке нужны отчёты по всем локомотивам, оверлею — только по выбранному
+            boolean selected = locoVal == locoTarget;
+            if (selected && console != null) {
+                console.append("[#TCP_RX#]Rx: loco" + locoVal + " -> state" + stateVal + "\n");
+            }
+            sink.onRemoteState(locoVal, normalized, selected, System.nanoTime());
+        }
+    }
+
+    static int extractDecimal(String line, String token) {
+        if (line == null || token == null) {
+            return -1;
+        }
+        int idx = line.indexOf(token);
+        if (idx < 0) {
+            return -1;
+        }
+        int cursor = idx + token.length();
+        int value = 0;
+        boolean found = false;
+        while (cursor < line.length()) {
+            char c = line.charAt(cursor);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                found = true;
+                cursor++;
+            } else {
+                break;
+            }
+        }
+        return found ? value : -1;
+    }
+}
@@ -4,28 +4,50 @@ import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.Process;
 import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
 
+import com.example.androidbuttons.core.AppContracts;
 import com.example.androidbuttons.core.AppGraph;
+import com.example.androidbuttons.core.ClockSyncEstimator;
 import com.example.androidbuttons.core.ConsoleLogRepository;
+import com.example.androidbuttons.core.DwellAnalytics;
+import com.example.androidbuttons.core.EventBus;
+import com.example.androidbuttons.core.LatencyStats;
+import com.example.androidbuttons.core.Metrics;
 import com.example.androidbuttons.core.OverlaySettingsRepository;
 import com.example.androidbuttons.core.OverlayStateStore;
 import com.example.androidbuttons.core.ProtocolConstraints;
+import com.example.androidbuttons.core.StateHistory;
+import com.example.androidbuttons.core.StateReconciler;
 import com.example.androidbuttons.core.TcpConfigRepository;
 import com.example.androidbuttons.core.TcpState;
 import com.example.androidbuttons.core.TcpStatusStore;
-
+import com.example.androidbuttons.core.TelemetryDecoders;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.example.androidbuttons.AppState.DEFAULT_TCP_HOST;
 import static com.example.androidbuttons.AppState.DEFAULT_TCP_PORT;
 
 /**
  * Background service that owns TcpManager lifecycle and exposes it to bound clients.
+ * All orchestration (config, status, reconciliation, remote reports) runs on a dedicated
+ * event thread, so RX bursts never queue work on the main looper; UI components receive
+ * state through the stores and conflate it on their side.
  */
 public class TcpService extends Service {
 
@@ -33,10 +55,19 @@ public class TcpService extends Service {
 
     private static final long TCP_INFO_SUPPRESS_MS = 15_000L;
     private static final long TCP_ERROR_SUPPRESS_MS = 15_000L;
+    private static final long SWITCH_RETRY_MS = 5_000L;
+    private static final long RECONCILE_TICK_MS = 250L;
+    // После подключения — серия обменов для первой точки best-of-N, затем редкие замеры
+    private static final long TIME_SYNC_BURST_MS = 250L;
+    private static final long TIME_SYNC_PERIOD_MS = 2_000L;
 
     private final IBinder binder = new LocalBinder();
-    private Handler mainHandler;
-    private TcpManager tcpManager;
+    // Событийный поток сервиса: вся логика сервиса, main-поток остаётся для отрисовки и жестов
+    private HandlerThread serviceThread;
+    private Handler serviceHandler;
+    // Читается и потоком HTTP-сервера статуса
+    private volatile TcpManager tcpManager;
+    private StandbyConnectionPool standbyPool;
     private TcpConfigRepository tcpConfigRepository;
     private TcpConfigRepository.TcpConfig currentConfig;
     private TcpConfigRepository.Listener configListener;
@@ -48,10 +79,45 @@ public class TcpService extends Service {
     private OverlaySettingsRepository.Listener overlaySettingsListener;
     private OverlaySettingsRepository.OverlaySettings overlaySettings;
     private Runnable healthRunnable;
-    private String activeHost;
-    private int activePort;
+    private final Runnable switchRetryRunnable = this::retryPendingSwitch;
+    // Сверка команд этого планшета с сообщённым контроллером состоянием; только поток сервиса
+    private StateReconciler reconciler;
+    // Разбор телеметрии прямо в потоке чтения, без строк и без main-потока
+    private TelemetryDecoders telemetryDecoders;
+    private DwellAnalytics dwellAnalytics;
+    private StateHistory stateHistory;
+    // Воспроизведение истории занимает хранилище оверлея: снимок до него и живые состояния,
+    // пришедшие за время показа, возвращаются по окончании
+    private StateHistory.Replay activeReplay;
+    private OverlayStateStore.Snapshot replaySaved;
+    private final int[] replayLiveStates = new int[ProtocolConstraints.LOCOMOTIVE_COUNT];
+    private int replayGeneration;
+    private LatencyStats latencyStats;
+    private Metrics metrics;
+    private Metrics.Counter remoteReports;
+    private Metrics.Counter localSelections;
+    private Metrics.Counter controlsSent;
+    private Metrics.Counter controlsUnsent;
+    private Metrics.Counter resyncResends;
+    private Metrics.Counter configApplies;
+    private Metrics.Timer reportHandling;
+    private TcpPayloadProcessor payloadProcessor;
+    private StatusHttpServer statusServer;
+    private Runnable reconcileRunnable;
+    private ClockSyncEstimator clockSync;
+    private Runnable timeSyncRunnable;
+    private int timeSyncBurstLeft;
+    // Цель из настроек; заменяется целиком, чтобы поток статуса не увидел хост от одной цели,
+    // а порт от другой
+    private volatile Target activeTarget;
+    // Адрес, на котором сейчас реально живёт соединение (отличается от activeTarget во время переключения)
+    private String linkHost;
+    private int linkPort;
     private final AtomicInteger selectedState = new AtomicInteger(ProtocolConstraints.STATE_MIN);
     private final AtomicInteger selectedLoco = new AtomicInteger(ProtocolConstraints.LOCO_MIN);
+    // Снимок сверки на каждом тике: метрики и /status читают его из чужих потоков
+    private final AtomicInteger divergedLocos = new AtomicInteger();
+    private final AtomicLong oldestDivergenceMs = new AtomicLong();
     private String lastTcpInfoLine;
     private long lastTcpInfoAt;
     private String lastStatusLogged;
@@ -64,6 +130,25 @@ public class TcpService extends Service {
         }
     }
 
+    private static final class Target {
+        final String host;
+        final int port;
+
+        Target(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        boolean is(@Nullable String otherHost, int otherPort) {
+            return host.equals(otherHost) && port == otherPort;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -72,31 +157,64 @@ public class TcpService extends Service {
             OverlayNotificationHelper.getNotificationId(),
             OverlayNotificationHelper.buildForegroundNotification(this)
         );
-        mainHandler = new Handler(Looper.getMainLooper());
+        serviceThread = new HandlerThread("tcp-service", Process.THREAD_PRIORITY_DEFAULT);
+        serviceThread.start();
+        serviceHandler = new Handler(serviceThread.getLooper());
+        serviceHandler.post(this::startOnServiceThread);
+    }
+
+    private void startOnServiceThread() {
         AppGraph graph = AppGraph.get();
         tcpConfigRepository = graph.tcpConfig();
         tcpStatusStore = graph.tcpStatuses();
         consoleLogRepository = graph.consoleLog();
         overlaySettingsRepository = graph.overlaySettings();
         overlaySettings = overlaySettingsRepository.get();
-        overlaySettingsListener = settings -> mainHandler.post(() -> overlaySettings = settings);
-        overlaySettingsRepository.addListener(overlaySettingsListener);
+        overlaySettingsListener = settings -> overlaySettings = settings;
+        overlaySettingsRepository.addListener(overlaySettingsListener, serviceHandler::post, EventBus.Policy.LATEST);
         overlayStateStore = graph.overlayStates();
-        overlaySelectionListener = state -> mainHandler.post(() -> handleOverlaySelection(state));
-        overlayStateStore.addSelectionListener(overlaySelectionListener);
+        // Каждый выбор пользователя — отдельная команда, поэтому EVERY
+        overlaySelectionListener = this::handleOverlaySelection;
+        overlayStateStore.addSelectionListener(overlaySelectionListener, serviceHandler::post, EventBus.Policy.EVERY);
+        selectedLoco.set(ProtocolConstraints.clampLoco(tcpConfigRepository.get().selectedLoco));
+        overlayStateStore.select(selectedLoco.get());
         int initialState = overlayStateStore.getCurrentState();
         if (!ProtocolConstraints.isValidState(initialState)) {
             initialState = ProtocolConstraints.STATE_MIN;
         }
         selectedState.set(initialState);
         overlayStateStore.publish(initialState);
+        telemetryDecoders = TelemetryDecoders.withDefaults(graph.telemetry());
+        dwellAnalytics = graph.dwell();
+        stateHistory = graph.stateHistory();
+        latencyStats = graph.latency();
+        metrics = graph.metrics();
+        remoteReports = metrics.counter("service_remote_reports");
+        localSelections = metrics.counter("service_local_selections");
+        controlsSent = metrics.counter("service_controls_sent");
+        controlsUnsent = metrics.counter("service_controls_unsent");
+        resyncResends = metrics.counter("service_resync_resends");
+        configApplies = metrics.counter("service_config_applies");
+        reportHandling = metrics.timer("service_report_handling");
+        metrics.gauge("service_selected_loco", selectedLoco::get);
+        metrics.gauge("service_selected_state", selectedState::get);
+        metrics.gauge("service_tcp_status", () -> tcpStatusStore.get().ordinal());
+        metrics.gauge("service_reconcile_diverged", divergedLocos::get);
+        metrics.gauge("service_reconcile_oldest_ms", oldestDivergenceMs::get);
+        clockSync = graph.clockSync();
+        payloadProcessor = new TcpPayloadProcessor(selectedLoco, consoleLogRepository,
+                (loco, state, selected, decodedAt) ->
+                        serviceHandler.post(() -> handleRemoteReport(loco, state, selected, decodedAt)));
         initTcpManager();
+        reconciler = new StateReconciler(this::resendDesiredState);
+        standbyPool = new StandbyConnectionPool();
+        metrics.gauge("service_standby_live", standbyPool::liveCount);
 
         currentConfig = tcpConfigRepository.get();
         applyConfig(currentConfig);
 
-        configListener = config -> mainHandler.post(() -> applyConfig(config));
-        tcpConfigRepository.addListener(configListener);
+        configListener = this::applyConfig;
+        tcpConfigRepository.addListener(configListener, serviceHandler::post, EventBus.Policy.LATEST);
 
         healthRunnable = new Runnable() {
             @Override
@@ -108,39 +226,191 @@ public class TcpService extends Service {
                 } else if (alive && state == TcpState.UNREACHABLE) {
                     postStatus(TcpState.CONNECTED);
                 }
-                mainHandler.postDelayed(this, HEALTH_INTERVAL_MS);
+                serviceHandler.postDelayed(this, HEALTH_INTERVAL_MS);
+            }
+        };
+        serviceHandler.postDelayed(healthRunnable, HEALTH_INTERVAL_MS);
+
+        reconcileRunnable = new Runnable() {
+            @Override
+            public void run() {
+                long now = SystemClock.elapsedRealtime();
+                if (tcpManager != null && tcpManager.connectionActive()) {
+                    reconciler.tick(now);
+                }
+                divergedLocos.set(reconciler.divergedCount());
+                oldestDivergenceMs.set(reconciler.oldestDivergenceAgeMs(now));
+                // Подтверждённые и просроченные команды выпадают из подписки
+                updateSubscription();
+                serviceHandler.postDelayed(this, RECONCILE_TICK_MS);
+            }
+        };
+        serviceHandler.postDelayed(reconcileRunnable, RECONCILE_TICK_MS);
+
+        timeSyncRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (tcpManager == null || !tcpManager.connectionActive()) {
+                    // Замеры снова запустит restartTimeSync при подключении
+                    return;
+                }
+                boolean sent = tcpManager.requestTimeSync();
+                // Серия считает попытки: без ответа на HELLO она всё равно кончается
+                if (timeSyncBurstLeft > 0) {
+                    timeSyncBurstLeft--;
+                }
+                if (!sent && timeSyncBurstLeft == 0) {
+                    // К концу серии рукопожатие прошло, CAP_TIME_SYNC нет — до переподключения не опрашиваем
+                    return;
+                }
+                serviceHandler.postDelayed(this, timeSyncBurstLeft > 0 ? TIME_SYNC_BURST_MS : TIME_SYNC_PERIOD_MS);
             }
         };
-        mainHandler.postDelayed(healthRunnable, HEALTH_INTERVAL_MS);
+        serviceHandler.postDelayed(timeSyncRunnable, TIME_SYNC_PERIOD_MS);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        ensureAutoConnect();
+        serviceHandler.post(this::ensureAutoConnect);
+        if (intent != null && AppContracts.ACTION_REPLAY_HISTORY.equals(intent.getAction())) {
+            long from = intent.getLongExtra(AppContracts.EXTRA_REPLAY_FROM_MS, 0L);
+            long to = intent.getLongExtra(AppContracts.EXTRA_REPLAY_TO_MS, Long.MAX_VALUE);
+            float speed = intent.getFloatExtra(AppContracts.EXTRA_REPLAY_SPEED, 1f);
+            serviceHandler.post(() -> startReplay(from, to, speed));
+        } else if (intent != null && AppContracts.ACTION_STOP_ALL.equals(intent.getAction())) {
+            stopAll();
+        }
         return START_STICKY;
     }
 
+    // Действие «Стоп усім» из уведомления: красный всем локомотивам одной групповой командой
+    private void stopAll() {
+        int[] locos = new int[ProtocolConstraints.LOCOMOTIVE_COUNT];
+        for (int i = 0; i < locos.length; i++) {
+            locos[i] = ProtocolConstraints.locoFromIndex(i);
+        }
+        sendControl(locos, ProtocolConstraints.STATE_STOP);
+    }
+
+    // Воспроизведение записанных переходов на оверлее (для разбора инцидентов). Запуск —
+    // отладочным ReplayHistoryReceiver (только debug-сборка), время — wall-clock мс
+    private void startReplay(long fromMs, long toMs, float speed) {
+        if (stateHistory == null || overlayStateStore == null) {
+            return;
+        }
+        if (replaySaved == null) {
+            // Новый показ поверх уже идущего снимок не переснимает
+            replaySaved = overlayStateStore.snapshot();
+            Arrays.fill(replayLiveStates, 0);
+        }
+        int generation = ++replayGeneration;
+        activeReplay = stateHistory.replay(fromMs, toMs, overlayStateStore, speed,
+                () -> serviceHandler.post(() -> finishReplay(generation)));
+        consoleLogRepository.append("[#TCP_REPLAY#]Replaying " + activeReplay.eventCount()
+                + " transitions at " + speed + "x\n");
+    }
+
+    private void finishReplay(int generation) {
+        if (generation != replayGeneration || replaySaved == null) {
+            // Отменённый показ, его уже сменил новый
+            return;
+        }
+        OverlayStateStore.Snapshot saved = replaySaved;
+        replaySaved = null;
+        activeReplay = null;
+        overlayStateStore.restore(saved);
+        overlayStateStore.select(selectedLoco.get());
+        for (int i = 0; i < replayLiveStates.length; i++) {
+            if (replayLiveStates[i] > 0) {
+                overlayStateStore.publish(ProtocolConstraints.locoFromIndex(i), replayLiveStates[i]);
+            }
+        }
+        consoleLogRepository.append("[#TCP_REPLAY#]Replay finished, live states restored\n");
+    }
+
+    // Живое состояние в хранилище оверлея; во время воспроизведения — в отложенные
+    private void publishLive(int loco, int state) {
+        if (replaySaved != null) {
+            replayLiveStates[ProtocolConstraints.locoIndex(loco)] = state;
+            return;
+        }
+        overlayStateStore.publish(loco, state);
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        ensureAutoConnect();
+        serviceHandler.post(this::ensureAutoConnect);
         return binder;
     }
 
+    // adb shell dumpsys activity service .TcpService — полный снимок метрик и задержек
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        TcpManager manager = tcpManager;
+        writer.println("TcpService target=" + activeTarget
+                + " status=" + (tcpStatusStore != null ? tcpStatusStore.get() : null)
+                + " loco=" + selectedLoco.get() + " state=" + selectedState.get()
+                + (manager != null ? " conn=" + manager.connectionState() + " protocol=" + manager.negotiatedProtocol() : ""));
+        if (metrics != null) {
+            writer.println("Metrics:");
+            metrics.dump(writer, "  ");
+        }
+        if (latencyStats != null) {
+            writer.println("Latency, ms:");
+            writer.println(latencyStats.formatTable());
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
         stopForeground(true);
+        // Остановка — последней задачей потока сервиса, после уже поставленных в очередь
+        serviceHandler.post(this::stopOnServiceThread);
+        serviceThread.quitSafely();
+    }
+
+    private void stopOnServiceThread() {
         if (healthRunnable != null) {
-            mainHandler.removeCallbacks(healthRunnable);
+            serviceHandler.removeCallbacks(healthRunnable);
+        }
+        if (reconcileRunnable != null) {
+            serviceHandler.removeCallbacks(reconcileRunnable);
+        }
+        if (timeSyncRunnable != null) {
+            serviceHandler.removeCallbacks(timeSyncRunnable);
+        }
+        serviceHandler.removeCallbacks(switchRetryRunnable);
+        if (activeReplay != null) {
+            activeReplay.cancel();
         }
         if (tcpManager != null) {
             tcpManager.disableAutoConnect();
             tcpManager.shutdown();
         }
+        stopStatusServer();
+        if (metrics != null) {
+            // Снимаемые метрики держат ссылку на сервис
+            metrics.remove("service_selected_loco");
+            metrics.remove("service_selected_state");
+            metrics.remove("service_tcp_status");
+            metrics.remove("service_reconcile_diverged");
+            metrics.remove("service_reconcile_oldest_ms");
+            metrics.remove("service_standby_live");
+            metrics.remove("service_telemetry_streams_decoded");
+            metrics.remove("service_telemetry_streams_dropped");
+        }
+        if (standbyPool != null) {
+            standbyPool.shutdown();
+        }
         if (configListener != null && tcpConfigRepository != null) {
             tcpConfigRepository.removeListener(configListener);
         }
+        if (tcpConfigRepository != null) {
+            // Последняя правка адреса не должна потеряться, если процесс завершат вслед за сервисом
+            tcpConfigRepository.flush();
+        }
         if (overlaySelectionListener != null && overlayStateStore != null) {
             overlayStateStore.removeSelectionListener(overlaySelectionListener);
         }
@@ -149,17 +419,129 @@ public class TcpService extends Service {
         }
     }
 
-    public boolean sendControl(int loco, int state) {
-        if (tcpManager == null || !tcpManager.connectionActive()) {
-            return false;
+    /**
+     * Operator command for one loco. Callable from any thread: the command and its
+     * reconciliation run on the service thread.
+     */
+    public void sendControl(int loco, int state) {
+        serviceHandler.post(() -> {
+            if (!dispatchControl(loco, state)) {
+                noteUnsent();
+            }
+        });
+    }
+
+    /**
+     * One state for several locos at once (e.g. an all-stop): one group frame, or one batch
+     * of frames, and one console line. Callable from any thread, like {@link #sendControl(int, int)}.
+     */
+    public void sendControl(int[] locos, int state) {
+        if (locos == null || locos.length == 0) {
+            return;
         }
+        int[] targets = locos.clone();
+        serviceHandler.post(() -> {
+            if (!dispatchGroupControl(targets, state)) {
+                noteUnsent();
+            }
+        });
+    }
+
+    // Команды и сверка — только в потоке сервиса (serviceHandler)
+    private boolean dispatchControl(int loco, int state) {
         int normalizedLoco = ProtocolConstraints.clampLoco(loco);
         int normalizedState = ProtocolConstraints.clampState(state);
+        if (tcpManager == null || !tcpManager.connectionActive()) {
+            // Неотправленная команда не ждёт подтверждения: иначе после переподключения
+            // её повтор перебил бы то, что за это время задали с другого планшета
+            return false;
+        }
         tcpManager.sendControl(normalizedLoco, normalizedState);
+        reconciler.onCommand(normalizedLoco, normalizedState, SystemClock.elapsedRealtime());
+        updateSubscription();
+        controlsSent.increment();
         consoleLogRepository.append("[#TCP_TX#]Tx: loco" + normalizedLoco + " -> state" + normalizedState + "\n");
         return true;
     }
 
+    private boolean dispatchGroupControl(int[] locos, int state) {
+        int normalizedState = ProtocolConstraints.clampState(state);
+        int mask = 0;
+        for (int loco : locos) {
+            if (ProtocolConstraints.isValidLoco(loco)) {
+                mask |= 1 << ProtocolConstraints.locoIndex(loco);
+            }
+        }
+        if (mask == 0) {
+            // Ни одного допустимого номера — отправлять нечего, это не обрыв связи
+            return true;
+        }
+        if (tcpManager == null || !tcpManager.connectionActive()) {
+            return false;
+        }
+        tcpManager.sendGroupControl(mask, normalizedState);
+        controlsSent.increment();
+        long now = SystemClock.elapsedRealtime();
+        StringBuilder targets = new StringBuilder();
+        for (int i = 0; i < ProtocolConstraints.LOCOMOTIVE_COUNT; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            int loco = ProtocolConstraints.locoFromIndex(i);
+            reconciler.onCommand(loco, normalizedState, now);
+            if (targets.length() > 0) {
+                targets.append(',');
+            }
+            targets.append(loco);
+        }
+        updateSubscription();
+        consoleLogRepository.append("[#TCP_TX#]Tx: loco" + targets + " -> state" + normalizedState + "\n");
+        return true;
+    }
+
+    // Односторонние задержки по синхронизированным часам, мкс; NO_ESTIMATE — контроллер не умеет
+    public long getUplinkLatencyUs() {
+        return clockSync != null ? clockSync.uplinkUs() : ClockSyncEstimator.NO_ESTIMATE;
+    }
+
+    public long getDownlinkLatencyUs() {
+        return clockSync != null ? clockSync.downlinkUs() : ClockSyncEstimator.NO_ESTIMATE;
+    }
+
+    // Подписка: выбранный локомотив (его показывает оверлей) и те, чьи команды ещё не
+    // подтверждены — без их отчётов сверка слала бы повторы вслепую. Кэш остальных не
+    // обновляется и устаревает; при переключении на такой локомотив OverlayStateStore
+    // показывает «неизвестно», пока не придёт первый отчёт новой подписки
+    private void updateSubscription() {
+        if (tcpManager == null) {
+            return;
+        }
+        int mask = 1 << ProtocolConstraints.locoIndex(selectedLoco.get());
+        if (reconciler != null) {
+            mask |= reconciler.pendingLocoMask();
+        }
+        tcpManager.setSubscription(mask);
+    }
+
+    private void restartTimeSync() {
+        if (timeSyncRunnable == null) {
+            return;
+        }
+        timeSyncBurstLeft = ClockSyncEstimator.DEFAULT_WINDOW;
+        serviceHandler.removeCallbacks(timeSyncRunnable);
+        // HELLO уходит первым; даём контроллеру ответить до первого замера
+        serviceHandler.postDelayed(timeSyncRunnable, TIME_SYNC_BURST_MS);
+    }
+
+    private void resendDesiredState(int loco, int state, int attempt) {
+        if (tcpManager == null || !tcpManager.connectionActive()) {
+            return;
+        }
+        tcpManager.sendControl(loco, state);
+        resyncResends.increment();
+        consoleLogRepository.append("[#TCP_TX#]Tx (resync #" + attempt + "): loco" + loco + " -> state" + state + "\n");
+    }
+
     private void initTcpManager() {
         tcpManager = new TcpManager(
                 () -> postStatus(TcpState.CONNECTING),
@@ -169,12 +551,27 @@ public class TcpService extends Service {
                 status -> {
                     if ("connected".equals(status)) {
                         postStatus(TcpState.CONNECTED);
+                        serviceHandler.post(() -> {
+                            reconciler.onReconnect(SystemClock.elapsedRealtime());
+                            restartTimeSync();
+                        });
                     } else {
                         postStatus(TcpState.DISCONNECTED);
                     }
                     appendTcpStatus(status);
                 }
         );
+        tcpManager.setClockSync(clockSync);
+        tcpManager.setLatencyStats(latencyStats);
+        tcpManager.setMetrics(metrics);
+        tcpManager.setPayloadCallback((address, payload, off, len) ->
+                telemetryDecoders.decode(address, payload, off, len, SystemClock.elapsedRealtime()));
+        // Длинные пачки телеметрии приходят потоком и собираются до проверки CRC
+        TelemetryStreamAssembler streamAssembler =
+                new TelemetryStreamAssembler(telemetryDecoders, SystemClock::elapsedRealtime);
+        tcpManager.setStreamConsumer(streamAssembler);
+        metrics.counter("service_telemetry_streams_decoded", streamAssembler::decodedCount);
+        metrics.counter("service_telemetry_streams_dropped", streamAssembler::droppedCount);
     }
 
     private void dispatchTcpData(String line) {
@@ -186,7 +583,7 @@ public class TcpService extends Service {
                 }
             }
         }
-        processTcpPayload(line);
+        payloadProcessor.process(line);
     }
 
     private boolean shouldSuppressTcpInfo(String trimmedLine) {
@@ -228,31 +625,208 @@ public class TcpService extends Service {
             return;
         }
         currentConfig = config;
-        selectedLoco.set(ProtocolConstraints.clampLoco(config.selectedLoco));
+        configApplies.increment();
+        int loco = ProtocolConstraints.clampLoco(config.selectedLoco);
+        int previousLoco = selectedLoco.getAndSet(loco);
+        int cached = overlayStateStore.select(loco);
+        // 0 — состояние нового локомотива неизвестно; прежнее значение к нему не относится
+        selectedState.set(cached);
+        if (cached > 0) {
+            if (previousLoco != loco) {
+                stateHistory.record(System.currentTimeMillis(), loco, cached, StateHistory.SOURCE_SNAPSHOT);
+            }
+        }
+        updateSubscription();
         String host = normalizeHost(config.host);
         int port = normalizePort(config.port);
-        boolean firstStart = activeHost == null;
-        boolean changed = !host.equals(activeHost) || port != activePort;
-        activeHost = host;
-        activePort = port;
-        if (firstStart || changed) {
-            tcpManager.disableAutoConnect();
-            tcpManager.disconnect();
-            tcpManager.enableAutoConnect(host, port);
+        Target previous = activeTarget;
+        boolean firstStart = previous == null;
+        boolean changed = !firstStart && !previous.is(host, port);
+        activeTarget = new Target(host, port);
+        if (firstStart) {
+            restartOnTarget(host, port);
+        } else if (changed) {
+            switchTarget(host, port);
         } else {
             tcpManager.updateTarget(host, port);
         }
+        refreshStandby(config, host, port);
+        tcpManager.setPriorityStateMask(config.priorityStates);
+        tcpManager.setPriorityLocoMask(config.priorityLocos);
+        if (config.statusServerEnabled) {
+            startStatusServer();
+        } else {
+            stopStatusServer();
+        }
+    }
+
+    // HTTP-эндпоинт для опроса с площадки; рендеры идут в потоке сервера и читают только
+    // атомики, volatile-поля сервиса и снимки хранилищ
+    private void startStatusServer() {
+        if (statusServer != null) {
+            return;
+        }
+        StatusHttpServer server = new StatusHttpServer()
+                .route("/metrics", StatusHttpServer.CONTENT_PROMETHEUS, out -> StatusReport.appendPrometheus(
+                        out, metrics, latencyStats, overlayStateStore.snapshot()))
+                .route("/status", StatusHttpServer.CONTENT_JSON, this::appendStatusJson);
+        try {
+            server.start(new InetSocketAddress(StatusHttpServer.DEFAULT_PORT));
+        } catch (IOException e) {
+            appendTcpError("Status endpoint :" + StatusHttpServer.DEFAULT_PORT + " failed: " + e.getMessage());
+            return;
+        }
+        statusServer = server;
+        metrics.counter("status_http_served", server::servedCount);
+        metrics.counter("status_http_rejected", server::rejectedCount);
+        consoleLogRepository.append("[#TCP_INFO#]Status endpoint on :" + server.localPort() + "\n");
+    }
+
+    private void stopStatusServer() {
+        if (statusServer == null) {
+            return;
+        }
+        statusServer.stop();
+        statusServer = null;
+        metrics.remove("status_http_served");
+        metrics.remove("status_http_rejected");
+    }
+
+    // Поток HTTP-сервера: поля сервиса только читаются, менеджер и цель берём один раз
+    private void appendStatusJson(StringBuilder out) {
+        TcpManager manager = tcpManager;
+        Target target = activeTarget;
+        OverlayStateStore.Snapshot snapshot = overlayStateStore.snapshot();
+        long uplink = getUplinkLatencyUs();
+        long downlink = getDownlinkLatencyUs();
+        boolean rttKnown = uplink != ClockSyncEstimator.NO_ESTIMATE && downlink != ClockSyncEstimator.NO_ESTIMATE;
+        long attached = metrics.read("overlay_attached", -1L);
+
+        out.append('{');
+        StatusReport.key(out, "status");
+        StatusReport.string(out, tcpStatusStore.get().name()).append(',');
+        StatusReport.key(out, "target").append('{');
+        StatusReport.key(out, "host");
+        StatusReport.string(out, target != null ? target.host : null).append(',');
+        StatusReport.key(out, "port").append(target != null ? target.port : 0).append("},");
+        StatusReport.key(out, "connection");
+        if (manager != null) {
+            ProtocolHandshake.Negotiated protocol = manager.negotiatedProtocol();
+            out.append('{');
+            StatusReport.key(out, "state");
+            StatusReport.string(out, manager.connectionState().name()).append(',');
+            StatusReport.key(out, "generation").append(manager.connectionGeneration()).append(',');
+            StatusReport.key(out, "protocol");
+            StatusReport.string(out, protocol != null ? protocol.toString() : null).append('}');
+        } else {
+            out.append("null");
+        }
+        out.append(',');
+        StatusReport.key(out, "rtt_us").append(rttKnown ? String.valueOf(uplink + downlink) : "null").append(',');
+        StatusReport.key(out, "uplink_us").append(uplink != ClockSyncEstimator.NO_ESTIMATE ? String.valueOf(uplink) : "null").append(',');
+        StatusReport.key(out, "downlink_us").append(downlink != ClockSyncEstimator.NO_ESTIMATE ? String.valueOf(downlink) : "null").append(',');
+        StatusReport.key(out, "queues").append('{');
+        StatusReport.key(out, "tx_high").append(manager != null ? manager.txQueueDepth(TxScheduler.LANE_HIGH) : 0).append(',');
+        StatusReport.key(out, "tx_normal").append(manager != null ? manager.txQueueDepth(TxScheduler.LANE_NORMAL) : 0).append(',');
+        StatusReport.key(out, "tx_normal_overflow").append(manager != null ? manager.txNormalOverflowCount() : 0).append("},");
+        StatusReport.key(out, "reconcile").append('{');
+        StatusReport.key(out, "diverged").append(divergedLocos.get()).append(',');
+        StatusReport.key(out, "oldest_ms").append(oldestDivergenceMs.get()).append("},");
+        StatusReport.key(out, "standby_live").append(standbyPool != null ? standbyPool.liveCount() : 0).append(',');
+        StatusReport.key(out, "selected").append('{');
+        StatusReport.key(out, "loco").append(selectedLoco.get()).append(',');
+        StatusReport.key(out, "state").append(selectedState.get()).append("},");
+        StatusReport.key(out, "locos");
+        StatusReport.appendLocosJson(out, snapshot);
+        out.append(',');
+        StatusReport.key(out, "overlay_attached").append(attached < 0 ? "null" : attached > 0 ? "true" : "false");
+        out.append("}\n");
+    }
+
+    // Держим N последних профилей (кроме активного) подключёнными в резерве
+    private void refreshStandby(TcpConfigRepository.TcpConfig config, String activeHost, int activePort) {
+        if (standbyPool == null) {
+            return;
+        }
+        List<TcpConfigRepository.ConnectionProfile> standby = new ArrayList<>();
+        if (config.standbyCount > 0) {
+            for (TcpConfigRepository.ConnectionProfile profile : tcpConfigRepository.getProfiles()) {
+                if (standby.size() >= config.standbyCount) {
+                    break;
+                }
+                if (profile.host.equals(activeHost) && profile.port == activePort) {
+                    continue;
+                }
+                standby.add(profile);
+            }
+        }
+        standbyPool.retain(standby);
+    }
+
+    // Холодный перезапуск: рвём всё и включаем авто-подключение к новой цели
+    private void restartOnTarget(String host, int port) {
+        serviceHandler.removeCallbacks(switchRetryRunnable);
+        tcpManager.disableAutoConnect();
+        tcpManager.disconnect();
+        tcpManager.enableAutoConnect(host, port);
+        linkHost = host;
+        linkPort = port;
+    }
+
+    // Смена цели без потери управления: пока живо старое соединение, новое поднимается рядом
+    // и подменяет его только после проверки (make-before-break). Без живого соединения
+    // беречь нечего — идём обычным холодным путём.
+    private void switchTarget(String host, int port) {
+        serviceHandler.removeCallbacks(switchRetryRunnable);
+        // Тёплый резервный сокет к этой цели делает переключение мгновенным
+        Socket prewarmed = standbyPool != null ? standbyPool.take(host, port) : null;
+        if (prewarmed == null && !tcpManager.isConnected()) {
+            restartOnTarget(host, port);
+            return;
+        }
+        consoleLogRepository.append("[#TCP_STATUS#]switching to " + host + ":" + port
+                + (prewarmed != null ? " (standby)" : "") + "\n");
+        tcpManager.switchTarget(host, port, prewarmed, (success, h, p, reason) ->
+                serviceHandler.post(() -> handleSwitchResult(success, h, p, reason)));
+    }
+
+    private void handleSwitchResult(boolean success, String host, int port, @Nullable String reason) {
+        if (success) {
+            linkHost = host;
+            linkPort = port;
+            consoleLogRepository.append("[#TCP_STATUS#]switched to " + host + ":" + port + "\n");
+            return;
+        }
+        Target target = activeTarget;
+        if (target == null || !target.is(host, port)) {
+            // Уже запрошена другая цель — этот результат неактуален
+            return;
+        }
+        appendTcpError("Switch to " + host + ":" + port + " failed (" + reason + "), staying on "
+                + linkHost + ":" + linkPort);
+        serviceHandler.postDelayed(switchRetryRunnable, SWITCH_RETRY_MS);
+    }
+
+    private void retryPendingSwitch() {
+        Target target = activeTarget;
+        if (tcpManager == null || target == null) {
+            return;
+        }
+        if (target.is(linkHost, linkPort)) {
+            return;
+        }
+        switchTarget(target.host, target.port);
     }
 
     private void ensureAutoConnect() {
-        if (tcpManager == null || activeHost == null) {
+        if (tcpManager == null || linkHost == null) {
             return;
         }
-        tcpManager.enableAutoConnect(activeHost, activePort);
+        tcpManager.enableAutoConnect(linkHost, linkPort);
     }
 
     private void postStatus(TcpState state) {
-        mainHandler.post(() -> tcpStatusStore.update(state));
+        serviceHandler.post(() -> tcpStatusStore.update(state));
     }
 
     private String normalizeHost(String host) {
@@ -263,49 +837,49 @@ public class TcpService extends Service {
         return port <= 0 ? DEFAULT_TCP_PORT : port;
     }
 
-    private void handleOverlaySelection(int state) {
+    private void handleOverlaySelection(int state, long selectedAtNanos) {
         if (!ProtocolConstraints.isValidState(state) || overlayStateStore == null) {
             return;
         }
+        latencyStats.recordSince(LatencyStats.TX_DISPATCH, selectedAtNanos);
+        localSelections.increment();
         if (isOverlayInEditMode()) {
             consoleLogRepository.append("[#TCP_EDIT#]Overlay selection ignored (edit mode)\n");
             return;
         }
         int normalized = ProtocolConstraints.clampState(state);
         selectedState.set(normalized);
-        overlayStateStore.publish(normalized);
-        boolean sent = sendControl(selectedLoco.get(), normalized);
-        if (!sent) {
-            consoleLogRepository.append("[#TCP_WARN#]Control not sent (connection inactive)\n");
+        publishLive(selectedLoco.get(), normalized);
+        stateHistory.record(System.currentTimeMillis(), selectedLoco.get(), normalized, StateHistory.SOURCE_LOCAL);
+        if (!dispatchControl(selectedLoco.get(), normalized)) {
+            noteUnsent();
         }
     }
 
-    private void processTcpPayload(@Nullable String data) {
-        if (data == null || data.isEmpty()) {
-            return;
+    private void noteUnsent() {
+        controlsUnsent.increment();
+        consoleLogRepository.append("[#TCP_WARN#]Control not sent (connection inactive)\n");
+    }
+
+    private void handleRemoteReport(int loco, int state, boolean selected, long decodedAtNanos) {
+        latencyStats.recordSince(LatencyStats.RX_DISPATCH, decodedAtNanos);
+        remoteReports.increment();
+        long handlingStartedAt = System.nanoTime();
+        long now = SystemClock.elapsedRealtime();
+        reconciler.onReport(loco, state, now);
+        // Время в состоянии считается только по отчётам контроллера: локальное нажатие
+        // до подтверждения сюда не попадает
+        dwellAnalytics.onState(loco, state, now);
+        stateHistory.record(System.currentTimeMillis(), loco, state, StateHistory.SOURCE_REMOTE);
+        // Кэшируем состояние каждого локомотива: при смене выбранного оно показывается сразу.
+        // Во время воспроизведения истории оверлей принадлежит ему
+        if (overlayStateStore != null && ProtocolConstraints.isValidLoco(loco)) {
+            publishLive(loco, state);
         }
-        int locoTarget = selectedLoco.get();
-        String[] lines = data.split("\n");
-        for (String line : lines) {
-            if (line == null) {
-                continue;
-            }
-            String trimmed = line.trim();
-            if (trimmed.isEmpty() || trimmed.startsWith("[TCP]")) {
-                continue;
-            }
-            int locoVal = extractDecimal(trimmed, "loco=");
-            if (!ProtocolConstraints.isValidLoco(locoVal) || locoVal != locoTarget) {
-                continue;
-            }
-            int stateVal = extractDecimal(trimmed, "state=");
-            if (!ProtocolConstraints.isValidState(stateVal)) {
-                continue;
-            }
-            consoleLogRepository.append("[#TCP_RX#]Rx: loco" + locoVal + " -> state" + stateVal + "\n");
-            int normalized = ProtocolConstraints.clampState(stateVal);
-            mainHandler.post(() -> handleRemoteState(normalized));
+        if (selected) {
+            handleRemoteState(state);
         }
+        reportHandling.recordNanos(System.nanoTime() - handlingStartedAt);
     }
 
     private void handleRemoteState(int state) {
@@ -313,36 +887,11 @@ public class TcpService extends Service {
             return;
         }
         selectedState.set(state);
-        overlayStateStore.publish(state);
         if (isOverlayInEditMode()) {
             consoleLogRepository.append("[#TCP_RX#]Remote state applied while edit mode active\n");
         }
     }
 
-    private int extractDecimal(String line, String token) {
-        if (line == null || token == null) {
-            return -1;
-        }
-        int idx = line.indexOf(token);
-        if (idx < 0) {
-            return -1;
-        }
-        int cursor = idx + token.length();
-        int value = 0;
-        boolean found = false;
-        while (cursor < line.length()) {
-            char c = line.charAt(cursor);
-            if (c >= '0' && c <= '9') {
-                value = value * 10 + (c - '0');
-                found = true;
-                cursor++;
-            } else {
-                break;
-            }
-        }
-        return found ? value : -1;
-    }
-
     private boolean isOverlayInEditMode() {
         return overlaySettings != null && overlaySettings.editModeEnabled;
     }
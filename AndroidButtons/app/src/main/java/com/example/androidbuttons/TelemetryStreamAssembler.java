@@ -0,0 +1,56 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.TelemetryDecoders;
+
+import java.util.function.LongSupplier;
+
+// Сборка длинных кадров телеметрии (пачки длиннее INLINE_PAYLOAD_MAX приходят потоком):
+// куски копируются в фиксированный буфер, декодеры видят кадр только после верного CRC,
+// откаченный кадр просто забывается. Вызывается только из потока чтения TcpManager.
+final class TelemetryStreamAssembler implements TcpManager.StreamConsumer {
+
+    private final TelemetryDecoders decoders;
+    private final LongSupplier clockMs;
+    private final byte[] buffer = new byte[TcpFrameParser.MAX_PAYLOAD];
+    private int size;
+    private volatile long decoded;
+    private volatile long dropped;
+
+    TelemetryStreamAssembler(TelemetryDecoders decoders, LongSupplier clockMs) {
+        this.decoders = decoders;
+        this.clockMs = clockMs;
+    }
+
+    @Override
+    public void onStreamStart(int address, int length) {
+        size = 0;
+    }
+
+    @Override
+    public void onStreamChunk(byte[] buf, int off, int len) {
+        int n = Math.min(len, buffer.length - size);
+        System.arraycopy(buf, off, buffer, size, n);
+        size += n;
+    }
+
+    @Override
+    public void onStreamEnd(int address, int length, boolean committed) {
+        int n = size;
+        size = 0;
+        if (committed && n == length && decoders.decode(address, buffer, 0, n, clockMs.getAsLong())) {
+            decoded++;
+        } else {
+            // Битый CRC или кадр не телеметрии — в хранилище ничего не попадает
+            dropped++;
+        }
+    }
+
+    // Записи идут только из потока чтения, читают метрики
+    long decodedCount() {
+        return decoded;
+    }
+
+    long droppedCount() {
+        return dropped;
+    }
+}
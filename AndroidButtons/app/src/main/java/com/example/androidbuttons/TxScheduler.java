@@ -0,0 +1,175 @@
+package com.example.androidbuttons;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.androidbuttons.core.LatencyHistogram;
+
+// Планировщик исходящих кадров с двумя полосами.
+// Кадры высокого приоритета (стоп/красный и т.п.) всегда уходят раньше обычных:
+// перед каждым следующим кадром поток записи сначала проверяет высокую полосу,
+// поэтому задержка стоп-команды ограничена одним уже начатым кадром, а не длиной очереди.
+final class TxScheduler {
+
+    static final int LANE_HIGH = 0;
+    static final int LANE_NORMAL = 1;
+
+    // Обычная полоса ограничена: при шквале нажатий старые кадры вытесняются новыми
+    // (считаются в overflowed и в метрике tcp_tx_normal_overflow)
+    static final int NORMAL_LANE_CAPACITY = 256;
+
+    // Запись одного кадра целиком в текущий сокет
+    interface FrameSink {
+        void write(byte[] frame) throws IOException;
+    }
+
+    // Ошибка записи (соединение, скорее всего, уже мертво)
+    interface ErrorHandler {
+        void onWriteError(IOException error);
+    }
+
+    // Кадр в очереди с моментом постановки (монотонное время)
+    private static final class Pending {
+        final byte[] frame;
+        final long enqueuedAtNanos;
+
+        Pending(byte[] frame, long enqueuedAtNanos) {
+            this.frame = frame;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+
+    // Счётчики задержки в очереди для одной полосы
+    static final class LaneStats {
+        final AtomicLong sent = new AtomicLong();
+        // Все выброшенные кадры: вытесненные переполнением и сброшенные clear()
+        final AtomicLong dropped = new AtomicLong();
+        // Только вытесненные переполнением полосы
+        final AtomicLong overflowed = new AtomicLong();
+        final AtomicLong totalDelayNanos = new AtomicLong();
+        final AtomicLong maxDelayNanos = new AtomicLong();
+        volatile long lastDelayNanos;
+
+        void record(long delayNanos) {
+            sent.incrementAndGet();
+            totalDelayNanos.addAndGet(delayNanos);
+            lastDelayNanos = delayNanos;
+            long max;
+            do {
+                max = maxDelayNanos.get();
+                if (delayNanos <= max) break;
+            } while (!maxDelayNanos.compareAndSet(max, delayNanos));
+        }
+
+        long averageDelayNanos() {
+            long n = sent.get();
+            return n == 0 ? 0 : totalDelayNanos.get() / n;
+        }
+    }
+
+    private final FrameSink sink;
+    private final ErrorHandler errorHandler;
+    private final ArrayDeque<Pending> high = new ArrayDeque<>();
+    private final ArrayDeque<Pending> normal = new ArrayDeque<>();
+    private final LaneStats[] stats = { new LaneStats(), new LaneStats() };
+    private final Thread thread;
+    private volatile boolean stopped = false;
+    // Постановка → кадр целиком записан в сокет (null — не меряем)
+    private volatile LatencyHistogram writeLatency;
+
+    TxScheduler(FrameSink sink, ErrorHandler errorHandler) {
+        this.sink = sink;
+        this.errorHandler = errorHandler;
+        thread = new Thread(this::loop, "tcp-tx");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Постановка кадра в полосу; false — планировщик уже остановлен
+    boolean submit(byte[] frame, int lane) {
+        Pending pending = new Pending(frame, System.nanoTime());
+        synchronized (this) {
+            if (stopped) return false;
+            if (lane == LANE_HIGH) {
+                high.addLast(pending);
+            } else {
+                if (normal.size() >= NORMAL_LANE_CAPACITY) {
+                    normal.pollFirst();
+                    stats[LANE_NORMAL].dropped.incrementAndGet();
+                    stats[LANE_NORMAL].overflowed.incrementAndGet();
+                }
+                normal.addLast(pending);
+            }
+            notifyAll();
+        }
+        return true;
+    }
+
+    // Сброс очередей (например, при разрыве соединения кадры уже неактуальны)
+    synchronized void clear() {
+        stats[LANE_HIGH].dropped.addAndGet(high.size());
+        stats[LANE_NORMAL].dropped.addAndGet(normal.size());
+        high.clear();
+        normal.clear();
+    }
+
+    synchronized int queueDepth(int lane) {
+        return lane == LANE_HIGH ? high.size() : normal.size();
+    }
+
+    void setWriteLatency(LatencyHistogram histogram) {
+        writeLatency = histogram;
+    }
+
+    LaneStats stats(int lane) {
+        return stats[lane == LANE_HIGH ? LANE_HIGH : LANE_NORMAL];
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            stopped = true;
+            high.clear();
+            normal.clear();
+            notifyAll();
+        }
+        thread.interrupt();
+    }
+
+    private void loop() {
+        while (true) {
+            Pending next;
+            int lane;
+            synchronized (this) {
+                while (!stopped && high.isEmpty() && normal.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        if (stopped) return;
+                    }
+                }
+                if (stopped) return;
+                // Граница кадра: высокий приоритет всегда вытесняет обычную полосу
+                if (!high.isEmpty()) {
+                    next = high.pollFirst();
+                    lane = LANE_HIGH;
+                } else {
+                    next = normal.pollFirst();
+                    lane = LANE_NORMAL;
+                }
+            }
+            stats[lane].record(System.nanoTime() - next.enqueuedAtNanos);
+            try {
+                sink.write(next.frame);
+                LatencyHistogram histogram = writeLatency;
+                if (histogram != null) {
+                    histogram.recordNanos(System.nanoTime() - next.enqueuedAtNanos);
+                }
+            } catch (IOException e) {
+                if (errorHandler != null) errorHandler.onWriteError(e);
+            } catch (RuntimeException ignored) {
+                // поток записи не должен умирать из-за сбоя одного кадра
+            }
+        }
+    }
+}
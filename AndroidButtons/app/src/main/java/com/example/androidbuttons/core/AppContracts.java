@@ -7,12 +7,12 @@ public final class AppContracts {
 
     private AppContracts() {}
 
-    public static final String ACTION_APPLY_SCALE = "com.example.androidbuttons.APPLY_SCALE_NOW";
-    public static final String ACTION_APPLY_POSITION = "com.example.androidbuttons.APPLY_POSITION_NOW";
+    public static final String ACTION_REPLAY_HISTORY = "com.example.androidbuttons.REPLAY_HISTORY";
+    public static final String ACTION_STOP_ALL = "com.example.androidbuttons.STOP_ALL";
 
-    public static final String EXTRA_OVERLAY_X = "com.example.androidbuttons.extra.OVERLAY_X";
-    public static final String EXTRA_OVERLAY_Y = "com.example.androidbuttons.extra.OVERLAY_Y";
-    public static final String EXTRA_OVERLAY_SCALE = "com.example.androidbuttons.extra.OVERLAY_SCALE";
+    public static final String EXTRA_REPLAY_FROM_MS = "com.example.androidbuttons.extra.REPLAY_FROM_MS";
+    public static final String EXTRA_REPLAY_TO_MS = "com.example.androidbuttons.extra.REPLAY_TO_MS";
+    public static final String EXTRA_REPLAY_SPEED = "com.example.androidbuttons.extra.REPLAY_SPEED";
 
     public static final String LOG_TAG_SETTINGS = "SettingsActivity";
     public static final String LOG_TAG_MAIN = "MainActivity";
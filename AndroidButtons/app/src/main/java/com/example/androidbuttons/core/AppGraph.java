@@ -13,18 +13,32 @@ public final class AppGraph {
 
     private static volatile AppGraph instance;
 
+    private final EventBus eventBus;
     private final OverlaySettingsRepository overlaySettingsRepository;
     private final TcpConfigRepository tcpConfigRepository;
     private final ConsoleLogRepository consoleLogRepository;
     private final OverlayStateStore overlayStateStore;
     private final TcpStatusStore tcpStatusStore;
+    private final TelemetryStore telemetryStore;
+    private final DwellAnalytics dwellAnalytics;
+    private final ClockSyncEstimator clockSyncEstimator;
+    private final StateHistory stateHistory;
+    private final LatencyStats latencyStats;
+    private final Metrics metrics;
 
     private AppGraph(Context appContext) {
-        overlaySettingsRepository = new OverlaySettingsRepository(appContext);
-        tcpConfigRepository = new TcpConfigRepository(appContext);
-        consoleLogRepository = new ConsoleLogRepository();
-        overlayStateStore = new OverlayStateStore();
-        tcpStatusStore = new TcpStatusStore();
+        eventBus = new EventBus();
+        overlaySettingsRepository = new OverlaySettingsRepository(appContext, eventBus);
+        tcpConfigRepository = new TcpConfigRepository(appContext, eventBus);
+        consoleLogRepository = new ConsoleLogRepository(eventBus);
+        overlayStateStore = new OverlayStateStore(eventBus);
+        tcpStatusStore = new TcpStatusStore(eventBus);
+        telemetryStore = new TelemetryStore();
+        dwellAnalytics = new DwellAnalytics();
+        clockSyncEstimator = new ClockSyncEstimator();
+        stateHistory = new StateHistory();
+        latencyStats = new LatencyStats();
+        metrics = new Metrics();
     }
 
     @MainThread
@@ -43,6 +57,10 @@ public final class AppGraph {
         return local;
     }
 
+    public EventBus events() {
+        return eventBus;
+    }
+
     public OverlaySettingsRepository overlaySettings() {
         return overlaySettingsRepository;
     }
@@ -62,4 +80,28 @@ public final class AppGraph {
     public TcpStatusStore tcpStatuses() {
         return tcpStatusStore;
     }
+
+    public TelemetryStore telemetry() {
+        return telemetryStore;
+    }
+
+    public DwellAnalytics dwell() {
+        return dwellAnalytics;
+    }
+
+    public ClockSyncEstimator clockSync() {
+        return clockSyncEstimator;
+    }
+
+    public StateHistory stateHistory() {
+        return stateHistory;
+    }
+
+    public LatencyStats latency() {
+        return latencyStats;
+    }
+
+    public Metrics metrics() {
+        return metrics;
+    }
 }
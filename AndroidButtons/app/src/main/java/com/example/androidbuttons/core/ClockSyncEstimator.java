@@ -0,0 +1,251 @@
+package com.example.androidbuttons.core;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the controller clock against the local monotonic clock and turns timestamped
+ * frames into one-way latency estimates.
+ * <p>
+ * Each NTP-style exchange gives t0 (local send), t1 (remote receive), t2 (remote send) and
+ * t3 (local receive). Queueing inflates the round trip and skews a single sample, so
+ * exchanges are taken in windows of N. Only the sample with the smallest round trip in each
+ * window becomes an offset point (best-of-N). Its error from path asymmetry is at most half
+ * its round trip. Drift is the least-squares slope over the most recent offset points.
+ * One-way latencies are reported as medians over a short window so single outliers do not move them.
+ * <p>
+ * Thread-safe. All times are microseconds; local times come from a monotonic clock.
+ */
+public final class ClockSyncEstimator {
+
+    public static final long NO_ESTIMATE = Long.MIN_VALUE;
+
+    public static final int DEFAULT_WINDOW = 8;
+
+    private static final int MAX_POINTS = 16;
+    private static final int LATENCY_WINDOW = 32;
+    // Короче этого отрезка наклон по точкам — шум, а не дрейф
+    private static final long MIN_DRIFT_SPAN_US = 10_000_000L;
+
+    private final int window;
+
+    // Текущее окно обменов: лучший (минимальная задержка) кандидат
+    private int windowCount;
+    private long candidateDelay = Long.MAX_VALUE;
+    private long candidateOffset;
+    private long candidateLocal;
+
+    // Точки смещения (по одной на окно), кольцо
+    private final long[] pointLocal = new long[MAX_POINTS];
+    private final long[] pointOffset = new long[MAX_POINTS];
+    private final long[] pointDelay = new long[MAX_POINTS];
+    private int pointHead;
+    private int pointCount;
+
+    // Модель: offset(local) = baseOffset + drift * (local - baseLocal)
+    private long baseLocal;
+    private double baseOffset;
+    private double drift;
+
+    private final long[] uplink = new long[LATENCY_WINDOW];
+    private final long[] downlink = new long[LATENCY_WINDOW];
+    private int uplinkHead;
+    private int uplinkCount;
+    private int downlinkHead;
+    private int downlinkCount;
+    private long exchanges;
+    private long rejected;
+
+    public ClockSyncEstimator() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public ClockSyncEstimator(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * One completed exchange. Returns false for samples that cannot be right
+     * (negative round trip), which are dropped.
+     */
+    public synchronized boolean onExchange(long t0, long t1, long t2, long t3) {
+        long delay = (t3 - t0) - (t2 - t1);
+        if (delay < 0 || t3 < t0) {
+            rejected++;
+            return false;
+        }
+        exchanges++;
+        long offset = ((t1 - t0) + (t2 - t3)) / 2;
+        if (delay < candidateDelay) {
+            candidateDelay = delay;
+            candidateOffset = offset;
+            candidateLocal = t0 + (t3 - t0) / 2;
+        }
+        if (++windowCount >= window || pointCount == 0) {
+            // До первой точки берём лучший образец сразу — смещение нужно как можно раньше
+            addPoint(candidateLocal, candidateOffset, candidateDelay);
+            if (windowCount >= window) {
+                windowCount = 0;
+                candidateDelay = Long.MAX_VALUE;
+            }
+        }
+        // Односторонние задержки — уже относительно сглаженной модели, а не этого образца
+        pushUplink((t1 - offsetAtLocked(t0)) - t0);
+        pushDownlink(t3 - (t2 - offsetAtLocked(t3)));
+        return true;
+    }
+
+    /**
+     * Frame stamped by the controller at {@code remoteSendUs} and received locally at
+     * {@code localReceiveUs}. Ignored until the first offset point exists.
+     */
+    public synchronized void onRemoteTimestamp(long remoteSendUs, long localReceiveUs) {
+        if (pointCount == 0) {
+            return;
+        }
+        pushDownlink(localReceiveUs - (remoteSendUs - offsetAtLocked(localReceiveUs)));
+    }
+
+    /**
+     * Forgets everything, e.g. after reconnecting to a controller that may have rebooted.
+     */
+    public synchronized void reset() {
+        windowCount = 0;
+        candidateDelay = Long.MAX_VALUE;
+        pointHead = 0;
+        pointCount = 0;
+        drift = 0.0;
+        uplinkHead = 0;
+        uplinkCount = 0;
+        downlinkHead = 0;
+        downlinkCount = 0;
+    }
+
+    public synchronized boolean isSynced() {
+        return pointCount > 0;
+    }
+
+    /**
+     * Remote minus local clock at local time {@code localUs}, or {@link #NO_ESTIMATE}.
+     */
+    public synchronized long offsetAt(long localUs) {
+        return pointCount == 0 ? NO_ESTIMATE : offsetAtLocked(localUs);
+    }
+
+    public synchronized long toLocal(long remoteUs) {
+        if (pointCount == 0) {
+            return NO_ESTIMATE;
+        }
+        // Смещение меняется медленно: локальное время достаточно оценить по базовому смещению
+        return remoteUs - offsetAtLocked(remoteUs - Math.round(baseOffset));
+    }
+
+    /** Drift of the remote clock relative to ours, parts per million. */
+    public synchronized double driftPpm() {
+        return drift * 1e6;
+    }
+
+    /**
+     * Upper bound of the offset error caused by path asymmetry: half the best round trip.
+     */
+    public synchronized long uncertaintyUs() {
+        if (pointCount == 0) {
+            return NO_ESTIMATE;
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < pointCount; i++) {
+            best = Math.min(best, pointDelay[i]);
+        }
+        return best / 2;
+    }
+
+    /** Median tablet→controller latency, or {@link #NO_ESTIMATE}. */
+    public synchronized long uplinkUs() {
+        return median(uplink, uplinkCount);
+    }
+
+    /** Median controller→tablet latency, or {@link #NO_ESTIMATE}. */
+    public synchronized long downlinkUs() {
+        return median(downlink, downlinkCount);
+    }
+
+    public synchronized long exchangeCount() {
+        return exchanges;
+    }
+
+    public synchronized long rejectedCount() {
+        return rejected;
+    }
+
+    private void addPoint(long local, long offset, long delay) {
+        pointLocal[pointHead] = local;
+        pointOffset[pointHead] = offset;
+        pointDelay[pointHead] = delay;
+        pointHead = (pointHead + 1) % MAX_POINTS;
+        if (pointCount < MAX_POINTS) {
+            pointCount++;
+        }
+        fit();
+    }
+
+    // Наименьшие квадраты по точкам; пока точки покрывают короткий отрезок —
+    // дрейф считаем нулевым, а смещение берём у точки с наименьшей задержкой
+    private void fit() {
+        int newest = (pointHead - 1 + MAX_POINTS) % MAX_POINTS;
+        baseLocal = pointLocal[newest];
+        long minLocal = Long.MAX_VALUE;
+        long maxLocal = Long.MIN_VALUE;
+        int best = newest;
+        for (int i = 0; i < pointCount; i++) {
+            minLocal = Math.min(minLocal, pointLocal[i]);
+            maxLocal = Math.max(maxLocal, pointLocal[i]);
+            if (pointDelay[i] < pointDelay[best]) best = i;
+        }
+        if (maxLocal - minLocal < MIN_DRIFT_SPAN_US) {
+            baseOffset = pointOffset[best];
+            drift = 0.0;
+            return;
+        }
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < pointCount; i++) {
+            sumX += pointLocal[i] - baseLocal;
+            sumY += pointOffset[i];
+        }
+        double meanX = sumX / pointCount;
+        double meanY = sumY / pointCount;
+        double sxx = 0;
+        double sxy = 0;
+        for (int i = 0; i < pointCount; i++) {
+            double dx = (pointLocal[i] - baseLocal) - meanX;
+            sxx += dx * dx;
+            sxy += dx * (pointOffset[i] - meanY);
+        }
+        drift = sxx > 0 ? sxy / sxx : 0.0;
+        baseOffset = meanY - drift * meanX;
+    }
+
+    private long offsetAtLocked(long localUs) {
+        return Math.round(baseOffset + drift * (localUs - baseLocal));
+    }
+
+    private void pushUplink(long value) {
+        uplink[uplinkHead] = value;
+        uplinkHead = (uplinkHead + 1) % LATENCY_WINDOW;
+        if (uplinkCount < LATENCY_WINDOW) uplinkCount++;
+    }
+
+    private void pushDownlink(long value) {
+        downlink[downlinkHead] = value;
+        downlinkHead = (downlinkHead + 1) % LATENCY_WINDOW;
+        if (downlinkCount < LATENCY_WINDOW) downlinkCount++;
+    }
+
+    private static long median(long[] ring, int count) {
+        if (count == 0) {
+            return NO_ESTIMATE;
+        }
+        long[] copy = Arrays.copyOf(ring, count);
+        Arrays.sort(copy);
+        return copy[count / 2];
+    }
+}
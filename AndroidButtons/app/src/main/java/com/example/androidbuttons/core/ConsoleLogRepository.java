@@ -2,7 +2,7 @@ package com.example.androidbuttons.core;
 
 import java.util.LinkedList;
 import java.util.Queue;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Thread-safe buffer for log lines consumed by Settings screen or other observers.
@@ -12,7 +12,15 @@ public final class ConsoleLogRepository {
     private static final int MAX_LINES = 10_000;
 
     private final Queue<String> queue = new LinkedList<>();
-    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final EventBus.Topic<String> topic;
+
+    public ConsoleLogRepository() {
+        this(new EventBus());
+    }
+
+    public ConsoleLogRepository(EventBus bus) {
+        topic = bus.topic("console.lines", 256);
+    }
 
     public void append(String line) {
         if (line == null || line.isEmpty()) {
@@ -24,9 +32,7 @@ public final class ConsoleLogRepository {
                 queue.poll();
             }
         }
-        for (Listener listener : listeners) {
-            listener.onLogAppended(line);
-        }
+        topic.publish(line);
     }
 
     public String drainAll() {
@@ -40,11 +46,17 @@ public final class ConsoleLogRepository {
     }
 
     public void addListener(Listener listener) {
-        listeners.addIfAbsent(listener);
+        addListener(listener, EventBus.DIRECT, EventBus.Policy.EVERY);
+    }
+
+    public void addListener(Listener listener, Executor executor, EventBus.Policy policy) {
+        if (!topic.isSubscribed(listener)) {
+            topic.subscribe(listener, listener::onLogAppended, executor, policy, false);
+        }
     }
 
     public void removeListener(Listener listener) {
-        listeners.remove(listener);
+        topic.unsubscribe(listener);
     }
 
     public interface Listener {
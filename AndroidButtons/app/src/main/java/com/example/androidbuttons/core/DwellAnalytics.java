@@ -0,0 +1,249 @@
+package com.example.androidbuttons.core;
+
+import java.util.Arrays;
+
+/**
+ * Running per-locomotive, per-state dwell statistics.
+ * <p>
+ * Every transition closes the previous dwell period and updates all-time accumulators
+ * (total, count, max, log2-second histogram). It also updates two rolling windows, the last
+ * hour and the last shift: the dwell time is split across the slots it covers, so a window
+ * never holds more time than it spans, while the dwell is counted once, in the slot where it
+ * ends. The ongoing dwell is clipped to the window start the same way. Updates touch at most
+ * one window's worth of slots; queries sum a fixed number of slots and never scan history.
+ * Feed it confirmed (controller-reported) states only. Times are monotonic milliseconds.
+ */
+public final class DwellAnalytics {
+
+    public static final int WINDOW_ALL = 0;
+    public static final int WINDOW_HOUR = 1;
+    public static final int WINDOW_SHIFT = 2;
+
+    public static final long HOUR_MS = 60L * 60L * 1000L;
+    public static final long SHIFT_MS = 8L * HOUR_MS;
+
+    /** Bucket {@code b} counts dwells shorter than 2^b seconds; the last one is open-ended. */
+    public static final int HISTOGRAM_BUCKETS = 12;
+
+    private static final int STATE_COUNT = ProtocolConstraints.STATE_MAX - ProtocolConstraints.STATE_MIN + 1;
+    private static final int SERIES = ProtocolConstraints.LOCOMOTIVE_COUNT * STATE_COUNT;
+
+    private final int[] currentState = new int[ProtocolConstraints.LOCOMOTIVE_COUNT];
+    private final long[] enteredAt = new long[ProtocolConstraints.LOCOMOTIVE_COUNT];
+
+    private final long[] totalMs = new long[SERIES];
+    private final long[] count = new long[SERIES];
+    private final long[] maxMs = new long[SERIES];
+    private final long[] histogram = new long[SERIES * HISTOGRAM_BUCKETS];
+
+    private final Window hour = new Window(60, HOUR_MS / 60);
+    private final Window shift = new Window(48, SHIFT_MS / 48);
+
+    /**
+     * Snapshot of one loco/state series; current ongoing dwell is included.
+     */
+    public static final class Stats {
+        public final long totalMs;
+        public final long count;
+        public final long maxMs;
+
+        Stats(long totalMs, long count, long maxMs) {
+            this.totalMs = totalMs;
+            this.count = count;
+            this.maxMs = maxMs;
+        }
+    }
+
+    /**
+     * Reports the loco's state; repeats of the current state are ignored.
+     */
+    public synchronized void onState(int loco, int state, long now) {
+        if (!ProtocolConstraints.isValidLoco(loco) || !ProtocolConstraints.isValidState(state)) {
+            return;
+        }
+        int li = ProtocolConstraints.locoIndex(loco);
+        int previous = currentState[li];
+        if (previous == state) {
+            return;
+        }
+        if (previous != 0) {
+            long dwell = Math.max(0L, now - enteredAt[li]);
+            int series = series(li, previous);
+            totalMs[series] += dwell;
+            count[series]++;
+            if (dwell > maxMs[series]) {
+                maxMs[series] = dwell;
+            }
+            histogram[series * HISTOGRAM_BUCKETS + bucketFor(dwell)]++;
+            hour.add(series, now - dwell, now);
+            shift.add(series, now - dwell, now);
+        }
+        currentState[li] = state;
+        enteredAt[li] = now;
+    }
+
+    public synchronized int currentState(int loco) {
+        return ProtocolConstraints.isValidLoco(loco) ? currentState[ProtocolConstraints.locoIndex(loco)] : 0;
+    }
+
+    public synchronized long currentDwellMs(int loco, long now) {
+        if (!ProtocolConstraints.isValidLoco(loco)) {
+            return 0L;
+        }
+        int li = ProtocolConstraints.locoIndex(loco);
+        return currentState[li] == 0 ? 0L : Math.max(0L, now - enteredAt[li]);
+    }
+
+    /**
+     * Dwell statistics for one loco and state in the given window
+     * ({@link #WINDOW_ALL}, {@link #WINDOW_HOUR} or {@link #WINDOW_SHIFT}).
+     */
+    public synchronized Stats stats(int loco, int state, int window, long now) {
+        if (!ProtocolConstraints.isValidLoco(loco) || !ProtocolConstraints.isValidState(state)) {
+            return new Stats(0L, 0L, 0L);
+        }
+        int li = ProtocolConstraints.locoIndex(loco);
+        int series = series(li, state);
+        long total;
+        long n;
+        long max;
+        long from;
+        if (window == WINDOW_HOUR || window == WINDOW_SHIFT) {
+            Window w = window == WINDOW_HOUR ? hour : shift;
+            w.advance(now);
+            total = w.sumTotal(series);
+            n = w.sumCount(series);
+            max = w.max(series);
+            from = w.startMs();
+        } else {
+            total = totalMs[series];
+            n = count[series];
+            max = maxMs[series];
+            from = Long.MIN_VALUE;
+        }
+        if (currentState[li] == state) {
+            long ongoing = Math.max(0L, now - Math.max(enteredAt[li], from));
+            total += ongoing;
+            max = Math.max(max, ongoing);
+        }
+        return new Stats(total, n, max);
+    }
+
+    /**
+     * Copies the all-time histogram for one loco/state into {@code out}
+     * (up to {@link #HISTOGRAM_BUCKETS} entries) and returns the number copied.
+     */
+    public synchronized int histogram(int loco, int state, long[] out) {
+        if (out == null || !ProtocolConstraints.isValidLoco(loco) || !ProtocolConstraints.isValidState(state)) {
+            return 0;
+        }
+        int base = series(ProtocolConstraints.locoIndex(loco), state) * HISTOGRAM_BUCKETS;
+        int n = Math.min(out.length, HISTOGRAM_BUCKETS);
+        System.arraycopy(histogram, base, out, 0, n);
+        return n;
+    }
+
+    private static int series(int locoIndex, int state) {
+        return locoIndex * STATE_COUNT + (state - ProtocolConstraints.STATE_MIN);
+    }
+
+    private static int bucketFor(long dwellMs) {
+        long seconds = dwellMs / 1000L;
+        int bucket = 64 - Long.numberOfLeadingZeros(seconds);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    // Rolling window as a ring of fixed-width time slots; expired slots are cleared lazily
+    private static final class Window {
+        private final int slots;
+        private final long slotMs;
+        private final long[] total;
+        private final long[] count;
+        private final long[] max;
+        private long currentSlot = Long.MIN_VALUE;
+
+        Window(int slots, long slotMs) {
+            this.slots = slots;
+            this.slotMs = slotMs;
+            total = new long[slots * SERIES];
+            count = new long[slots * SERIES];
+            max = new long[slots * SERIES];
+        }
+
+        // Dwell [startMs, endMs): time goes to every slot it overlaps inside the window,
+        // the count and the clipped length to the slot where it ends
+        void add(int series, long startMs, long endMs) {
+            advance(endMs);
+            long windowStart = startMs();
+            long endSlot = Math.max(0L, endMs) / slotMs;
+            if (endMs < windowStart) {
+                return;
+            }
+            long from = Math.max(startMs, windowStart);
+            for (long slot = Math.max(0L, from) / slotMs; slot <= endSlot; slot++) {
+                long overlap = Math.min(endMs, (slot + 1) * slotMs) - Math.max(from, slot * slotMs);
+                if (overlap > 0) {
+                    total[index(slot, series)] += overlap;
+                }
+            }
+            int idx = index(endSlot, series);
+            count[idx]++;
+            long clipped = Math.max(0L, endMs - from);
+            if (clipped > max[idx]) {
+                max[idx] = clipped;
+            }
+        }
+
+        // Start of the oldest slot still in the window
+        long startMs() {
+            return (currentSlot - slots + 1) * slotMs;
+        }
+
+        private int index(long slot, int series) {
+            return (int) (slot % slots) * SERIES + series;
+        }
+
+        void advance(long now) {
+            long slot = Math.max(0L, now) / slotMs;
+            if (currentSlot == Long.MIN_VALUE) {
+                currentSlot = slot;
+                return;
+            }
+            if (slot <= currentSlot) {
+                return;
+            }
+            long steps = Math.min(slots, slot - currentSlot);
+            for (long s = 1; s <= steps; s++) {
+                int base = (int) ((currentSlot + s) % slots) * SERIES;
+                Arrays.fill(total, base, base + SERIES, 0L);
+                Arrays.fill(count, base, base + SERIES, 0L);
+                Arrays.fill(max, base, base + SERIES, 0L);
+            }
+            currentSlot = slot;
+        }
+
+        long sumTotal(int series) {
+            long sum = 0L;
+            for (int s = 0; s < slots; s++) {
+                sum += total[s * SERIES + series];
+            }
+            return sum;
+        }
+
+        long sumCount(int series) {
+            long sum = 0L;
+            for (int s = 0; s < slots; s++) {
+                sum += count[s * SERIES + series];
+            }
+            return sum;
+        }
+
+        long max(int series) {
+            long result = 0L;
+            for (int s = 0; s < slots; s++) {
+                result = Math.max(result, max[s * SERIES + series]);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.androidbuttons.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process event bus with one preallocated ring per topic and independent cursors per
+ * subscriber (Disruptor-style).
+ * <p>
+ * Publishing writes one ring slot and wakes subscribers; it never runs subscriber code
+ * unless a subscriber asked for {@link #DIRECT} delivery. Every subscriber picks its delivery
+ * executor and a policy: {@link Policy#EVERY} replays every event it has not seen yet, and
+ * {@link Policy#LATEST} only the newest one. At most one drain task per subscriber is queued
+ * on its executor, so a burst costs one post, not one per event. A subscriber that falls more
+ * than a ring behind skips the overwritten events and counts them as dropped; the producer
+ * and the other subscribers are not affected.
+ */
+public final class EventBus {
+
+    /** Delivers on the publishing thread, like the old listener loops. */
+    public static final Executor DIRECT = Runnable::run;
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    public enum Policy {
+        EVERY,
+        LATEST
+    }
+
+    public interface Listener<T> {
+        void onEvent(T event);
+    }
+
+    private final List<Topic<?>> topics = new ArrayList<>();
+
+    public synchronized <T> Topic<T> topic(String name, int capacity) {
+        Topic<T> topic = new Topic<>(name, capacity);
+        topics.add(topic);
+        return topic;
+    }
+
+    public synchronized List<Topic<?>> topics() {
+        return new ArrayList<>(topics);
+    }
+
+    /**
+     * One typed event stream. Capacity is rounded up to a power of two.
+     */
+    public static final class Topic<T> {
+        private final String name;
+        private final int mask;
+        private final AtomicReferenceArray<T> values;
+        // Номер события в слоте; -1 — слот переписывается прямо сейчас
+        private final AtomicLongArray slotSeq;
+        private final AtomicLong published = new AtomicLong(-1);
+        private volatile Subscription<?>[] subscribers = new Subscription<?>[0];
+
+        Topic(String name, int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+            this.name = name;
+            this.mask = size - 1;
+            this.values = new AtomicReferenceArray<>(size);
+            this.slotSeq = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                slotSeq.set(i, -1);
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long publishedCount() {
+            return published.get() + 1;
+        }
+
+        /**
+         * Any thread. Producers are serialized only for the slot write itself.
+         */
+        public void publish(T event) {
+            if (event == null) {
+                return;
+            }
+            synchronized (this) {
+                long seq = published.get() + 1;
+                int i = (int) (seq & mask);
+                slotSeq.set(i, -1);
+                values.set(i, event);
+                slotSeq.set(i, seq);
+                published.set(seq);
+            }
+            for (Subscription<?> s : subscribers) {
+                s.wake();
+            }
+        }
+
+        /**
+         * Latest published event, or null when nothing was published yet.
+         */
+        public T latest() {
+            while (true) {
+                long seq = published.get();
+                if (seq < 0) {
+                    return null;
+                }
+                T value = read(seq);
+                if (value != null || published.get() == seq) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * @param key        identity used by {@link #unsubscribe(Object)}, usually the store listener
+         * @param replayLast deliver the latest already published event first
+         */
+        public Subscription<T> subscribe(Object key, Listener<T> listener, Executor executor,
+                                         Policy policy, boolean replayLast) {
+            Subscription<T> s = new Subscription<>(this, key, listener, executor, policy);
+            synchronized (this) {
+                long seq = published.get();
+                s.next = replayLast ? Math.max(0, seq) : seq + 1;
+                Subscription<?>[] current = subscribers;
+                Subscription<?>[] next = new Subscription<?>[current.length + 1];
+                System.arraycopy(current, 0, next, 0, current.length);
+                next[current.length] = s;
+                subscribers = next;
+            }
+            if (replayLast) {
+                s.wake();
+            }
+            return s;
+        }
+
+        public boolean unsubscribe(Object key) {
+            synchronized (this) {
+                Subscription<?>[] current = subscribers;
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i].key == key) {
+                        current[i].cancelled = true;
+                        Subscription<?>[] next = new Subscription<?>[current.length - 1];
+                        System.arraycopy(current, 0, next, 0, i);
+                        System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                        subscribers = next;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public boolean isSubscribed(Object key) {
+            for (Subscription<?> s : subscribers) {
+                if (s.key == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int subscriberCount() {
+            return subscribers.length;
+        }
+
+        // null — событие seq уже переписано более новым
+        T read(long seq) {
+            int i = (int) (seq & mask);
+            long before = slotSeq.get(i);
+            T value = values.get(i);
+            long after = slotSeq.get(i);
+            return before == seq && after == seq ? value : null;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+
+    /**
+     * One subscriber's cursor into a topic.
+     */
+    public static final class Subscription<T> {
+        private final Topic<T> topic;
+        final Object key;
+        private final Listener<T> listener;
+        private final Executor executor;
+        private final Policy policy;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable drain = this::drain;
+        // Следующее недоставленное событие; трогает только drain (он не бывает параллельным)
+        private long next;
+        private volatile boolean cancelled;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong conflated = new AtomicLong();
+
+        Subscription(Topic<T> topic, Object key, Listener<T> listener, Executor executor, Policy policy) {
+            this.topic = topic;
+            this.key = key;
+            this.listener = listener;
+            this.executor = executor;
+            this.policy = policy;
+        }
+
+        public void cancel() {
+            topic.unsubscribe(key);
+        }
+
+        public long deliveredCount() {
+            return delivered.get();
+        }
+
+        /** Events skipped because this subscriber fell more than a ring behind. */
+        public long droppedCount() {
+            return dropped.get();
+        }
+
+        /** Events a {@link Policy#LATEST} subscriber never saw because a newer one superseded them. */
+        public long conflatedCount() {
+            return conflated.get();
+        }
+
+        void wake() {
+            if (!cancelled && scheduled.compareAndSet(false, true)) {
+                executor.execute(drain);
+            }
+        }
+
+        private void drain() {
+            // Пока идёт доставка, scheduled остаётся поднятым: второй drain параллельно не начнётся
+            while (true) {
+                deliverPending();
+                scheduled.set(false);
+                if (cancelled || topic.published.get() < next || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                if (executor != DIRECT) {
+                    // Пришло ещё — отдаём поток другим задачам и продолжаем следующим заходом
+                    executor.execute(drain);
+                    return;
+                }
+            }
+        }
+
+        private void deliverPending() {
+            long last = topic.published.get();
+            if (cancelled || next > last) {
+                return;
+            }
+            long from = next;
+            if (policy == Policy.LATEST) {
+                conflated.addAndGet(last - from);
+                from = last;
+            } else if (last - from >= topic.capacity()) {
+                dropped.addAndGet(last - topic.capacity() + 1 - from);
+                from = last - topic.capacity() + 1;
+            }
+            for (long seq = from; seq <= last && !cancelled; seq++) {
+                T value = topic.read(seq);
+                if (value == null) {
+                    // Отстали, пока читали: слот уже занят более новым событием
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                delivered.incrementAndGet();
+                listener.onEvent(value);
+            }
+            next = last + 1;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.androidbuttons.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets: four sub-buckets per power of two
+ * of microseconds, so any percentile is within about 20% of the true value. Recording is
+ * one atomic increment and never allocates; readers may run concurrently with writers.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // 2^37 мкс ≈ 38 часов — всё, что дольше, попадает в последнюю корзину
+    private static final int MAX_POWER = 37;
+    static final int BUCKET_COUNT = MAX_POWER * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void recordNanos(long nanos) {
+        counts.incrementAndGet(bucketFor(Math.max(0L, nanos) / 1000L));
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0..100), in microseconds,
+     * or -1 when nothing was recorded.
+     */
+    public long percentileUs(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return -1L;
+        }
+        long rank = (long) Math.ceil(Math.max(0d, Math.min(100d, percentile)) / 100d * total);
+        rank = Math.max(1L, rank);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundUs(i);
+            }
+        }
+        return upperBoundUs(BUCKET_COUNT - 1);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0L);
+        }
+    }
+
+    // 0..3 мкс — точные корзины, дальше степень двойки и два старших бита мантиссы
+    static int bucketFor(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        if (power > MAX_POWER) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) ((micros >>> (power - SUB_BITS)) & (SUB_COUNT - 1));
+        return (power - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBoundUs(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int power = bucket / SUB_COUNT + SUB_BITS - 1;
+        int sub = bucket % SUB_COUNT;
+        long base = 1L << power;
+        long step = 1L << (power - SUB_BITS);
+        return base + (sub + 1) * step - 1;
+    }
+}
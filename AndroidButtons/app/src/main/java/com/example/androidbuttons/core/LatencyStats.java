@@ -0,0 +1,108 @@
+package com.example.androidbuttons.core;
+
+import java.util.Locale;
+
+/**
+ * Stage latency histograms for both directions of the state pipeline.
+ * <p>
+ * RX: socket read → frame decoded → service thread → overlay applies the state → frame drawn.
+ * TX: touch event → selection published → service thread → frame written to the socket.
+ * Each stage is measured where both of its monotonic timestamps are known, the earlier one
+ * travelling with the event.
+ */
+public final class LatencyStats {
+
+    public static final int RX_DECODE = 0;
+    public static final int RX_DISPATCH = 1;
+    public static final int RX_APPLY = 2;
+    public static final int RX_DRAW = 3;
+    public static final int TX_INPUT = 4;
+    public static final int TX_DISPATCH = 5;
+    public static final int TX_WRITE = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] NAMES = {
+            "rx read→decode",
+            "rx decode→service",
+            "rx publish→apply",
+            "rx apply→frame",
+            "tx touch→select",
+            "tx select→service",
+            "tx queue→written",
+    };
+
+    // Имена для экспорта (метки Prometheus)
+    private static final String[] KEYS = {
+            "rx_decode",
+            "rx_dispatch",
+            "rx_apply",
+            "rx_draw",
+            "tx_input",
+            "tx_dispatch",
+            "tx_write",
+    };
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_COUNT];
+
+    public LatencyStats() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public static String stageName(int stage) {
+        return stage >= 0 && stage < STAGE_COUNT ? NAMES[stage] : "?";
+    }
+
+    /** snake_case stage name for exporters. */
+    public static String stageKey(int stage) {
+        return stage >= 0 && stage < STAGE_COUNT ? KEYS[stage] : "unknown";
+    }
+
+    public void record(int stage, long nanos) {
+        if (stage >= 0 && stage < STAGE_COUNT) {
+            stages[stage].recordNanos(nanos);
+        }
+    }
+
+    /**
+     * Records {@code System.nanoTime() - startNanos}; a non-positive start means "not stamped".
+     */
+    public void recordSince(int stage, long startNanos) {
+        if (startNanos > 0) {
+            record(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    public LatencyHistogram stage(int stage) {
+        return stages[stage];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : stages) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Fixed-width table with count and p50/p95/p99 per stage, in milliseconds.
+     */
+    public String formatTable() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-18s %6s %7s %7s %7s", "", "n", "p50", "p95", "p99"));
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram h = stages[i];
+            sb.append('\n').append(String.format(Locale.US, "%-18s %6d %7s %7s %7s",
+                    NAMES[i], h.count(),
+                    formatUs(h.percentileUs(50)), formatUs(h.percentileUs(95)), formatUs(h.percentileUs(99))));
+        }
+        return sb.toString();
+    }
+
+    private static String formatUs(long us) {
+        if (us < 0) {
+            return "—";
+        }
+        return String.format(Locale.US, "%.1f", us / 1000d);
+    }
+}
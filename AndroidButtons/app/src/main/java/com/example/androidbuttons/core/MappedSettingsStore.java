@@ -0,0 +1,698 @@
+package com.example.androidbuttons.core;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+/**
+ * Small settings store backed by a fixed-layout memory-mapped file.
+ * <p>
+ * The file is a versioned header followed by one record per key. Each record has two slots
+ * (sequence, length, CRC32, payload); a write fills the older slot and bumps its sequence,
+ * so a torn write fails its checksum and the previous value stays in effect. Writing a key
+ * touches only that key's record. Values are decoded once at open and served from memory,
+ * so a read is a couple of field loads.
+ * <p>
+ * The layout is fixed by the owner. The file ends with a directory of its keys (name,
+ * type, capacity, offset), so when the owner adds, drops or reorders keys the values of
+ * the keys that kept their name and type are carried over by name, together with the
+ * migrated flag. Only on the first run (or an unreadable file) does the store start empty,
+ * and then {@link #needsMigration()} reports true until the owner imports its old
+ * SharedPreferences and calls {@link #markMigrated()}.
+ */
+public final class MappedSettingsStore {
+
+    private static final String TAG = "MappedSettingsStore";
+
+    private static final int MAGIC = 0x41425331; // "ABS1"
+    private static final int FORMAT_VERSION = 2;
+    // Версия 1: те же записи, но без каталога ключей в конце файла
+    private static final int FORMAT_VERSION_NO_DIRECTORY = 1;
+    private static final int MAX_FILE_BYTES = 1 << 20;
+    private static final int HEADER_SIZE = 32;
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_LAYOUT = 8;
+    private static final int OFF_COUNT = 12;
+    private static final int OFF_FLAGS = 16;
+    private static final int OFF_HEADER_CRC = 20;
+    private static final int OFF_DIRECTORY = 24;
+    private static final int FLAG_MIGRATED = 1;
+
+    // Слот: seq (8) + длина (4) + CRC (4) + данные
+    private static final int SLOT_HEADER = 16;
+    private static final int NULL_LENGTH = -1;
+
+    static final int TYPE_INT = 0;
+    static final int TYPE_LONG = 1;
+    static final int TYPE_FLOAT = 2;
+    static final int TYPE_BOOLEAN = 3;
+    static final int TYPE_STRING = 4;
+
+    private final Layout layout;
+    private final ByteBuffer buffer;
+    private final AtomicLongArray numbers;
+    private final AtomicReferenceArray<String> strings;
+    private final long[] sequences;
+    private final int[] activeSlots;
+    private final byte[] scratch;
+    private final CRC32 crc = new CRC32();
+    private volatile boolean migrated;
+
+    private MappedSettingsStore(Layout layout, ByteBuffer buffer, boolean fresh, int flags) {
+        this.layout = layout;
+        this.buffer = buffer;
+        int count = layout.keys.size();
+        numbers = new AtomicLongArray(count);
+        strings = new AtomicReferenceArray<>(count);
+        sequences = new long[count];
+        activeSlots = new int[count];
+        int maxSlot = 0;
+        for (Key key : layout.keys) {
+            maxSlot = Math.max(maxSlot, SLOT_HEADER + key.capacity);
+        }
+        scratch = new byte[maxSlot];
+        if (fresh) {
+            buffer.position(layout.recordsEnd());
+            buffer.put(layout.directory());
+            writeHeader(flags);
+            migrated = (flags & FLAG_MIGRATED) != 0;
+        } else {
+            migrated = (buffer.getInt(OFF_FLAGS) & FLAG_MIGRATED) != 0;
+        }
+        for (Key key : layout.keys) {
+            load(key);
+        }
+    }
+
+    /**
+     * Maps {@code file}, creating it, or rewriting it when it was written with another
+     * layout: values of keys that kept their name and type are carried over.
+     * If the file cannot be mapped the store keeps working from heap memory (nothing is
+     * persisted, and migration is requested again on the next start).
+     */
+    public static MappedSettingsStore open(@NonNull File file, @NonNull Layout layout) {
+        int size = layout.fileSize();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            ByteBuffer old = null;
+            if (length >= HEADER_SIZE && length <= MAX_FILE_BYTES) {
+                byte[] bytes = new byte[(int) length];
+                raf.readFully(bytes);
+                old = ByteBuffer.wrap(bytes);
+            }
+            if (old != null && length == size && headerMatches(old, layout)) {
+                // Отображение живёт и после закрытия канала
+                MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                return new MappedSettingsStore(layout, mapped, false, 0);
+            }
+            List<Key> oldKeys = old != null ? readKeys(old, layout) : null;
+            if (old != null && oldKeys == null) {
+                Log.w(TAG, file + " is unreadable, starting empty");
+            }
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int flags = oldKeys != null ? old.getInt(OFF_FLAGS) & FLAG_MIGRATED : 0;
+            MappedSettingsStore store = new MappedSettingsStore(layout, mapped, true, flags);
+            if (oldKeys != null) {
+                store.carryOver(old, oldKeys);
+                store.force();
+            }
+            return store;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to map " + file + ", settings will not persist", e);
+            return inMemory(layout);
+        }
+    }
+
+    /** Store with the same layout in heap memory, for tests and as a fallback. */
+    public static MappedSettingsStore inMemory(@NonNull Layout layout) {
+        return new MappedSettingsStore(layout, ByteBuffer.allocate(layout.fileSize()), true, 0);
+    }
+
+    public boolean needsMigration() {
+        return !migrated;
+    }
+
+    /**
+     * Copies every key of the layout that {@code prefs} contains. Keys already written to
+     * the store are left alone.
+     */
+    public void importFrom(@Nullable SharedPreferences prefs) {
+        if (prefs == null) {
+            return;
+        }
+        for (Key key : layout.keys) {
+            if (contains(key) || !prefs.contains(key.name)) {
+                continue;
+            }
+            try {
+                switch (key.type) {
+                    case TYPE_INT: putInt(key, prefs.getInt(key.name, 0)); break;
+                    case TYPE_LONG: putLong(key, prefs.getLong(key.name, 0L)); break;
+                    case TYPE_FLOAT: putFloat(key, prefs.getFloat(key.name, 0f)); break;
+                    case TYPE_BOOLEAN: putBoolean(key, prefs.getBoolean(key.name, false)); break;
+                    default: putString(key, prefs.getString(key.name, null)); break;
+                }
+            } catch (ClassCastException e) {
+                Log.w(TAG, "Skipping " + key.name + " during migration", e);
+            }
+        }
+    }
+
+    /**
+     * Empties the SharedPreferences the store was migrated from, so that nothing can import
+     * their stale values again. Does nothing until {@link #markMigrated()}.
+     */
+    public void retireLegacy(@Nullable SharedPreferences prefs) {
+        if (prefs == null || !migrated || prefs.getAll().isEmpty()) {
+            return;
+        }
+        prefs.edit().clear().apply();
+    }
+
+    public synchronized void markMigrated() {
+        if (!migrated) {
+            writeHeader(FLAG_MIGRATED);
+            migrated = true;
+            force();
+        }
+    }
+
+    /** True once the key has been written (including an explicit null string). */
+    public boolean contains(Key key) {
+        synchronized (this) {
+            return activeSlots[key.index] >= 0;
+        }
+    }
+
+    public int getInt(Key key) {
+        return (int) numbers.get(key.index);
+    }
+
+    public long getLong(Key key) {
+        return numbers.get(key.index);
+    }
+
+    public float getFloat(Key key) {
+        return Float.intBitsToFloat((int) numbers.get(key.index));
+    }
+
+    public boolean getBoolean(Key key) {
+        return numbers.get(key.index) != 0L;
+    }
+
+    @Nullable
+    public String getString(Key key) {
+        return strings.get(key.index);
+    }
+
+    public void putInt(Key key, int value) {
+        putNumber(key, value);
+    }
+
+    public void putLong(Key key, long value) {
+        putNumber(key, value);
+    }
+
+    public void putFloat(Key key, float value) {
+        putNumber(key, Float.floatToIntBits(value));
+    }
+
+    public void putBoolean(Key key, boolean value) {
+        putNumber(key, value ? 1L : 0L);
+    }
+
+    /**
+     * @return false when the UTF-8 form does not fit the key's capacity (nothing is written)
+     */
+    public synchronized boolean putString(Key key, @Nullable String value) {
+        String current = strings.get(key.index);
+        if (activeSlots[key.index] >= 0 && (value == null ? current == null : value.equals(current))) {
+            return true;
+        }
+        if (value == null) {
+            writeSlot(key, NULL_LENGTH);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > key.capacity) {
+                Log.w(TAG, key.name + " exceeds " + key.capacity + " bytes, not saved");
+                return false;
+            }
+            System.arraycopy(bytes, 0, scratch, SLOT_HEADER, bytes.length);
+            writeSlot(key, bytes.length);
+        }
+        strings.set(key.index, value);
+        return true;
+    }
+
+    /**
+     * Starts a multi-key change; nothing is written until {@link Batch#commit()}.
+     */
+    public Batch edit() {
+        return new Batch();
+    }
+
+    /**
+     * Flushes dirty pages to storage. Pages reach the kernel on every write anyway and
+     * survive a process kill; this guards against power loss and may block, so call it
+     * off the main thread.
+     */
+    public void force() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    private synchronized void putNumber(Key key, long bits) {
+        if (activeSlots[key.index] >= 0 && numbers.get(key.index) == bits) {
+            return;
+        }
+        long tmp = bits;
+        for (int i = 7; i >= 0; i--) {
+            scratch[SLOT_HEADER + i] = (byte) tmp;
+            tmp >>>= 8;
+        }
+        writeSlot(key, 8);
+        numbers.set(key.index, bits);
+    }
+
+    // Данные уже лежат в scratch после заголовка слота; пишем в неактивный слот целиком
+    private void writeSlot(Key key, int length) {
+        int i = key.index;
+        int target = activeSlots[i] == 0 ? 1 : 0;
+        long seq = sequences[i] + 1;
+        int payload = Math.max(0, length);
+        putLongBE(scratch, 0, seq);
+        putIntBE(scratch, 8, length);
+        crc.reset();
+        crc.update(scratch, 0, 12);
+        crc.update(scratch, SLOT_HEADER, payload);
+        putIntBE(scratch, 12, (int) crc.getValue());
+        buffer.position(key.slotOffset(target));
+        buffer.put(scratch, 0, SLOT_HEADER + payload);
+        sequences[i] = seq;
+        activeSlots[i] = target;
+    }
+
+    private void load(Key key) {
+        int best = bestSlot(buffer, key, scratch, crc);
+        activeSlots[key.index] = best;
+        if (best < 0) {
+            sequences[key.index] = 0;
+            numbers.set(key.index, key.defaultBits);
+            strings.set(key.index, key.defaultString);
+            return;
+        }
+        sequences[key.index] = buffer.getLong(key.slotOffset(best));
+        if (key.type == TYPE_STRING) {
+            strings.set(key.index, readString(buffer, key, best));
+        } else {
+            numbers.set(key.index, buffer.getLong(key.slotOffset(best) + SLOT_HEADER));
+        }
+    }
+
+    // Записи старой раскладки переносятся по имени; смена типа или не влезающая строка — сброс ключа
+    private void carryOver(ByteBuffer old, List<Key> oldKeys) {
+        int maxSlot = 0;
+        for (Key key : oldKeys) {
+            maxSlot = Math.max(maxSlot, SLOT_HEADER + key.capacity);
+        }
+        byte[] oldScratch = new byte[maxSlot];
+        for (Key oldKey : oldKeys) {
+            Key key = layout.find(oldKey.name);
+            if (key == null || key.type != oldKey.type) {
+                continue;
+            }
+            int slot = bestSlot(old, oldKey, oldScratch, crc);
+            if (slot < 0) {
+                continue;
+            }
+            if (key.type == TYPE_STRING) {
+                putString(key, readString(old, oldKey, slot));
+            } else {
+                putNumber(key, old.getLong(oldKey.slotOffset(slot) + SLOT_HEADER));
+            }
+        }
+    }
+
+    // Слот с наибольшей последовательностью и верной CRC; -1, если ни одного целого нет
+    private static int bestSlot(ByteBuffer buffer, Key key, byte[] scratch, CRC32 crc) {
+        int best = -1;
+        long bestSeq = 0;
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = key.slotOffset(slot);
+            long seq = buffer.getLong(offset);
+            int length = buffer.getInt(offset + 8);
+            if (seq <= 0 || length < NULL_LENGTH || length > key.capacity) {
+                continue;
+            }
+            int payload = Math.max(0, length);
+            buffer.position(offset);
+            buffer.get(scratch, 0, SLOT_HEADER + payload);
+            crc.reset();
+            crc.update(scratch, 0, 12);
+            crc.update(scratch, SLOT_HEADER, payload);
+            if ((int) crc.getValue() != buffer.getInt(offset + 12)) {
+                continue;
+            }
+            if (seq > bestSeq) {
+                bestSeq = seq;
+                best = slot;
+            }
+        }
+        return best;
+    }
+
+    private static String readString(ByteBuffer buffer, Key key, int slot) {
+        int offset = key.slotOffset(slot);
+        int length = buffer.getInt(offset + 8);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.position(offset + SLOT_HEADER);
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeHeader(int flags) {
+        buffer.putInt(OFF_MAGIC, MAGIC);
+        buffer.putInt(OFF_VERSION, FORMAT_VERSION);
+        buffer.putInt(OFF_LAYOUT, layout.hash());
+        buffer.putInt(OFF_COUNT, layout.keys.size());
+        buffer.putInt(OFF_FLAGS, flags);
+        buffer.putInt(OFF_DIRECTORY, layout.recordsEnd());
+        buffer.putInt(OFF_HEADER_CRC, headerCrc(buffer, FORMAT_VERSION));
+    }
+
+    private static boolean headerMatches(ByteBuffer buffer, Layout layout) {
+        return buffer.getInt(OFF_MAGIC) == MAGIC
+                && buffer.getInt(OFF_VERSION) == FORMAT_VERSION
+                && buffer.getInt(OFF_LAYOUT) == layout.hash()
+                && buffer.getInt(OFF_COUNT) == layout.keys.size()
+                && buffer.getInt(OFF_HEADER_CRC) == headerCrc(buffer, FORMAT_VERSION);
+    }
+
+    /**
+     * Keys of the layout the file was written with, or null when they cannot be recovered.
+     * A version 1 file has no directory; it is readable only with the layout it was made for.
+     */
+    @Nullable
+    private static List<Key> readKeys(ByteBuffer old, Layout layout) {
+        if (old.getInt(OFF_MAGIC) != MAGIC) {
+            return null;
+        }
+        int version = old.getInt(OFF_VERSION);
+        if (old.getInt(OFF_HEADER_CRC) != headerCrc(old, version)) {
+            return null;
+        }
+        if (version == FORMAT_VERSION_NO_DIRECTORY) {
+            boolean sameLayout = old.getInt(OFF_LAYOUT) == layout.hash()
+                    && old.getInt(OFF_COUNT) == layout.keys.size()
+                    && old.limit() == layout.recordsEnd();
+            return sameLayout ? layout.keys : null;
+        }
+        if (version != FORMAT_VERSION) {
+            return null;
+        }
+        return Layout.readDirectory(old, old.getInt(OFF_DIRECTORY), old.getInt(OFF_COUNT));
+    }
+
+    // Версия 2 покрывает и смещение каталога
+    private static int headerCrc(ByteBuffer buffer, int version) {
+        byte[] header = new byte[HEADER_SIZE];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = buffer.get(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 0, OFF_HEADER_CRC);
+        if (version >= FORMAT_VERSION) {
+            crc.update(header, OFF_DIRECTORY, 4);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void putLongBE(byte[] out, int off, long value) {
+        for (int i = 7; i >= 0; i--) {
+            out[off + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void putIntBE(byte[] out, int off, int value) {
+        out[off] = (byte) (value >>> 24);
+        out[off + 1] = (byte) (value >>> 16);
+        out[off + 2] = (byte) (value >>> 8);
+        out[off + 3] = (byte) value;
+    }
+
+    /**
+     * Values for several keys written as one change: all of them or none (when a string does
+     * not fit), under the store monitor, so readers holding it never see half of the change.
+     * Each record is still updated on its own; follow with {@link #force()} to put the whole
+     * change on storage in one flush.
+     */
+    public final class Batch {
+        private final List<Key> keys = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        public Batch putInt(Key key, int value) {
+            return add(key, (long) value);
+        }
+
+        public Batch putLong(Key key, long value) {
+            return add(key, value);
+        }
+
+        public Batch putFloat(Key key, float value) {
+            return add(key, (long) Float.floatToIntBits(value));
+        }
+
+        public Batch putBoolean(Key key, boolean value) {
+            return add(key, value ? 1L : 0L);
+        }
+
+        public Batch putString(Key key, @Nullable String value) {
+            return add(key, value);
+        }
+
+        /**
+         * @return false when a string does not fit its key (nothing is written)
+         */
+        public boolean commit() {
+            synchronized (MappedSettingsStore.this) {
+                // Сначала проверяем всё: отказ по одной строке не должен оставить часть записей
+                for (int i = 0; i < keys.size(); i++) {
+                    Key key = keys.get(i);
+                    Object value = values.get(i);
+                    if (key.type == TYPE_STRING && value != null
+                            && ((String) value).getBytes(StandardCharsets.UTF_8).length > key.capacity) {
+                        Log.w(TAG, key.name + " exceeds " + key.capacity + " bytes, batch not saved");
+                        return false;
+                    }
+                }
+                for (int i = 0; i < keys.size(); i++) {
+                    Key key = keys.get(i);
+                    if (key.type == TYPE_STRING) {
+                        MappedSettingsStore.this.putString(key, (String) values.get(i));
+                    } else {
+                        MappedSettingsStore.this.putNumber(key, (Long) values.get(i));
+                    }
+                }
+                return true;
+            }
+        }
+
+        private Batch add(Key key, Object value) {
+            keys.add(key);
+            values.add(value);
+            return this;
+        }
+    }
+
+    /**
+     * Ordered key declarations. Offsets follow declaration order, so any change to the list
+     * produces a different layout hash and a fresh file.
+     */
+    public static final class Layout {
+        private final List<Key> keys = new ArrayList<>();
+        private int nextOffset = HEADER_SIZE;
+
+        public Key intKey(String name, int defaultValue) {
+            return add(name, TYPE_INT, 8, defaultValue, null);
+        }
+
+        public Key longKey(String name, long defaultValue) {
+            return add(name, TYPE_LONG, 8, defaultValue, null);
+        }
+
+        public Key floatKey(String name, float defaultValue) {
+            return add(name, TYPE_FLOAT, 8, Float.floatToIntBits(defaultValue), null);
+        }
+
+        public Key booleanKey(String name, boolean defaultValue) {
+            return add(name, TYPE_BOOLEAN, 8, defaultValue ? 1L : 0L, null);
+        }
+
+        /**
+         * @param maxBytes capacity of the UTF-8 encoded value
+         */
+        public Key stringKey(String name, int maxBytes, @Nullable String defaultValue) {
+            return add(name, TYPE_STRING, Math.max(8, maxBytes), 0L, defaultValue);
+        }
+
+        private Key add(String name, int type, int capacity, long defaultBits, String defaultString) {
+            // Слоты выровнены по 8 байт
+            int slotSize = (SLOT_HEADER + capacity + 7) & ~7;
+            Key key = new Key(name, type, keys.size(), capacity, nextOffset, slotSize, defaultBits, defaultString);
+            keys.add(key);
+            nextOffset += 2 * slotSize;
+            return key;
+        }
+
+        int fileSize() {
+            return nextOffset + directory().length;
+        }
+
+        int recordsEnd() {
+            return nextOffset;
+        }
+
+        @Nullable
+        Key find(String name) {
+            for (Key key : keys) {
+                if (key.name.equals(name)) {
+                    return key;
+                }
+            }
+            return null;
+        }
+
+        // Каталог: длина, записи (имя, тип, ёмкость, смещение, размер слота), CRC записей
+        byte[] directory() {
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(entries)) {
+                for (Key key : keys) {
+                    out.writeUTF(key.name);
+                    out.writeByte(key.type);
+                    out.writeInt(key.capacity);
+                    out.writeInt(key.offset);
+                    out.writeInt(key.slotSize);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] body = entries.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            ByteBuffer directory = ByteBuffer.allocate(4 + body.length + 4);
+            directory.putInt(body.length).put(body).putInt((int) crc.getValue());
+            return directory.array();
+        }
+
+        @Nullable
+        static List<Key> readDirectory(ByteBuffer buffer, int offset, int count) {
+            if (offset < HEADER_SIZE || offset > buffer.limit() - 8) {
+                return null;
+            }
+            int length = buffer.getInt(offset);
+            if (length < 0 || length > buffer.limit() - offset - 8) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            buffer.position(offset + 4);
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4 + length)) {
+                return null;
+            }
+            List<Key> keys = new ArrayList<>();
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    int type = in.readByte();
+                    int capacity = in.readInt();
+                    int keyOffset = in.readInt();
+                    int slotSize = in.readInt();
+                    if (keyOffset < HEADER_SIZE || slotSize < SLOT_HEADER + capacity
+                            || capacity < 0 || keyOffset + 2L * slotSize > offset) {
+                        return null;
+                    }
+                    keys.add(new Key(name, type, i, capacity, keyOffset, slotSize, 0L, null));
+                }
+            } catch (IOException e) {
+                return null;
+            }
+            return keys;
+        }
+
+        int hash() {
+            int h = 17;
+            for (Key key : keys) {
+                h = 31 * h + key.name.hashCode();
+                h = 31 * h + key.type;
+                h = 31 * h + key.capacity;
+            }
+            return h;
+        }
+    }
+
+    /**
+     * Handle of one declared key; keep it in a field and pass it to the getters and setters.
+     */
+    public static final class Key {
+        final String name;
+        final int type;
+        final int index;
+        final int capacity;
+        final int offset;
+        final int slotSize;
+        final long defaultBits;
+        final String defaultString;
+
+        Key(String name, int type, int index, int capacity, int offset, int slotSize,
+            long defaultBits, String defaultString) {
+            this.name = name;
+            this.type = type;
+            this.index = index;
+            this.capacity = capacity;
+            this.offset = offset;
+            this.slotSize = slotSize;
+            this.defaultBits = defaultBits;
+            this.defaultString = defaultString;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        int slotOffset(int slot) {
+            return offset + slot * slotSize;
+        }
+    }
+}
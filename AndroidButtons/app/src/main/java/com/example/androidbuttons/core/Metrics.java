@@ -0,0 +1,277 @@
+package com.example.androidbuttons.core;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide registry of named counters, gauges and timers.
+ * <p>
+ * Metrics are looked up once (at setup) and the returned handles are kept in fields;
+ * recording through a handle is a single atomic operation and never allocates. Sampled
+ * metrics read an existing value (a parser counter, a queue depth) only when a snapshot
+ * is taken. Names are snake_case so they can be exported as-is.
+ */
+public final class Metrics {
+
+    /** Value read at snapshot time. */
+    public interface Source {
+        long get();
+    }
+
+    /** Receives every metric of a snapshot, sorted by name. */
+    public interface Visitor {
+        void onCounter(String name, long value);
+
+        void onGauge(String name, long value);
+
+        void onTimer(String name, Timer timer);
+    }
+
+    private final Map<String, Object> entries = new TreeMap<>();
+
+    /**
+     * Counter with the given name, created on first use.
+     */
+    public synchronized Counter counter(String name) {
+        Object existing = entries.get(name);
+        if (existing instanceof Counter) {
+            return (Counter) existing;
+        }
+        Counter counter = new Counter();
+        entries.put(name, counter);
+        return counter;
+    }
+
+    /**
+     * Monotonic count kept elsewhere; replaces an earlier registration with the same name.
+     */
+    public synchronized void counter(String name, Source source) {
+        entries.put(name, new Sampled(source, true));
+    }
+
+    public synchronized Gauge gauge(String name) {
+        Object existing = entries.get(name);
+        if (existing instanceof Gauge) {
+            return (Gauge) existing;
+        }
+        Gauge gauge = new Gauge();
+        entries.put(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Gauge read from {@code source}; replaces an earlier registration with the same name.
+     */
+    public synchronized void gauge(String name, Source source) {
+        entries.put(name, new Sampled(source, false));
+    }
+
+    public synchronized Timer timer(String name) {
+        Object existing = entries.get(name);
+        if (existing instanceof Timer) {
+            return (Timer) existing;
+        }
+        Timer timer = new Timer();
+        entries.put(name, timer);
+        return timer;
+    }
+
+    /**
+     * Drops a metric, e.g. a sampled one whose owner is shutting down.
+     */
+    public synchronized void remove(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * Current value of a counter or gauge, or {@code missing} when no such metric exists.
+     */
+    public long read(String name, long missing) {
+        Object value;
+        synchronized (this) {
+            value = entries.get(name);
+        }
+        if (value instanceof Counter) {
+            return ((Counter) value).get();
+        } else if (value instanceof Gauge) {
+            return ((Gauge) value).get();
+        } else if (value instanceof Sampled) {
+            return ((Sampled) value).read();
+        }
+        return missing;
+    }
+
+    public void visit(Visitor visitor) {
+        List<String> names;
+        List<Object> values;
+        synchronized (this) {
+            names = new ArrayList<>(entries.keySet());
+            values = new ArrayList<>(entries.values());
+        }
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            Object value = values.get(i);
+            if (value instanceof Counter) {
+                visitor.onCounter(name, ((Counter) value).get());
+            } else if (value instanceof Gauge) {
+                visitor.onGauge(name, ((Gauge) value).get());
+            } else if (value instanceof Timer) {
+                visitor.onTimer(name, (Timer) value);
+            } else if (value instanceof Sampled) {
+                Sampled sampled = (Sampled) value;
+                long current = sampled.read();
+                if (sampled.monotonic) {
+                    visitor.onCounter(name, current);
+                } else {
+                    visitor.onGauge(name, current);
+                }
+            }
+        }
+    }
+
+    /**
+     * Plain-text snapshot, one metric per line, for {@code dumpsys}.
+     */
+    public void dump(final PrintWriter writer, final String prefix) {
+        visit(new Visitor() {
+            @Override
+            public void onCounter(String name, long value) {
+                writer.print(prefix);
+                writer.print(name);
+                writer.print(' ');
+                writer.println(value);
+            }
+
+            @Override
+            public void onGauge(String name, long value) {
+                onCounter(name, value);
+            }
+
+            @Override
+            public void onTimer(String name, Timer timer) {
+                writer.println(String.format(Locale.US, "%s%s count=%d avg=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                        prefix, name, timer.count(), timer.averageNanos() / 1e6,
+                        Math.max(0L, timer.percentileUs(50)) / 1e3, Math.max(0L, timer.percentileUs(95)) / 1e3,
+                        Math.max(0L, timer.percentileUs(99)) / 1e3, timer.maxNanos() / 1e6));
+            }
+        });
+    }
+
+    /**
+     * Counter striped over padded cells so that threads incrementing at once do not fight
+     * over one cache line (LongAdder is not available before API 24).
+     */
+    public static final class Counter {
+        private static final int STRIPES = 8;
+        // 8 long = 64 байта: у каждой полосы своя кэш-линия
+        private static final int PAD = 8;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+        Counter() {
+        }
+
+        public void increment() {
+            add(1L);
+        }
+
+        public void add(long delta) {
+            int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            cells.getAndAdd(stripe * PAD, delta);
+        }
+
+        public long get() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PAD);
+            }
+            return sum;
+        }
+    }
+
+    public static final class Gauge {
+        private volatile long value;
+
+        Gauge() {
+        }
+
+        public void set(long value) {
+            this.value = value;
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    /**
+     * Duration distribution: count, total, max and a {@link LatencyHistogram}.
+     */
+    public static final class Timer {
+        private final Counter count = new Counter();
+        private final Counter totalNanos = new Counter();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        Timer() {
+        }
+
+        public void recordNanos(long nanos) {
+            long value = Math.max(0L, nanos);
+            count.increment();
+            totalNanos.add(value);
+            histogram.recordNanos(value);
+            long max;
+            do {
+                max = maxNanos.get();
+                if (value <= max) break;
+            } while (!maxNanos.compareAndSet(max, value));
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        public long totalNanos() {
+            return totalNanos.get();
+        }
+
+        public long averageNanos() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / n;
+        }
+
+        public long maxNanos() {
+            return maxNanos.get();
+        }
+
+        /** See {@link LatencyHistogram#percentileUs(double)}. */
+        public long percentileUs(double percentile) {
+            return histogram.percentileUs(percentile);
+        }
+    }
+
+    private static final class Sampled {
+        final Source source;
+        final boolean monotonic;
+
+        Sampled(Source source, boolean monotonic) {
+            this.source = source;
+            this.monotonic = monotonic;
+        }
+
+        long read() {
+            try {
+                return source.get();
+            } catch (RuntimeException e) {
+                return -1L;
+            }
+        }
+    }
+}
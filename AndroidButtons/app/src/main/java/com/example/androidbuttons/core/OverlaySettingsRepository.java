@@ -6,14 +6,22 @@ import android.content.SharedPreferences;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Persists and broadcasts overlay positioning, scaling and edit-mode flags.
+ * <p>
+ * Reads come from an in-memory snapshot swapped atomically on every change, so {@link #get()}
+ * is a single field load. Changes reach a {@link MappedSettingsStore} through a write-behind
+ * that collapses bursts into one write and sync on a background thread. Values saved by
+ * older versions in SharedPreferences are migrated once.
  */
 public final class OverlaySettingsRepository {
 
     public static final String PREFS_NAME = "overlay_settings";
+    private static final String STORE_FILE = "overlay_settings.bin";
 
     private static final String KEY_X = "overlay_x";
     private static final String KEY_Y = "overlay_y";
@@ -21,92 +29,178 @@ public final class OverlaySettingsRepository {
     private static final String KEY_EDIT_MODE = "overlay_edit_mode";
     private static final String LEGACY_KEY_ALLOW_EDIT = "overlay_allow_edit";
 
-    private final SharedPreferences prefs;
-    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final long PERSIST_DELAY_MS = 500L;
+
+    private static final MappedSettingsStore.Layout LAYOUT = new MappedSettingsStore.Layout();
+    private static final MappedSettingsStore.Key X = LAYOUT.intKey(KEY_X, -10);
+    private static final MappedSettingsStore.Key Y = LAYOUT.intKey(KEY_Y, 0);
+    private static final MappedSettingsStore.Key SCALE = LAYOUT.floatKey(KEY_SCALE, 1.0f);
+    private static final MappedSettingsStore.Key EDIT_MODE = LAYOUT.booleanKey(KEY_EDIT_MODE, false);
+
+    private final MappedSettingsStore store;
+    private final EventBus.Topic<OverlaySettings> topic;
+    private final AtomicReference<OverlaySettings> snapshot;
+    private final WriteBehind<OverlaySettings> persister;
 
     OverlaySettingsRepository(Context context) {
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this(context, new EventBus());
+    }
+
+    OverlaySettingsRepository(Context context, EventBus bus) {
+        this(openStore(context), bus);
+    }
+
+    /**
+     * Repository over an already opened store, e.g. {@link MappedSettingsStore#inMemory}.
+     */
+    public OverlaySettingsRepository(@NonNull MappedSettingsStore store, @NonNull EventBus bus) {
+        this.store = store;
+        topic = bus.topic("overlay.settings", 16);
+        snapshot = new AtomicReference<>(load());
+        persister = new WriteBehind<>("overlay-settings-writer", PERSIST_DELAY_MS, this::persist);
+    }
+
+    /** Layout of the overlay settings file. */
+    public static MappedSettingsStore.Layout layout() {
+        return LAYOUT;
     }
 
     public OverlaySettings get() {
-        int x = prefs.getInt(KEY_X, -10);
-        int y = prefs.getInt(KEY_Y, 0);
-        float scale = prefs.getFloat(KEY_SCALE, 1.0f);
-        boolean editModeEnabled = resolveEditModeDefault();
-        return new OverlaySettings(x, y, scale, editModeEnabled);
+        return snapshot.get();
     }
 
     public void update(@NonNull OverlaySettings settings) {
-        OverlaySettings current = get();
-        if (current.equals(settings)) {
-            return;
-        }
-        prefs.edit()
-                .putInt(KEY_X, settings.x)
-                .putInt(KEY_Y, settings.y)
-                .putFloat(KEY_SCALE, settings.scale)
-                .putBoolean(KEY_EDIT_MODE, settings.editModeEnabled)
-                .remove(LEGACY_KEY_ALLOW_EDIT)
-                .apply();
-        notifyListeners(settings);
+        OverlaySettings current;
+        do {
+            current = snapshot.get();
+            if (current.equals(settings)) {
+                return;
+            }
+        } while (!snapshot.compareAndSet(current, settings));
+        commit(settings);
     }
 
     public void setEditModeEnabled(boolean enabled) {
-        boolean current = resolveEditModeDefault();
-        if (current == enabled) {
-            return;
-        }
-        prefs.edit()
-                .putBoolean(KEY_EDIT_MODE, enabled)
-                .remove(LEGACY_KEY_ALLOW_EDIT)
-                .apply();
-        notifyListeners(get());
+        OverlaySettings current;
+        OverlaySettings next;
+        do {
+            current = snapshot.get();
+            if (current.editModeEnabled == enabled) {
+                return;
+            }
+            next = current.withEditMode(enabled);
+        } while (!snapshot.compareAndSet(current, next));
+        commit(next);
     }
 
     public void setPosition(int x, int y) {
-        OverlaySettings settings = get();
-        if (settings.x == x && settings.y == y) {
-            return;
-        }
-        prefs.edit()
-                .putInt(KEY_X, x)
-                .putInt(KEY_Y, y)
-                .apply();
-        notifyListeners(get());
+        OverlaySettings current;
+        OverlaySettings next;
+        do {
+            current = snapshot.get();
+            if (current.x == x && current.y == y) {
+                return;
+            }
+            next = current.withPosition(x, y);
+        } while (!snapshot.compareAndSet(current, next));
+        commit(next);
     }
 
     public void setScale(float scale) {
-        float clamped = Math.max(0.1f, Math.min(5f, scale));
-        if (Float.compare(clamped, prefs.getFloat(KEY_SCALE, 1.0f)) == 0) {
-            return;
-        }
-        prefs.edit().putFloat(KEY_SCALE, clamped).apply();
-        notifyListeners(get());
+        OverlaySettings current;
+        OverlaySettings next;
+        do {
+            current = snapshot.get();
+            next = current.withScale(scale);
+            if (Float.compare(next.scale, current.scale) == 0) {
+                return;
+            }
+        } while (!snapshot.compareAndSet(current, next));
+        commit(next);
+    }
+
+    /**
+     * Position and scale as one change: a finished gesture is committed, persisted and
+     * broadcast once, however many frames it took.
+     */
+    public void setGeometry(int x, int y, float scale) {
+        OverlaySettings current;
+        OverlaySettings next;
+        do {
+            current = snapshot.get();
+            next = current.withPosition(x, y).withScale(scale);
+            if (next.equals(current)) {
+                return;
+            }
+        } while (!snapshot.compareAndSet(current, next));
+        commit(next);
     }
 
-    private boolean resolveEditModeDefault() {
-        if (prefs.contains(KEY_EDIT_MODE)) {
-            return prefs.getBoolean(KEY_EDIT_MODE, false);
+    /**
+     * Writes a pending change to storage now and waits for it.
+     */
+    public void flush() {
+        persister.flush();
+    }
+
+    private void commit(OverlaySettings settings) {
+        persister.submit(settings);
+        notifyListeners(settings);
+    }
+
+    // Поток записи: меняются только отличающиеся ключи, затем сброс страниц на диск
+    private void persist(OverlaySettings settings) {
+        store.putInt(X, settings.x);
+        store.putInt(Y, settings.y);
+        store.putFloat(SCALE, settings.scale);
+        store.putBoolean(EDIT_MODE, settings.editModeEnabled);
+        store.force();
+    }
+
+    private OverlaySettings load() {
+        return new OverlaySettings(store.getInt(X), store.getInt(Y), store.getFloat(SCALE), store.getBoolean(EDIT_MODE));
+    }
+
+    private static MappedSettingsStore openStore(Context context) {
+        MappedSettingsStore store = MappedSettingsStore.open(new File(context.getFilesDir(), STORE_FILE), LAYOUT);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (store.needsMigration()) {
+            migrate(store, prefs);
         }
-        if (prefs.contains(LEGACY_KEY_ALLOW_EDIT)) {
-            return prefs.getBoolean(LEGACY_KEY_ALLOW_EDIT, false);
+        // Перенесённые значения больше не источник: повторный импорт вернул бы старую геометрию
+        store.retireLegacy(prefs);
+        return store;
+    }
+
+    // Однократный перенос из SharedPreferences; старый флаг разрешения правки учитываем,
+    // только если нового ключа ещё не было
+    private static void migrate(MappedSettingsStore store, SharedPreferences prefs) {
+        if (prefs != null) {
+            store.importFrom(prefs);
+            if (!store.contains(EDIT_MODE) && prefs.contains(LEGACY_KEY_ALLOW_EDIT)) {
+                store.putBoolean(EDIT_MODE, prefs.getBoolean(LEGACY_KEY_ALLOW_EDIT, false));
+            }
         }
-        return false;
+        store.markMigrated();
     }
 
     public void addListener(@NonNull Listener listener) {
-        listeners.addIfAbsent(listener);
+        addListener(listener, EventBus.DIRECT, EventBus.Policy.EVERY);
+    }
+
+    public void addListener(@NonNull Listener listener, @NonNull Executor executor, @NonNull EventBus.Policy policy) {
+        if (!topic.isSubscribed(listener)) {
+            topic.subscribe(listener, listener::onOverlaySettingsChanged, executor, policy, false);
+        }
     }
 
     @MainThread
     public void removeListener(@NonNull Listener listener) {
-        listeners.remove(listener);
+        topic.unsubscribe(listener);
     }
 
     private void notifyListeners(OverlaySettings settings) {
-        for (Listener listener : listeners) {
-            listener.onOverlaySettingsChanged(settings);
-        }
+        topic.publish(settings);
     }
 
     public interface Listener {
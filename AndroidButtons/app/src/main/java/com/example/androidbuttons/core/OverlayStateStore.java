@@ -1,67 +1,300 @@
 package com.example.androidbuttons.core;
 
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Replacement for the old StateBus: keeps overlay state and notifies listeners.
+ * Replacement for the old StateBus: keeps the last known state of every locomotive and
+ * notifies listeners about the selected one.
+ * <p>
+ * All locos live in one immutable {@link Snapshot} that writers replace with a CAS, so a
+ * reader always sees a consistent set of states, versions and timestamps without locking.
+ * Switching the selected loco republishes its cached state immediately, unless the cached
+ * state is older than the freshness limit: then it is forgotten and the loco shows as unknown
+ * until the controller reports again.
+ * Listeners are bus subscribers; each chooses its delivery thread and conflation policy.
  */
 public final class OverlayStateStore {
 
-    private final AtomicInteger currentState = new AtomicInteger(0);
-    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
-    private final CopyOnWriteArrayList<SelectionListener> selectionListeners = new CopyOnWriteArrayList<>();
+    /** Two heartbeat windows of a live link: a report older than this may no longer hold. */
+    public static final long DEFAULT_MAX_CACHE_AGE_MS = 10_000L;
 
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<>(Snapshot.initial(ProtocolConstraints.LOCO_MIN));
+    private final EventBus.Topic<Stamped> stateTopic;
+    private final EventBus.Topic<Stamped> selectionTopic;
+    private volatile long maxCacheAgeMs = DEFAULT_MAX_CACHE_AGE_MS;
+
+    public OverlayStateStore() {
+        this(new EventBus());
+    }
+
+    public OverlayStateStore(EventBus bus) {
+        stateTopic = bus.topic("overlay.state", 16);
+        selectionTopic = bus.topic("overlay.selection", EventBus.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Cached states older than this are not shown when their loco gets selected.
+     */
+    public void setMaxCacheAgeMs(long maxCacheAgeMs) {
+        this.maxCacheAgeMs = Math.max(0L, maxCacheAgeMs);
+    }
+
+    /**
+     * State of the selected loco, or 0 when it is not known yet.
+     */
     public int getCurrentState() {
-        return currentState.get();
+        return snapshot.get().selectedState();
     }
 
+    public int getSelectedLoco() {
+        return snapshot.get().selectedLoco();
+    }
+
+    /**
+     * Consistent view of all locos at one moment.
+     */
+    public Snapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Sets the state of the selected loco; a non-positive value forgets it.
+     */
     public void publish(int state) {
-        if (state <= 0) {
-            currentState.set(0);
+        publish(getSelectedLoco(), state);
+    }
+
+    /**
+     * Records the state of any loco. Listeners hear about it only if that loco is selected.
+     */
+    public void publish(int loco, int state) {
+        if (!ProtocolConstraints.isValidLoco(loco)) {
             return;
         }
-        int normalized = ProtocolConstraints.clampState(state);
-        currentState.set(normalized);
-        for (Listener listener : listeners) {
-            listener.onOverlayStateChanged(normalized);
+        int normalized = state <= 0 ? 0 : ProtocolConstraints.clampState(state);
+        long now = nowMs();
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            next = current.withState(loco, normalized, now);
+        } while (!snapshot.compareAndSet(current, next));
+        if (normalized > 0 && next.selectedLoco() == loco) {
+            stateTopic.publish(new Stamped(normalized, System.nanoTime()));
         }
     }
 
+    /**
+     * Makes {@code loco} the selected one and pushes its cached state to listeners. When
+     * nothing fresh is cached (a stale state is forgotten) listeners get 0, "unknown", so the
+     * previous loco's state is not left on screen under the new one.
+     *
+     * @return the cached state, or 0 when nothing fresh was received for that loco
+     */
+    public int select(int loco) {
+        if (!ProtocolConstraints.isValidLoco(loco)) {
+            return 0;
+        }
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            if (current.selectedLoco() == loco) {
+                return current.selectedState();
+            }
+            next = current.withSelected(loco);
+            long updatedAt = next.updatedAtMs(loco);
+            if (updatedAt >= 0 && nowMs() - updatedAt > maxCacheAgeMs) {
+                // Устаревший кэш выдал бы давний отчёт за текущее состояние
+                next = next.withState(loco, 0, nowMs());
+            }
+        } while (!snapshot.compareAndSet(current, next));
+        int cached = next.selectedState();
+        stateTopic.publish(new Stamped(cached, System.nanoTime()));
+        return cached;
+    }
+
+    /**
+     * Puts back the states, timestamps and selection of an earlier {@link #snapshot()}, e.g.
+     * after a history replay borrowed the store. Versions keep growing, and listeners hear the
+     * restored state of the selected loco.
+     */
+    public void restore(Snapshot saved) {
+        if (saved == null) {
+            return;
+        }
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            next = current.restoredFrom(saved);
+        } while (!snapshot.compareAndSet(current, next));
+        stateTopic.publish(new Stamped(next.selectedState(), System.nanoTime()));
+    }
+
     public void publishSelection(int state) {
         if (!ProtocolConstraints.isValidState(state)) {
             return;
         }
-        for (SelectionListener listener : selectionListeners) {
-            listener.onOverlayStateSelected(state);
-        }
+        selectionTopic.publish(new Stamped(state, System.nanoTime()));
     }
 
+    /**
+     * Synchronous delivery of every state on the publishing thread.
+     */
     public void addListener(Listener listener) {
-        listeners.addIfAbsent(listener);
-        int state = currentState.get();
-        if (state > 0) {
-            listener.onOverlayStateChanged(state);
+        addListener(listener, EventBus.DIRECT, EventBus.Policy.EVERY);
+    }
+
+    /**
+     * @return the new subscription (for its delivery counters), or null if already subscribed
+     */
+    public EventBus.Subscription<?> addListener(Listener listener, Executor executor, EventBus.Policy policy) {
+        if (stateTopic.isSubscribed(listener)) {
+            return null;
         }
+        // Текущее состояние новый слушатель получает сразу (если оно уже есть) — с прежней меткой
+        return stateTopic.subscribe(listener,
+                published -> listener.onOverlayStateChanged(published.state, published.atNanos),
+                executor, policy, getCurrentState() > 0);
     }
 
     public void removeListener(Listener listener) {
-        listeners.remove(listener);
+        stateTopic.unsubscribe(listener);
     }
 
     public void addSelectionListener(SelectionListener listener) {
-        selectionListeners.addIfAbsent(listener);
+        addSelectionListener(listener, EventBus.DIRECT, EventBus.Policy.EVERY);
+    }
+
+    public void addSelectionListener(SelectionListener listener, Executor executor, EventBus.Policy policy) {
+        if (selectionTopic.isSubscribed(listener)) {
+            return;
+        }
+        selectionTopic.subscribe(listener,
+                selection -> listener.onOverlayStateSelected(selection.state, selection.atNanos),
+                executor, policy, false);
     }
 
     public void removeSelectionListener(SelectionListener listener) {
-        selectionListeners.remove(listener);
+        selectionTopic.unsubscribe(listener);
+    }
+
+    // Монотонные миллисекунды; только для сравнения меток между собой
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    /**
+     * Immutable state of all locos. Each slot packs state (low byte) and version (the rest)
+     * into one long; timestamps are monotonic milliseconds, -1 while the loco is unknown.
+     */
+    public static final class Snapshot {
+        private static final int STATE_BITS = 8;
+        private static final long STATE_MASK = (1L << STATE_BITS) - 1;
+
+        private final int selectedLoco;
+        private final long[] packed;
+        private final long[] updatedAtMs;
+
+        private Snapshot(int selectedLoco, long[] packed, long[] updatedAtMs) {
+            this.selectedLoco = selectedLoco;
+            this.packed = packed;
+            this.updatedAtMs = updatedAtMs;
+        }
+
+        static Snapshot initial(int selectedLoco) {
+            long[] times = new long[ProtocolConstraints.LOCOMOTIVE_COUNT];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = -1L;
+            }
+            return new Snapshot(selectedLoco, new long[ProtocolConstraints.LOCOMOTIVE_COUNT], times);
+        }
+
+        Snapshot withState(int loco, int state, long nowMs) {
+            int i = ProtocolConstraints.locoIndex(loco);
+            long[] nextPacked = packed.clone();
+            long[] nextTimes = updatedAtMs.clone();
+            nextPacked[i] = ((packed[i] >>> STATE_BITS) + 1) << STATE_BITS | state;
+            nextTimes[i] = state > 0 ? nowMs : -1L;
+            return new Snapshot(selectedLoco, nextPacked, nextTimes);
+        }
+
+        Snapshot withSelected(int loco) {
+            return new Snapshot(loco, packed, updatedAtMs);
+        }
+
+        Snapshot restoredFrom(Snapshot saved) {
+            long[] nextPacked = packed.clone();
+            long[] nextTimes = updatedAtMs.clone();
+            for (int i = 0; i < nextPacked.length; i++) {
+                long state = saved.packed[i] & STATE_MASK;
+                if ((packed[i] & STATE_MASK) != state) {
+                    nextPacked[i] = ((packed[i] >>> STATE_BITS) + 1) << STATE_BITS | state;
+                }
+                nextTimes[i] = saved.updatedAtMs[i];
+            }
+            return new Snapshot(saved.selectedLoco, nextPacked, nextTimes);
+        }
+
+        public int selectedLoco() {
+            return selectedLoco;
+        }
+
+        public int selectedState() {
+            return state(selectedLoco);
+        }
+
+        /** Last state of the loco, or 0 when unknown. */
+        public int state(int loco) {
+            return ProtocolConstraints.isValidLoco(loco)
+                    ? (int) (packed[ProtocolConstraints.locoIndex(loco)] & STATE_MASK) : 0;
+        }
+
+        /** Number of updates recorded for the loco; grows by one with every publish. */
+        public long version(int loco) {
+            return ProtocolConstraints.isValidLoco(loco)
+                    ? packed[ProtocolConstraints.locoIndex(loco)] >>> STATE_BITS : 0L;
+        }
+
+        public long updatedAtMs(int loco) {
+            return ProtocolConstraints.isValidLoco(loco)
+                    ? updatedAtMs[ProtocolConstraints.locoIndex(loco)] : -1L;
+        }
+
+        /** Milliseconds since the loco was last updated, or -1 when unknown. */
+        public long ageMs(int loco) {
+            long at = updatedAtMs(loco);
+            return at < 0 ? -1L : Math.max(0L, nowMs() - at);
+        }
     }
 
     public interface Listener {
-        void onOverlayStateChanged(int state);
+        /**
+         * @param state            state of the selected loco, or 0 when it is unknown (just
+         *                         selected, nothing fresh cached)
+         * @param publishedAtNanos {@link System#nanoTime()} when the state was published; a
+         *                         replayed delivery to a new listener keeps the original stamp
+         */
+        void onOverlayStateChanged(int state, long publishedAtNanos);
     }
 
     public interface SelectionListener {
-        void onOverlayStateSelected(int state);
+        /**
+         * @param selectedAtNanos {@link System#nanoTime()} when the user picked the state
+         */
+        void onOverlayStateSelected(int state, long selectedAtNanos);
+    }
+
+    private static final class Stamped {
+        final int state;
+        final long atNanos;
+
+        Stamped(int state, long atNanos) {
+            this.state = state;
+            this.atNanos = atNanos;
+        }
     }
 }
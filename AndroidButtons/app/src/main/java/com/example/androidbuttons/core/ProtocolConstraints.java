@@ -9,6 +9,8 @@ public final class ProtocolConstraints {
     public static final int LOCO_MAX = 8;
     public static final int STATE_MIN = 1;
     public static final int STATE_MAX = 5;
+    /** Red: the state an all-stop sends to every loco. */
+    public static final int STATE_STOP = 4;
 
     public static final int LOCOMOTIVE_COUNT = LOCO_MAX - LOCO_MIN + 1;
 
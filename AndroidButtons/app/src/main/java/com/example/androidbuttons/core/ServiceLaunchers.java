@@ -17,8 +17,15 @@ public final class ServiceLaunchers {
     }
 
     public static void ensureTcpServiceRunning(Context context) {
+        sendToTcpService(context, new Intent());
+    }
+
+    /**
+     * Delivers {@code command} (action and extras) to TcpService, starting it if needed.
+     */
+    public static void sendToTcpService(Context context, Intent command) {
         Context app = context.getApplicationContext();
-        Intent intent = new Intent(app, TcpService.class);
+        Intent intent = new Intent(command).setClass(app, TcpService.class);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             ContextCompat.startForegroundService(app, intent);
         } else {
@@ -0,0 +1,231 @@
+package com.example.androidbuttons.core;
+
+/**
+ * Records every overlay state transition (wall-clock time, loco, state, source) in parallel
+ * primitive rings, so incidents can be inspected after the fact without per-event objects.
+ * <p>
+ * A recorded range can be replayed into an {@link OverlayStateStore} at real or accelerated
+ * speed. The replay borrows the store: the caller snapshots it first, keeps live states away
+ * from it while the replay runs, and restores it from the completion callback.
+ */
+public final class StateHistory {
+
+    public static final int SOURCE_REMOTE = 0;
+    public static final int SOURCE_LOCAL = 1;
+    /** Cached state shown from the store snapshot when the selected loco changed. */
+    public static final int SOURCE_SNAPSHOT = 2;
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final long[] timestamps;
+    private final byte[] locos;
+    private final byte[] states;
+    private final byte[] sources;
+    private int head;
+    private int size;
+    private volatile Replay activeReplay;
+
+    public StateHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StateHistory(int capacity) {
+        int safe = Math.max(1, capacity);
+        timestamps = new long[safe];
+        locos = new byte[safe];
+        states = new byte[safe];
+        sources = new byte[safe];
+    }
+
+    public static String sourceName(int source) {
+        switch (source) {
+            case SOURCE_REMOTE: return "remote";
+            case SOURCE_LOCAL: return "local";
+            case SOURCE_SNAPSHOT: return "snapshot";
+            default: return "?";
+        }
+    }
+
+    /**
+     * Appends one transition; invalid loco or state is ignored.
+     */
+    public synchronized void record(long timestampMs, int loco, int state, int source) {
+        if (!ProtocolConstraints.isValidLoco(loco) || !ProtocolConstraints.isValidState(state)) {
+            return;
+        }
+        timestamps[head] = timestampMs;
+        locos[head] = (byte) loco;
+        states[head] = (byte) state;
+        sources[head] = (byte) source;
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies transitions with {@code fromMs <= timestamp <= toMs}, oldest first, into the
+     * caller's arrays and returns how many were written (bounded by the shortest array).
+     */
+    public synchronized int query(long fromMs, long toMs, long[] outTimestamps, int[] outLocos,
+                                  int[] outStates, int[] outSources) {
+        if (outTimestamps == null || outLocos == null || outStates == null || outSources == null) {
+            return 0;
+        }
+        int limit = Math.min(Math.min(outTimestamps.length, outLocos.length),
+                Math.min(outStates.length, outSources.length));
+        int capacity = timestamps.length;
+        int oldest = (head - size + capacity) % capacity;
+        int written = 0;
+        for (int n = 0; n < size && written < limit; n++) {
+            int idx = (oldest + n) % capacity;
+            long ts = timestamps[idx];
+            if (ts < fromMs || ts > toMs) {
+                continue;
+            }
+            outTimestamps[written] = ts;
+            outLocos[written] = locos[idx];
+            outStates[written] = states[idx];
+            outSources[written] = sources[idx];
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Last state recorded for {@code loco} at or before {@code timeMs}, or 0 when unknown.
+     */
+    public synchronized int stateAt(int loco, long timeMs) {
+        int capacity = timestamps.length;
+        for (int n = 0; n < size; n++) {
+            int idx = (head - 1 - n + capacity) % capacity;
+            if (locos[idx] == loco && timestamps[idx] <= timeMs) {
+                return states[idx];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Feeds the recorded range back into {@code target} on a background thread, keeping the
+     * original gaps divided by {@code speed} (1 = real time). A running replay is cancelled.
+     * {@code onFinished} (may be null) runs on the replay thread once the replay has played
+     * out or was cancelled; the target is left as the replay made it.
+     */
+    public Replay replay(long fromMs, long toMs, OverlayStateStore target, float speed,
+                         Runnable onFinished) {
+        int count;
+        long[] ts;
+        int[] lo;
+        int[] st;
+        int[] src;
+        synchronized (this) {
+            ts = new long[size];
+            lo = new int[size];
+            st = new int[size];
+            src = new int[size];
+            count = query(fromMs, toMs, ts, lo, st, src);
+        }
+        Replay previous = activeReplay;
+        if (previous != null) {
+            previous.cancel();
+        }
+        Replay replay = new Replay(target, speed > 0f ? speed : 1f, count, ts, lo, st, src, onFinished);
+        activeReplay = replay;
+        replay.thread.start();
+        return replay;
+    }
+
+    /**
+     * One running replay.
+     */
+    public static final class Replay {
+        private final OverlayStateStore target;
+        private final float speed;
+        private final int count;
+        private final long[] timestamps;
+        private final int[] locos;
+        private final int[] states;
+        private final int[] sources;
+        private final Runnable onFinished;
+        private final Thread thread;
+        private volatile int played;
+        private volatile boolean done;
+
+        Replay(OverlayStateStore target, float speed, int count, long[] timestamps, int[] locos,
+               int[] states, int[] sources, Runnable onFinished) {
+            this.target = target;
+            this.speed = speed;
+            this.count = count;
+            this.timestamps = timestamps;
+            this.locos = locos;
+            this.states = states;
+            this.sources = sources;
+            this.onFinished = onFinished;
+            this.thread = new Thread(this::run, "state-replay");
+            this.thread.setDaemon(true);
+        }
+
+        public int eventCount() {
+            return count;
+        }
+
+        public int playedCount() {
+            return played;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public void cancel() {
+            thread.interrupt();
+        }
+
+        public void await() throws InterruptedException {
+            thread.join();
+        }
+
+        private void run() {
+            long startNs = System.nanoTime();
+            try {
+                for (int i = 0; i < count; i++) {
+                    long dueNs = startNs + (long) ((timestamps[i] - timestamps[0]) * 1_000_000d / speed);
+                    long waitMs = (dueNs - System.nanoTime()) / 1_000_000L;
+                    if (waitMs > 0) {
+                        Thread.sleep(waitMs);
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    // Срез при смене локомотива воспроизводим как смену выбранного
+                    if (sources[i] == SOURCE_SNAPSHOT) {
+                        target.select(locos[i]);
+                    }
+                    target.publish(locos[i], states[i]);
+                    played = i + 1;
+                }
+            } catch (InterruptedException ignored) {
+                // Отмена
+            } finally {
+                done = true;
+                if (onFinished != null) {
+                    onFinished.run();
+                }
+            }
+        }
+    }
+}
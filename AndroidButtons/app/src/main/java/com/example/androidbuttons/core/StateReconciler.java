@@ -0,0 +1,252 @@
+package com.example.androidbuttons.core;
+
+/**
+ * Tracks the state this client last commanded against the state the controller reports,
+ * per locomotive, and resends only commands that were never confirmed.
+ * <p>
+ * A command stays pending until a matching report arrives. Pending commands are resent after
+ * the grace period, with per-loco backoff and a global retry budget. Reported state is kept
+ * apart from the local command: once a command is confirmed, the controller is the authority
+ * again, and later reports (e.g. another client's stop) are never fought. After a reconnect
+ * only commands that are still unconfirmed get a fresh grace period to be checked against new
+ * reports before anything is resent; locos this client never commanded are never resent.
+ * A command left unconfirmed for longer than the pending limit is given up: by then the
+ * operator may have been overruled from elsewhere, and a late resend would undo that.
+ * Callers register only commands that were actually queued for sending.
+ * <p>
+ * Not thread-safe: call from a single thread. All times are monotonic milliseconds.
+ */
+public final class StateReconciler {
+
+    public static final long DEFAULT_GRACE_MS = 1_500L;
+    public static final long DEFAULT_MAX_PENDING_MS = 15_000L;
+
+    private static final int RETRY_BURST = 4;
+    private static final long RETRY_REFILL_MS = 500L;
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    public interface Resender {
+        void resend(int loco, int state, int attempt);
+    }
+
+    private final Resender resender;
+    private final int count = ProtocolConstraints.LOCOMOTIVE_COUNT;
+
+    private final int[] desiredState = new int[count];
+    private final long[] desiredVersion = new long[count];
+    private final int[] reportedState = new int[count];
+    private final long[] reportedAt = new long[count];
+    private final long[] reportVersion = new long[count];
+    private final boolean[] pending = new boolean[count];
+    private final long[] pendingSince = new long[count];
+    private final long[] commandedAt = new long[count];
+    private final long[] dueAt = new long[count];
+    private final int[] attempts = new int[count];
+
+    private long graceMs;
+    private long maxPendingMs = DEFAULT_MAX_PENDING_MS;
+    private int retryTokens = RETRY_BURST;
+    private long lastRefillAt = Long.MIN_VALUE;
+    private long resendCount;
+    private long expiredCount;
+
+    public StateReconciler(Resender resender) {
+        this(resender, DEFAULT_GRACE_MS);
+    }
+
+    public StateReconciler(Resender resender, long graceMs) {
+        this.resender = resender;
+        this.graceMs = Math.max(0L, graceMs);
+    }
+
+    public void setGraceMs(long graceMs) {
+        this.graceMs = Math.max(0L, graceMs);
+    }
+
+    /**
+     * How long a command may stay unconfirmed before it is given up.
+     */
+    public void setMaxPendingMs(long maxPendingMs) {
+        this.maxPendingMs = Math.max(0L, maxPendingMs);
+    }
+
+    /**
+     * Operator command for {@code loco} that was queued for sending.
+     */
+    public void onCommand(int loco, int state, long now) {
+        if (!ProtocolConstraints.isValidLoco(loco) || !ProtocolConstraints.isValidState(state)) {
+            return;
+        }
+        int i = ProtocolConstraints.locoIndex(loco);
+        desiredState[i] = state;
+        desiredVersion[i]++;
+        commandedAt[i] = now;
+        attempts[i] = 0;
+        if (reportedState[i] == state && reportedAt[i] != 0L) {
+            // Контроллер уже в этом состоянии — подтверждать нечего
+            pending[i] = false;
+            return;
+        }
+        if (!pending[i]) {
+            pendingSince[i] = now;
+        }
+        pending[i] = true;
+        dueAt[i] = now + graceMs;
+    }
+
+    /**
+     * State report (periodic report, snapshot or echo) received from the controller.
+     */
+    public void onReport(int loco, int state, long now) {
+        if (!ProtocolConstraints.isValidLoco(loco) || !ProtocolConstraints.isValidState(state)) {
+            return;
+        }
+        int i = ProtocolConstraints.locoIndex(loco);
+        reportedState[i] = state;
+        reportedAt[i] = now;
+        reportVersion[i]++;
+        // Несовпадение у ожидающей команды может быть отчётом, отправленным до её прихода:
+        // ждём окончания grace-периода. Без ожидающей команды отчёт только запоминается
+        if (pending[i] && state == desiredState[i]) {
+            pending[i] = false;
+            attempts[i] = 0;
+        }
+    }
+
+    /**
+     * Link was re-established: unconfirmed commands get a fresh grace period so that reports
+     * from the new connection can confirm them before anything is resent.
+     */
+    public void onReconnect(long now) {
+        for (int i = 0; i < count; i++) {
+            if (!pending[i] || expire(i, now)) {
+                continue;
+            }
+            attempts[i] = 0;
+            dueAt[i] = now + graceMs;
+        }
+    }
+
+    /**
+     * Resends overdue unconfirmed commands within the retry budget.
+     *
+     * @return number of commands resent by this call
+     */
+    public int tick(long now) {
+        refill(now);
+        int sent = 0;
+        for (int i = 0; i < count; i++) {
+            if (!pending[i] || expire(i, now) || now < dueAt[i]) {
+                continue;
+            }
+            if (retryTokens <= 0) {
+                break;
+            }
+            retryTokens--;
+            attempts[i]++;
+            int shift = Math.min(MAX_BACKOFF_SHIFT, attempts[i]);
+            dueAt[i] = now + (graceMs << shift);
+            resendCount++;
+            sent++;
+            resender.resend(ProtocolConstraints.locoFromIndex(i), desiredState[i], attempts[i]);
+        }
+        return sent;
+    }
+
+    /**
+     * Locos whose last command is not confirmed and whose last report shows another state
+     * (or that have not reported since).
+     */
+    public int divergedCount() {
+        int diverged = 0;
+        for (int i = 0; i < count; i++) {
+            if (pending[i] && reportedState[i] != desiredState[i]) {
+                diverged++;
+            }
+        }
+        return diverged;
+    }
+
+    /**
+     * Age of the oldest unconfirmed command, or 0 when everything is in sync.
+     */
+    public long oldestDivergenceAgeMs(long now) {
+        long oldest = 0L;
+        for (int i = 0; i < count; i++) {
+            if (pending[i]) {
+                oldest = Math.max(oldest, now - pendingSince[i]);
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Bit {@code locoIndex(loco)} set for every loco with an unconfirmed command.
+     */
+    public int pendingLocoMask() {
+        int mask = 0;
+        for (int i = 0; i < count; i++) {
+            if (pending[i]) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    public boolean isPending(int loco) {
+        return ProtocolConstraints.isValidLoco(loco) && pending[ProtocolConstraints.locoIndex(loco)];
+    }
+
+    /**
+     * Last state commanded by this client, confirmed or not; 0 if it never commanded {@code loco}.
+     */
+    public int desiredState(int loco) {
+        return ProtocolConstraints.isValidLoco(loco) ? desiredState[ProtocolConstraints.locoIndex(loco)] : 0;
+    }
+
+    public long desiredVersion(int loco) {
+        return ProtocolConstraints.isValidLoco(loco) ? desiredVersion[ProtocolConstraints.locoIndex(loco)] : 0L;
+    }
+
+    public int reportedState(int loco) {
+        return ProtocolConstraints.isValidLoco(loco) ? reportedState[ProtocolConstraints.locoIndex(loco)] : 0;
+    }
+
+    public long reportVersion(int loco) {
+        return ProtocolConstraints.isValidLoco(loco) ? reportVersion[ProtocolConstraints.locoIndex(loco)] : 0L;
+    }
+
+    public long resendCount() {
+        return resendCount;
+    }
+
+    /** Commands given up without confirmation. */
+    public long expiredCount() {
+        return expiredCount;
+    }
+
+    private boolean expire(int i, long now) {
+        // Срок считается от последней команды: новое нажатие продлевает ожидание
+        if (now - commandedAt[i] < maxPendingMs) {
+            return false;
+        }
+        pending[i] = false;
+        attempts[i] = 0;
+        expiredCount++;
+        return true;
+    }
+
+    private void refill(long now) {
+        if (lastRefillAt == Long.MIN_VALUE) {
+            lastRefillAt = now;
+            return;
+        }
+        long elapsed = now - lastRefillAt;
+        if (elapsed < RETRY_REFILL_MS) {
+            return;
+        }
+        long tokens = elapsed / RETRY_REFILL_MS;
+        retryTokens = (int) Math.min(RETRY_BURST, retryTokens + tokens);
+        lastRefillAt += tokens * RETRY_REFILL_MS;
+    }
+}
@@ -5,7 +5,11 @@ import android.content.SharedPreferences;
 
 import androidx.annotation.NonNull;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import static com.example.androidbuttons.AppState.DEFAULT_TCP_HOST;
 import static com.example.androidbuttons.AppState.DEFAULT_TCP_PORT;
@@ -14,64 +18,371 @@ import static com.example.androidbuttons.AppState.KEY_TCP_PORT;
 import static com.example.androidbuttons.core.ProtocolConstraints.clampLoco;
 
 /**
- * Stores TCP host/port and currently selected locomotive number.
+ * Stores TCP host/port, currently selected locomotive number, the list of known
+ * controller profiles (most-recently-used first) and which commands use the priority TX lane.
+ * <p>
+ * Values live in a {@link MappedSettingsStore}; each change writes only the keys it
+ * touches, as one batch, and is flushed to storage in the background. SharedPreferences
+ * from older versions are migrated once.
  */
 public final class TcpConfigRepository {
 
     private static final String PREFS_NAME = "tcp_config";
+    private static final String STORE_FILE = "tcp_config.bin";
     private static final String KEY_LOCO = "tcp_loco";
+    private static final String KEY_PROFILES = "tcp_profiles";
+    private static final String KEY_ACTIVE_PROFILE = "tcp_active_profile";
+    private static final String KEY_STANDBY_COUNT = "tcp_standby_count";
+    private static final String KEY_STATUS_SERVER = "tcp_status_server";
+    private static final String KEY_PRIORITY_STATES = "tcp_priority_states";
+    private static final String KEY_PRIORITY_LOCOS = "tcp_priority_locos";
 
     private static final int DEFAULT_LOCO = ProtocolConstraints.LOCO_MIN;
+    private static final int MAX_PROFILES = 16;
+    public static final int MAX_STANDBY_LINKS = 3;
+    /** Red (stop) state goes ahead of everything else; bit N is state N. */
+    public static final int DEFAULT_PRIORITY_STATES = 1 << ProtocolConstraints.STATE_STOP;
 
-    private final SharedPreferences prefs;
-    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static final int MAX_HOST_BYTES = 256;
+    private static final int MAX_NAME_BYTES = 256;
+    private static final int MAX_PROFILES_BYTES = 4096;
+    private static final long FORCE_DELAY_MS = 500L;
+
+    private static final MappedSettingsStore.Layout LAYOUT = new MappedSettingsStore.Layout();
+    private static final MappedSettingsStore.Key HOST = LAYOUT.stringKey(KEY_TCP_HOST, MAX_HOST_BYTES, DEFAULT_TCP_HOST);
+    private static final MappedSettingsStore.Key PORT = LAYOUT.intKey(KEY_TCP_PORT, DEFAULT_TCP_PORT);
+    private static final MappedSettingsStore.Key LOCO = LAYOUT.intKey(KEY_LOCO, DEFAULT_LOCO);
+    private static final MappedSettingsStore.Key PROFILES = LAYOUT.stringKey(KEY_PROFILES, MAX_PROFILES_BYTES, null);
+    private static final MappedSettingsStore.Key ACTIVE_PROFILE = LAYOUT.stringKey(KEY_ACTIVE_PROFILE, MAX_NAME_BYTES, null);
+    private static final MappedSettingsStore.Key STANDBY_COUNT = LAYOUT.intKey(KEY_STANDBY_COUNT, 0);
+    private static final MappedSettingsStore.Key STATUS_SERVER = LAYOUT.booleanKey(KEY_STATUS_SERVER, false);
+    private static final MappedSettingsStore.Key PRIORITY_STATES = LAYOUT.intKey(KEY_PRIORITY_STATES, DEFAULT_PRIORITY_STATES);
+    private static final MappedSettingsStore.Key PRIORITY_LOCOS = LAYOUT.intKey(KEY_PRIORITY_LOCOS, 0);
+
+    private final MappedSettingsStore store;
+    private final EventBus.Topic<TcpConfig> topic;
+    private final WriteBehind<Boolean> flusher;
 
     TcpConfigRepository(Context context) {
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this(context, new EventBus());
+    }
+
+    TcpConfigRepository(Context context, EventBus bus) {
+        this(openStore(context), bus);
+    }
+
+    /**
+     * Repository over an already opened store, e.g. {@link MappedSettingsStore#inMemory}.
+     */
+    public TcpConfigRepository(@NonNull MappedSettingsStore store, @NonNull EventBus bus) {
+        this.store = store;
+        topic = bus.topic("tcp.config", 16);
+        // Правки приходят из UI-потока: сброс страниц на диск — в фоне, серия правок — одним сбросом
+        flusher = new WriteBehind<>("tcp-config-flusher", FORCE_DELAY_MS, ignored -> store.force());
     }
 
-    public TcpConfig get() {
-        String host = prefs.getString(KEY_TCP_HOST, DEFAULT_TCP_HOST);
-        int port = prefs.getInt(KEY_TCP_PORT, DEFAULT_TCP_PORT);
-        int loco = prefs.getInt(KEY_LOCO, DEFAULT_LOCO);
-        return new TcpConfig(host, port, loco);
+    /** Layout of the TCP config file. */
+    public static MappedSettingsStore.Layout layout() {
+        return LAYOUT;
     }
 
-    public void updateHostAndPort(@NonNull String host, int port) {
+    private static MappedSettingsStore openStore(Context context) {
+        MappedSettingsStore store = MappedSettingsStore.open(new File(context.getFilesDir(), STORE_FILE), LAYOUT);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (store.needsMigration()) {
+            store.importFrom(prefs);
+            store.markMigrated();
+        }
+        // Перенесённые значения больше не источник: повторный импорт вернул бы старый адрес
+        store.retireLegacy(prefs);
+        return store;
+    }
+
+    // Изменения из нескольких ключей делаются под тем же монитором, поэтому снимок согласован
+    public synchronized TcpConfig get() {
+        return new TcpConfig(store.getString(HOST), store.getInt(PORT), store.getInt(LOCO),
+                store.getString(ACTIVE_PROFILE), store.getInt(STANDBY_COUNT), store.getBoolean(STATUS_SERVER),
+                store.getInt(PRIORITY_STATES), store.getInt(PRIORITY_LOCOS));
+    }
+
+    public synchronized void updateHostAndPort(@NonNull String host, int port) {
         String normalizedHost = host == null ? DEFAULT_TCP_HOST : host.trim();
         int safePort = port < 1 || port > 65535 ? DEFAULT_TCP_PORT : port;
         TcpConfig current = get();
         if (current.host.equals(normalizedHost) && current.port == safePort) {
             return;
         }
-        prefs.edit()
-                .putString(KEY_TCP_HOST, normalizedHost)
-                .putInt(KEY_TCP_PORT, safePort)
-                .apply();
-        notifyListeners(get());
+        List<ConnectionProfile> profiles = getProfiles();
+        ConnectionProfile profile = findByEndpoint(profiles, normalizedHost, safePort);
+        if (profile == null) {
+            // Каждый новый адрес запоминаем как профиль, чтобы к нему можно было вернуться
+            profile = new ConnectionProfile(normalizedHost + ":" + safePort, normalizedHost, safePort);
+        }
+        moveToFront(profiles, profile);
+        if (!store.edit()
+                .putString(HOST, normalizedHost)
+                .putInt(PORT, safePort)
+                .putString(PROFILES, encodeProfiles(profiles))
+                .putString(ACTIVE_PROFILE, profile.name)
+                .commit()) {
+            return;
+        }
+        committed();
+    }
+
+    /**
+     * Returns saved controller profiles, most recently used first.
+     */
+    public List<ConnectionProfile> getProfiles() {
+        return decodeProfiles(store.getString(PROFILES));
+    }
+
+    /**
+     * Adds a named profile or re-points an existing one; the MRU order is kept.
+     *
+     * @return false when the name, host or port is not usable
+     */
+    public synchronized boolean saveProfile(@NonNull String name, @NonNull String host, int port) {
+        String safeName = sanitizeName(name);
+        String normalizedHost = host == null ? DEFAULT_TCP_HOST : host.trim();
+        if (safeName.isEmpty() || normalizedHost.isEmpty() || port < 1 || port > 65535) {
+            return false;
+        }
+        List<ConnectionProfile> profiles = getProfiles();
+        ConnectionProfile updated = new ConnectionProfile(safeName, normalizedHost, port);
+        int index = indexOfName(profiles, safeName);
+        if (index >= 0) {
+            if (profiles.get(index).equals(updated)) {
+                return true;
+            }
+            profiles.set(index, updated);
+        } else {
+            profiles.add(updated);
+            trimProfiles(profiles);
+        }
+        if (!store.edit().putString(PROFILES, encodeProfiles(profiles)).commit()) {
+            return false;
+        }
+        committed();
+        return true;
+    }
+
+    /**
+     * Forgets the named profile. The current host and port stay as they are.
+     *
+     * @return false when no profile with that name exists
+     */
+    public synchronized boolean removeProfile(@NonNull String name) {
+        String safeName = sanitizeName(name);
+        List<ConnectionProfile> profiles = getProfiles();
+        int index = indexOfName(profiles, safeName);
+        if (index < 0) {
+            return false;
+        }
+        profiles.remove(index);
+        MappedSettingsStore.Batch batch = store.edit().putString(PROFILES, encodeProfiles(profiles));
+        if (safeName.equals(store.getString(ACTIVE_PROFILE))) {
+            batch.putString(ACTIVE_PROFILE, null);
+        }
+        if (!batch.commit()) {
+            return false;
+        }
+        committed();
+        return true;
+    }
+
+    /**
+     * Makes the named profile the active TCP target and moves it to the head of the MRU list.
+     *
+     * @return false when no profile with that name exists
+     */
+    public synchronized boolean activateProfile(@NonNull String name) {
+        List<ConnectionProfile> profiles = getProfiles();
+        int index = indexOfName(profiles, sanitizeName(name));
+        if (index < 0) {
+            return false;
+        }
+        ConnectionProfile profile = profiles.get(index);
+        TcpConfig current = get();
+        if (index == 0 && profile.name.equals(current.activeProfile)
+                && current.host.equals(profile.host) && current.port == profile.port) {
+            return true;
+        }
+        moveToFront(profiles, profile);
+        if (!store.edit()
+                .putString(HOST, profile.host)
+                .putInt(PORT, profile.port)
+                .putString(PROFILES, encodeProfiles(profiles))
+                .putString(ACTIVE_PROFILE, profile.name)
+                .commit()) {
+            return false;
+        }
+        committed();
+        return true;
+    }
+
+    /**
+     * Sets how many recently used profiles (besides the active one) are kept connected in standby.
+     */
+    public synchronized void setStandbyCount(int count) {
+        int clamped = Math.max(0, Math.min(MAX_STANDBY_LINKS, count));
+        if (store.getInt(STANDBY_COUNT) == clamped) {
+            return;
+        }
+        store.putInt(STANDBY_COUNT, clamped);
+        committed();
+    }
+
+    /**
+     * Turns the local HTTP status endpoint (/metrics, /status) on or off; off by default.
+     */
+    public synchronized void setStatusServerEnabled(boolean enabled) {
+        if (store.getBoolean(STATUS_SERVER) == enabled) {
+            return;
+        }
+        store.putBoolean(STATUS_SERVER, enabled);
+        committed();
     }
 
-    public void setSelectedLoco(int loco) {
+    /**
+     * States whose commands skip the normal TX queue; bit N is state N.
+     */
+    public synchronized void setPriorityStates(int mask) {
+        int valid = mask & rangeMask(ProtocolConstraints.STATE_MIN, ProtocolConstraints.STATE_MAX);
+        if (store.getInt(PRIORITY_STATES) == valid) {
+            return;
+        }
+        store.putInt(PRIORITY_STATES, valid);
+        committed();
+    }
+
+    /**
+     * Locos whose commands skip the normal TX queue; bit N is loco N.
+     */
+    public synchronized void setPriorityLocos(int mask) {
+        int valid = mask & rangeMask(ProtocolConstraints.LOCO_MIN, ProtocolConstraints.LOCO_MAX);
+        if (store.getInt(PRIORITY_LOCOS) == valid) {
+            return;
+        }
+        store.putInt(PRIORITY_LOCOS, valid);
+        committed();
+    }
+
+    public synchronized void setSelectedLoco(int loco) {
         int clamped = clampLoco(loco);
-        if (prefs.getInt(KEY_LOCO, DEFAULT_LOCO) == clamped) {
+        if (store.getInt(LOCO) == clamped) {
             return;
         }
-        prefs.edit().putInt(KEY_LOCO, clamped).apply();
-        notifyListeners(get());
+        store.putInt(LOCO, clamped);
+        committed();
     }
 
     public void addListener(@NonNull Listener listener) {
-        listeners.addIfAbsent(listener);
+        addListener(listener, EventBus.DIRECT, EventBus.Policy.EVERY);
+    }
+
+    public void addListener(@NonNull Listener listener, @NonNull Executor executor, @NonNull EventBus.Policy policy) {
+        if (!topic.isSubscribed(listener)) {
+            topic.subscribe(listener, listener::onTcpConfigChanged, executor, policy, false);
+        }
     }
 
     public void removeListener(@NonNull Listener listener) {
-        listeners.remove(listener);
+        topic.unsubscribe(listener);
+    }
+
+    /**
+     * Waits until committed changes are flushed to storage, e.g. before the process may go away.
+     */
+    public void flush() {
+        flusher.flush();
+    }
+
+    // Вызывается под монитором после записи: сброс на диск в фоне, слушателям — новый снимок
+    private void committed() {
+        flusher.submit(Boolean.TRUE);
+        topic.publish(get());
+    }
+
+    private static int rangeMask(int min, int max) {
+        return ((1 << (max + 1)) - 1) & ~((1 << min) - 1);
     }
 
-    private void notifyListeners(TcpConfig config) {
-        for (Listener listener : listeners) {
-            listener.onTcpConfigChanged(config);
+    private static ConnectionProfile findByEndpoint(List<ConnectionProfile> profiles, String host, int port) {
+        for (ConnectionProfile profile : profiles) {
+            if (profile.host.equals(host) && profile.port == port) {
+                return profile;
+            }
         }
+        return null;
+    }
+
+    private static int indexOfName(List<ConnectionProfile> profiles, String name) {
+        for (int i = 0; i < profiles.size(); i++) {
+            if (profiles.get(i).name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void moveToFront(List<ConnectionProfile> profiles, ConnectionProfile profile) {
+        int index = indexOfName(profiles, profile.name);
+        if (index >= 0) {
+            profiles.remove(index);
+        }
+        profiles.add(0, profile);
+        trimProfiles(profiles);
+    }
+
+    private static void trimProfiles(List<ConnectionProfile> profiles) {
+        while (profiles.size() > MAX_PROFILES) {
+            profiles.remove(profiles.size() - 1);
+        }
+    }
+
+    private static String sanitizeName(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.replace('\t', ' ').replace('\n', ' ').trim();
+    }
+
+    // Формат: одна строка на профиль "name\thost\tport", порядок — MRU.
+    // Список не влезает в запись — отбрасываем самые давние профили
+    private static String encodeProfiles(List<ConnectionProfile> profiles) {
+        while (true) {
+            StringBuilder sb = new StringBuilder();
+            for (ConnectionProfile profile : profiles) {
+                sb.append(profile.name).append('\t')
+                        .append(profile.host).append('\t')
+                        .append(profile.port).append('\n');
+            }
+            String encoded = sb.toString();
+            if (profiles.isEmpty() || encoded.getBytes(StandardCharsets.UTF_8).length <= MAX_PROFILES_BYTES) {
+                return encoded;
+            }
+            profiles.remove(profiles.size() - 1);
+        }
+    }
+
+    private static List<ConnectionProfile> decodeProfiles(String encoded) {
+        List<ConnectionProfile> result = new ArrayList<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return result;
+        }
+        for (String line : encoded.split("\n")) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                int port = Integer.parseInt(parts[2]);
+                result.add(new ConnectionProfile(parts[0], parts[1], port));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return result;
     }
 
     public interface Listener {
@@ -82,11 +393,58 @@ public final class TcpConfigRepository {
         public final String host;
         public final int port;
         public final int selectedLoco;
+        public final String activeProfile;
+        public final int standbyCount;
+        public final boolean statusServerEnabled;
+        /** Bit N set: commands to state N / loco N use the priority TX lane. */
+        public final int priorityStates;
+        public final int priorityLocos;
 
         public TcpConfig(String host, int port, int selectedLoco) {
+            this(host, port, selectedLoco, null, 0, false, DEFAULT_PRIORITY_STATES, 0);
+        }
+
+        public TcpConfig(String host, int port, int selectedLoco, String activeProfile, int standbyCount,
+                         boolean statusServerEnabled, int priorityStates, int priorityLocos) {
             this.host = host;
             this.port = port;
             this.selectedLoco = selectedLoco;
+            this.activeProfile = activeProfile;
+            this.standbyCount = standbyCount;
+            this.statusServerEnabled = statusServerEnabled;
+            this.priorityStates = priorityStates;
+            this.priorityLocos = priorityLocos;
+        }
+    }
+
+    /**
+     * Named controller endpoint.
+     */
+    public static final class ConnectionProfile {
+        public final String name;
+        public final String host;
+        public final int port;
+
+        public ConnectionProfile(String name, String host, int port) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof ConnectionProfile)) return false;
+            ConnectionProfile other = (ConnectionProfile) obj;
+            return port == other.port && name.equals(other.name) && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = name.hashCode();
+            result = 31 * result + host.hashCode();
+            result = 31 * result + port;
+            return result;
         }
     }
 }
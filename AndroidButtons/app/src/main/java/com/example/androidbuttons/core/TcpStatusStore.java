@@ -1,33 +1,49 @@
 package com.example.androidbuttons.core;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Tracks TCP connection status flags with listeners for UI.
  */
 public final class TcpStatusStore {
 
-    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final EventBus.Topic<TcpState> topic;
     private volatile TcpState current = TcpState.DISCONNECTED;
 
+    public TcpStatusStore() {
+        this(new EventBus());
+    }
+
+    public TcpStatusStore(EventBus bus) {
+        topic = bus.topic("tcp.status", 16);
+        topic.publish(current);
+    }
+
     public TcpState get() {
         return current;
     }
 
     public void update(TcpState state) {
         current = state;
-        for (Listener listener : listeners) {
-            listener.onTcpStateChanged(state);
-        }
+        topic.publish(state);
     }
 
     public void addListener(Listener listener) {
-        listeners.addIfAbsent(listener);
-        listener.onTcpStateChanged(current);
+        addListener(listener, EventBus.DIRECT, EventBus.Policy.EVERY);
+    }
+
+    /**
+     * The current status is delivered first, then every change (or only the latest one).
+     */
+    public void addListener(Listener listener, Executor executor, EventBus.Policy policy) {
+        if (topic.isSubscribed(listener)) {
+            return;
+        }
+        topic.subscribe(listener, listener::onTcpStateChanged, executor, policy, true);
     }
 
     public void removeListener(Listener listener) {
-        listeners.remove(listener);
+        topic.unsubscribe(listener);
     }
 
     public interface Listener {
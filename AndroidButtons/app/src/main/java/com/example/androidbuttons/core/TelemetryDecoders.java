@@ -0,0 +1,108 @@
+package com.example.androidbuttons.core;
+
+/**
+ * Registry of telemetry payload decoders keyed by message type (first payload byte).
+ * Decoders write samples straight into {@link TelemetryStore} without intermediate objects.
+ * <p>
+ * Built-in types (values big-endian, after the type byte):
+ * <ul>
+ *     <li>{@code 0x10} speed, int16 in 0.1 km/h</li>
+ *     <li>{@code 0x11} voltage, uint16 in mV</li>
+ *     <li>{@code 0x12} temperature, int16 in 0.1 °C</li>
+ *     <li>{@code 0x1F} batch of {@code metric(1) | float32} pairs</li>
+ * </ul>
+ */
+public final class TelemetryDecoders {
+
+    public static final int TYPE_SPEED = 0x10;
+    public static final int TYPE_VOLTAGE = 0x11;
+    public static final int TYPE_TEMPERATURE = 0x12;
+    public static final int TYPE_BATCH = 0x1F;
+
+    private static final int TYPE_COUNT = 256;
+
+    public interface Decoder {
+        /**
+         * @param body bytes after the type byte
+         * @return false if the body is malformed
+         */
+        boolean decode(int loco, byte[] body, int off, int len, long timestampMs, TelemetryStore store);
+    }
+
+    private final TelemetryStore store;
+    private final Decoder[] decoders = new Decoder[TYPE_COUNT];
+
+    public TelemetryDecoders(TelemetryStore store) {
+        this.store = store;
+    }
+
+    public static TelemetryDecoders withDefaults(TelemetryStore store) {
+        TelemetryDecoders registry = new TelemetryDecoders(store);
+        registry.register(TYPE_SPEED, scaledInt16(TelemetryStore.METRIC_SPEED, 0.1f, true));
+        registry.register(TYPE_VOLTAGE, scaledInt16(TelemetryStore.METRIC_VOLTAGE, 0.001f, false));
+        registry.register(TYPE_TEMPERATURE, scaledInt16(TelemetryStore.METRIC_TEMPERATURE, 0.1f, true));
+        registry.register(TYPE_BATCH, TelemetryDecoders::decodeBatch);
+        return registry;
+    }
+
+    public synchronized void register(int type, Decoder decoder) {
+        if (type >= 0 && type < TYPE_COUNT) {
+            decoders[type] = decoder;
+        }
+    }
+
+    public synchronized void unregister(int type) {
+        if (type >= 0 && type < TYPE_COUNT) {
+            decoders[type] = null;
+        }
+    }
+
+    /**
+     * Decodes one non-state frame payload.
+     *
+     * @return true if a registered decoder accepted the payload
+     */
+    public boolean decode(int loco, byte[] payload, int off, int len, long timestampMs) {
+        if (payload == null || len < 1 || !ProtocolConstraints.isValidLoco(loco)) {
+            return false;
+        }
+        Decoder decoder;
+        synchronized (this) {
+            decoder = decoders[payload[off] & 0xFF];
+        }
+        return decoder != null && decoder.decode(loco, payload, off + 1, len - 1, timestampMs, store);
+    }
+
+    public TelemetryStore store() {
+        return store;
+    }
+
+    private static Decoder scaledInt16(int metric, float scale, boolean signed) {
+        return (loco, body, off, len, ts, target) -> {
+            if (len < 2) {
+                return false;
+            }
+            int raw = ((body[off] & 0xFF) << 8) | (body[off + 1] & 0xFF);
+            if (signed) {
+                raw = (short) raw;
+            }
+            target.record(loco, metric, ts, raw * scale);
+            return true;
+        };
+    }
+
+    private static boolean decodeBatch(int loco, byte[] body, int off, int len, long ts, TelemetryStore target) {
+        if (len == 0 || len % 5 != 0) {
+            return false;
+        }
+        for (int i = off; i < off + len; i += 5) {
+            int metric = body[i] & 0xFF;
+            int bits = ((body[i + 1] & 0xFF) << 24)
+                    | ((body[i + 2] & 0xFF) << 16)
+                    | ((body[i + 3] & 0xFF) << 8)
+                    | (body[i + 4] & 0xFF);
+            target.record(loco, metric, ts, Float.intBitsToFloat(bits));
+        }
+        return true;
+    }
+}
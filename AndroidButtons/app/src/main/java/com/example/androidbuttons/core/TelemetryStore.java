@@ -0,0 +1,150 @@
+package com.example.androidbuttons.core;
+
+/**
+ * Keeps recent telemetry samples per locomotive and metric in fixed-size primitive rings.
+ * Ingest does not allocate; each ring is guarded by its own monitor so the reader thread
+ * and UI queries do not contend across metrics.
+ */
+public final class TelemetryStore {
+
+    public static final int METRIC_SPEED = 0;
+    public static final int METRIC_VOLTAGE = 1;
+    public static final int METRIC_TEMPERATURE = 2;
+    public static final int METRIC_COUNT = 3;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Ring[] rings;
+
+    public TelemetryStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TelemetryStore(int capacityPerSeries) {
+        int capacity = Math.max(1, capacityPerSeries);
+        rings = new Ring[ProtocolConstraints.LOCOMOTIVE_COUNT * METRIC_COUNT];
+        for (int i = 0; i < rings.length; i++) {
+            rings[i] = new Ring(capacity);
+        }
+    }
+
+    public static boolean isValidMetric(int metric) {
+        return metric >= 0 && metric < METRIC_COUNT;
+    }
+
+    /**
+     * Stores one sample; out-of-range loco or metric is ignored.
+     */
+    public void record(int loco, int metric, long timestampMs, float value) {
+        Ring ring = ring(loco, metric);
+        if (ring != null) {
+            ring.append(timestampMs, value);
+        }
+    }
+
+    /**
+     * Latest value, or {@link Float#NaN} when the series is empty.
+     */
+    public float latestValue(int loco, int metric) {
+        Ring ring = ring(loco, metric);
+        return ring != null ? ring.latestValue() : Float.NaN;
+    }
+
+    /**
+     * Timestamp of the latest sample, or -1 when the series is empty.
+     */
+    public long latestTimestamp(int loco, int metric) {
+        Ring ring = ring(loco, metric);
+        return ring != null ? ring.latestTimestamp() : -1L;
+    }
+
+    public int size(int loco, int metric) {
+        Ring ring = ring(loco, metric);
+        return ring != null ? ring.size() : 0;
+    }
+
+    /**
+     * Copies samples with {@code fromMs <= timestamp <= toMs}, oldest first, into the
+     * caller's arrays and returns how many were written (bounded by the shorter array).
+     */
+    public int query(int loco, int metric, long fromMs, long toMs, long[] outTimestamps, float[] outValues) {
+        Ring ring = ring(loco, metric);
+        if (ring == null || outTimestamps == null || outValues == null) {
+            return 0;
+        }
+        return ring.copyRange(fromMs, toMs, outTimestamps, outValues);
+    }
+
+    public void clear() {
+        for (Ring ring : rings) {
+            ring.clear();
+        }
+    }
+
+    private Ring ring(int loco, int metric) {
+        if (!ProtocolConstraints.isValidLoco(loco) || !isValidMetric(metric)) {
+            return null;
+        }
+        return rings[ProtocolConstraints.locoIndex(loco) * METRIC_COUNT + metric];
+    }
+
+    private static final class Ring {
+        private final long[] timestamps;
+        private final float[] values;
+        private int head;
+        private int size;
+
+        Ring(int capacity) {
+            timestamps = new long[capacity];
+            values = new float[capacity];
+        }
+
+        synchronized void append(long timestampMs, float value) {
+            timestamps[head] = timestampMs;
+            values[head] = value;
+            head = (head + 1) % timestamps.length;
+            if (size < timestamps.length) {
+                size++;
+            }
+        }
+
+        synchronized float latestValue() {
+            return size == 0 ? Float.NaN : values[indexOfLatest()];
+        }
+
+        synchronized long latestTimestamp() {
+            return size == 0 ? -1L : timestamps[indexOfLatest()];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int copyRange(long fromMs, long toMs, long[] outTimestamps, float[] outValues) {
+            int limit = Math.min(outTimestamps.length, outValues.length);
+            int capacity = timestamps.length;
+            int oldest = (head - size + capacity) % capacity;
+            int written = 0;
+            for (int n = 0; n < size && written < limit; n++) {
+                int idx = (oldest + n) % capacity;
+                long ts = timestamps[idx];
+                if (ts < fromMs || ts > toMs) {
+                    continue;
+                }
+                outTimestamps[written] = ts;
+                outValues[written] = values[idx];
+                written++;
+            }
+            return written;
+        }
+
+        synchronized void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        private int indexOfLatest() {
+            return (head - 1 + timestamps.length) % timestamps.length;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.androidbuttons.core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalescing write-behind for snapshot-style state: values submitted within {@code delayMs}
+ * of each other collapse into one write of the latest value, performed on a single
+ * background thread. Callers never block on storage.
+ */
+public final class WriteBehind<T> {
+
+    public interface Writer<T> {
+        void write(T value);
+    }
+
+    private final Writer<T> writer;
+    private final long delayMs;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicReference<T> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final Runnable drain = this::drain;
+
+    public WriteBehind(final String threadName, long delayMs, Writer<T> writer) {
+        this.writer = writer;
+        this.delayMs = Math.max(0L, delayMs);
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Replaces the pending value; the write happens at most {@code delayMs} later.
+     */
+    public void submit(T value) {
+        if (value == null) {
+            return;
+        }
+        if (pending.getAndSet(value) != null) {
+            collapsed.incrementAndGet();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            executor.schedule(drain, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the pending value now and waits for it, e.g. before the process may go away.
+     */
+    public void flush() {
+        Future<?> done = executor.submit(drain);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+            // Ошибка записи уже залогирована писателем
+        }
+    }
+
+    public long writeCount() {
+        return writes.get();
+    }
+
+    /** Values replaced before they were written. */
+    public long collapsedCount() {
+        return collapsed.get();
+    }
+
+    private void drain() {
+        // Сначала сбрасываем флаг: значение, пришедшее во время записи, запланирует свою
+        scheduled.set(false);
+        T value = pending.getAndSet(null);
+        if (value != null) {
+            writer.write(value);
+            writes.incrementAndGet();
+        }
+    }
+}
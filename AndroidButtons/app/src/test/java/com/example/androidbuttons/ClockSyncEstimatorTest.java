@@ -0,0 +1,84 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.ClockSyncEstimator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ClockSyncEstimator} fed with synthetic NTP-style exchanges against a controller
+ * clock with a known offset: asymmetric paths stay within the advertised uncertainty, and
+ * queueing outliers move neither the offset nor the latency medians.
+ */
+public class ClockSyncEstimatorTest {
+
+    private static final long TRUE_OFFSET_US = 5_000_000L;
+    private static final long REMOTE_PROCESSING_US = 150L;
+    private static final long EXCHANGE_PERIOD_US = 250_000L;
+
+    private final ClockSyncEstimator estimator = new ClockSyncEstimator();
+
+    @Test
+    public void asymmetricPathErrorIsBoundedByHalfRoundTrip() {
+        long up = 3_000L;
+        long down = 1_000L;
+        long local = 1_000_000L;
+        for (int i = 0; i < 4 * ClockSyncEstimator.DEFAULT_WINDOW; i++) {
+            exchange(local, up, down);
+            local += EXCHANGE_PERIOD_US;
+        }
+
+        long error = estimator.offsetAt(local) - TRUE_OFFSET_US;
+        // Асимметрию по одному обмену не увидеть: ошибка ровно (up - down) / 2
+        assertEquals((up - down) / 2, error);
+        assertEquals((up + down) / 2, estimator.uncertaintyUs());
+        assertTrue(Math.abs(error) <= estimator.uncertaintyUs());
+        // Сумма односторонних оценок — честный RTT, ошибка смещения лишь делит его иначе
+        assertEquals(up + down, estimator.uplinkUs() + estimator.downlinkUs());
+        assertTrue(Math.abs(estimator.uplinkUs() - up) <= estimator.uncertaintyUs());
+    }
+
+    @Test
+    public void queueingOutliersDoNotMoveEstimates() {
+        long base = 800L;
+        long local = 1_000_000L;
+        for (int i = 0; i < 6 * ClockSyncEstimator.DEFAULT_WINDOW; i++) {
+            long up = base;
+            long down = base;
+            if (i % 4 == 1) {
+                // Кадр застрял в очереди передачи
+                up = 40_000L;
+            } else if (i % 4 == 3) {
+                // Ответ пришёл пачкой после паузы чтения
+                down = 25_000L;
+            }
+            exchange(local, up, down);
+            local += EXCHANGE_PERIOD_US;
+        }
+
+        assertEquals(TRUE_OFFSET_US, estimator.offsetAt(local));
+        assertEquals(base, estimator.uncertaintyUs());
+        assertEquals(base, estimator.uplinkUs());
+        assertEquals(base, estimator.downlinkUs());
+        assertEquals(0.0, estimator.driftPpm(), 1e-9);
+    }
+
+    @Test
+    public void impossibleSamplesAreRejected() {
+        assertFalse(estimator.onExchange(1_000L, 2_000L, 2_500L, 900L));
+        assertFalse(estimator.onExchange(1_000L, 10_000L, 20_000L, 2_000L));
+        assertEquals(2L, estimator.rejectedCount());
+        assertFalse(estimator.isSynced());
+        assertEquals(ClockSyncEstimator.NO_ESTIMATE, estimator.uplinkUs());
+    }
+
+    private void exchange(long t0, long up, long down) {
+        long t1 = t0 + up + TRUE_OFFSET_US;
+        long t2 = t1 + REMOTE_PROCESSING_US;
+        long t3 = t2 - TRUE_OFFSET_US + down;
+        assertTrue(estimator.onExchange(t0, t1, t2, t3));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.DwellAnalytics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rolling-window accounting in {@link DwellAnalytics} with explicit timestamps: a dwell that
+ * crosses slots is split across them, and neither finished nor ongoing dwells can credit a
+ * window with more time than it spans. The hour window has 60 one-minute slots.
+ */
+public class DwellAnalyticsTest {
+
+    private static final long MINUTE_MS = 60_000L;
+    private static final int LOCO = 3;
+
+    private final DwellAnalytics dwell = new DwellAnalytics();
+
+    @Test
+    public void dwellCrossingSlotsIsSplitAcrossThem() {
+        dwell.onState(LOCO, 1, 30_000L);
+        dwell.onState(LOCO, 2, 150_000L);
+
+        DwellAnalytics.Stats hour = dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_HOUR, 150_000L);
+        assertEquals(120_000L, hour.totalMs);
+        assertEquals(1L, hour.count);
+        assertEquals(120_000L, hour.maxMs);
+
+        // Минута 0 выпала из окна: уходит только её часть, сам период ещё в окне
+        long later = DwellAnalytics.HOUR_MS + 10_000L;
+        dwell.onState(LOCO, 1, later);
+        hour = dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_HOUR, later);
+        assertEquals(150_000L - MINUTE_MS, hour.totalMs);
+        assertEquals(1L, hour.count);
+        assertEquals(120_000L, dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_ALL, later).totalMs);
+    }
+
+    @Test
+    public void longDwellIsClippedToWindowStart() {
+        dwell.onState(LOCO, 1, 0L);
+        long end = 3 * DwellAnalytics.HOUR_MS;
+        dwell.onState(LOCO, 2, end);
+
+        DwellAnalytics.Stats hour = dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_HOUR, end);
+        // Окно — 60 минутных слотов, последний только начался
+        assertEquals(DwellAnalytics.HOUR_MS - MINUTE_MS, hour.totalMs);
+        assertEquals(DwellAnalytics.HOUR_MS - MINUTE_MS, hour.maxMs);
+        assertEquals(1L, hour.count);
+
+        DwellAnalytics.Stats shift = dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_SHIFT, end);
+        assertEquals(end, shift.totalMs);
+        assertEquals(end, dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_ALL, end).maxMs);
+    }
+
+    @Test
+    public void ongoingDwellIsClippedLikeFinishedOnes() {
+        dwell.onState(LOCO, 1, 0L);
+        dwell.onState(LOCO, 2, 50 * MINUTE_MS);
+        long now = 2 * DwellAnalytics.HOUR_MS;
+
+        long windowStart = now - DwellAnalytics.HOUR_MS + MINUTE_MS;
+        DwellAnalytics.Stats ongoing = dwell.stats(LOCO, 2, DwellAnalytics.WINDOW_HOUR, now);
+        assertEquals(now - windowStart, ongoing.totalMs);
+        assertEquals(0L, ongoing.count);
+        DwellAnalytics.Stats finished = dwell.stats(LOCO, 1, DwellAnalytics.WINDOW_HOUR, now);
+        assertEquals(0L, finished.totalMs);
+    }
+
+    @Test
+    public void windowTotalsNeverExceedTheSpan() {
+        long now = 0L;
+        for (int i = 0; i < 500; i++) {
+            now += 7_000L + (i % 13) * 11_000L;
+            dwell.onState(LOCO, 1 + i % 4, now);
+        }
+        long sum = 0L;
+        for (int state = 1; state <= 4; state++) {
+            sum += dwell.stats(LOCO, state, DwellAnalytics.WINDOW_HOUR, now).totalMs;
+        }
+        assertTrue("hour window holds " + sum + " ms", sum <= DwellAnalytics.HOUR_MS);
+    }
+}
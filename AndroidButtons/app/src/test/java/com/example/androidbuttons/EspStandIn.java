@@ -0,0 +1,172 @@
+package com.example.androidbuttons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal loopback ESP controller: accepts connections, sends v1 state frames
+ * to every connected client and records the bytes it receives.
+ */
+final class EspStandIn implements AutoCloseable {
+
+    interface ReceiveListener {
+        void onReceived(byte[] buf, int off, int len, long nanoTime);
+    }
+
+    private final ServerSocket server;
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "esp-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean closed;
+    private volatile ReceiveListener receiveListener;
+    private volatile byte[] greeting;
+
+    EspStandIn() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "esp-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    int acceptedCount() {
+        return accepted.get();
+    }
+
+    int connectedCount() {
+        return clients.size();
+    }
+
+    /** Sends one v1 state frame to every connected client. */
+    void sendState(int loco, int state) {
+        send(stateFrame(loco, state));
+    }
+
+    void send(byte[] bytes) {
+        for (Socket client : clients) {
+            try {
+                OutputStream out = client.getOutputStream();
+                synchronized (client) {
+                    out.write(bytes);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                clients.remove(client);
+            }
+        }
+    }
+
+    /** Periodic state report, as the firmware does when idle. */
+    void startHeartbeat(long periodMs, int loco, int state) {
+        heartbeat.scheduleAtFixedRate(() -> sendState(loco, state), 0, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Bytes written to every new client right after accept, as firmware reporting on connect. */
+    void setGreeting(byte[] bytes) {
+        greeting = bytes;
+    }
+
+    void setReceiveListener(ReceiveListener listener) {
+        receiveListener = listener;
+    }
+
+    byte[] receivedBytes() {
+        synchronized (received) {
+            return received.toByteArray();
+        }
+    }
+
+    static byte[] stateFrame(int loco, int state) {
+        byte[] frame = new byte[6];
+        frame[0] = 0x7E;
+        frame[1] = (byte) loco;
+        frame[2] = 0;
+        frame[3] = 1;
+        frame[4] = (byte) state;
+        frame[5] = (byte) TcpFrameParser.crc8Update(0, frame, 1, 4);
+        return frame;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        heartbeat.shutdownNow();
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+        clients.clear();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket client;
+            try {
+                client = server.accept();
+                client.setTcpNoDelay(true);
+                byte[] hello = greeting;
+                if (hello != null) {
+                    client.getOutputStream().write(hello);
+                    client.getOutputStream().flush();
+                }
+            } catch (IOException e) {
+                return;
+            }
+            accepted.incrementAndGet();
+            clients.add(client);
+            Thread reader = new Thread(() -> readLoop(client), "esp-read");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    private void readLoop(Socket client) {
+        byte[] buf = new byte[1024];
+        try {
+            InputStream in = client.getInputStream();
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                long at = System.nanoTime();
+                ReceiveListener listener = receiveListener;
+                if (listener != null) {
+                    listener.onReceived(buf, 0, n, at);
+                }
+                synchronized (received) {
+                    received.write(buf, 0, n);
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            clients.remove(client);
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
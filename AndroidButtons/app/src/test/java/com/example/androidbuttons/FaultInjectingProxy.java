@@ -0,0 +1,191 @@
+package com.example.androidbuttons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Loopback TCP proxy that degrades the link between TcpManager and an ESP stand-in.
+ * Settings can be changed while traffic flows and apply to both directions.
+ * <ul>
+ *     <li>latency and jitter per forwarded fragment (ordering is preserved)</li>
+ *     <li>fragmentation into chunks of at most N bytes</li>
+ *     <li>bandwidth cap in bytes per second</li>
+ *     <li>stall: sockets stay open but nothing is forwarded (silent half-open)</li>
+ *     <li>reset: every open connection is aborted with RST</li>
+ * </ul>
+ */
+final class FaultInjectingProxy implements AutoCloseable {
+
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final ServerSocket server;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final Random random = new Random(42);
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile int fragmentBytes;
+    private volatile long bytesPerSecond;
+    private volatile boolean stalled;
+    private volatile boolean closed;
+
+    FaultInjectingProxy(String upstreamHost, int upstreamPort) throws IOException {
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "proxy-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    FaultInjectingProxy latency(long latencyMs, long jitterMs) {
+        this.latencyMs = Math.max(0L, latencyMs);
+        this.jitterMs = Math.max(0L, jitterMs);
+        return this;
+    }
+
+    FaultInjectingProxy fragment(int maxBytes) {
+        this.fragmentBytes = Math.max(0, maxBytes);
+        return this;
+    }
+
+    FaultInjectingProxy bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0L, bytesPerSecond);
+        return this;
+    }
+
+    FaultInjectingProxy stall(boolean stalled) {
+        this.stalled = stalled;
+        return this;
+    }
+
+    /** Aborts every open connection (both legs) with RST. */
+    void resetConnections() {
+        for (Socket socket : sockets) {
+            try {
+                socket.setSoLinger(true, 0);
+            } catch (IOException ignored) {
+            }
+            closeQuietly(socket);
+        }
+        sockets.clear();
+    }
+
+    int openConnections() {
+        return sockets.size() / 2;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(server);
+        resetConnections();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Socket upstream = new Socket();
+            try {
+                upstream.connect(new InetSocketAddress(upstreamHost, upstreamPort), 2000);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+            } catch (IOException e) {
+                closeQuietly(client);
+                closeQuietly(upstream);
+                continue;
+            }
+            sockets.add(client);
+            sockets.add(upstream);
+            startPump(client, upstream, "proxy-up");
+            startPump(upstream, client, "proxy-down");
+        }
+    }
+
+    private void startPump(Socket from, Socket to, String name) {
+        Thread thread = new Thread(() -> pump(from, to), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void pump(Socket from, Socket to) {
+        byte[] buf = new byte[4096];
+        long lastDeliveryAt = 0L;
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            while (!closed) {
+                int n = in.read(buf);
+                if (n == -1) {
+                    to.shutdownOutput();
+                    return;
+                }
+                // Задержка считается на прочитанный блок; его фрагменты идут следом друг за другом
+                long jitter = jitterMs > 0 ? (long) (random.nextDouble() * jitterMs) : 0L;
+                long deliverAt = Math.max(lastDeliveryAt, System.currentTimeMillis() + latencyMs + jitter);
+                int offset = 0;
+                while (offset < n) {
+                    int chunk = fragmentBytes > 0 ? Math.min(fragmentBytes, n - offset) : n - offset;
+                    long bps = bytesPerSecond;
+                    if (bps > 0) {
+                        deliverAt += chunk * 1000L / bps;
+                    }
+                    sleepUntil(deliverAt);
+                    awaitUnstalled();
+                    out.write(buf, offset, chunk);
+                    out.flush();
+                    offset += chunk;
+                    if (fragmentBytes > 0 && offset < n) {
+                        // Пауза, чтобы фрагменты пришли отдельными сегментами
+                        Thread.sleep(1);
+                    }
+                }
+                lastDeliveryAt = deliverAt;
+            }
+        } catch (IOException | InterruptedException e) {
+            closeQuietly(from);
+            closeQuietly(to);
+        } finally {
+            sockets.remove(from);
+            sockets.remove(to);
+        }
+    }
+
+    private void awaitUnstalled() throws InterruptedException {
+        while (stalled && !closed) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.androidbuttons;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Conformance suite run against every codec: encoded records must come back unchanged
+ * through {@link TcpFrameParser} regardless of how the byte stream is fragmented, and
+ * corrupted frames must never produce wrong records.
+ */
+public class FrameCodecConformanceTest {
+
+    private static final FrameCodec[] CODECS = {
+            FrameCodecV1.INSTANCE,
+            new FrameCodecV2(FrameCodecV2.MAX_COMPACT_PAYLOAD),
+            new FrameCodecV2(3),
+    };
+
+    private static final int[] ALL_LOCOS = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final int[] ALL_STATES = {1, 2, 3, 4, 5, 1, 2, 3};
+
+    @Test
+    public void singleState_roundTrips() {
+        for (FrameCodec codec : CODECS) {
+            for (int loco = 1; loco <= 8; loco++) {
+                for (int state = 1; state <= 5; state++) {
+                    Collector out = decode(codec, codec.encodeState(loco, state), Integer.MAX_VALUE);
+                    assertEquals(name(codec), Arrays.asList(loco + ":" + state), out.records);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batch_roundTripsInOrder() {
+        for (FrameCodec codec : CODECS) {
+            byte[] wire = codec.encodeStates(ALL_LOCOS, ALL_STATES, ALL_LOCOS.length);
+            assertEquals(name(codec), expectedAll(), decode(codec, wire, Integer.MAX_VALUE).records);
+        }
+    }
+
+    @Test
+    public void fragmentedStream_decodesIdentically() {
+        for (FrameCodec codec : CODECS) {
+            byte[] wire = codec.encodeStates(ALL_LOCOS, ALL_STATES, ALL_LOCOS.length);
+            for (int chunk = 1; chunk <= 7; chunk++) {
+                assertEquals(name(codec) + " chunk=" + chunk, expectedAll(), decode(codec, wire, chunk).records);
+            }
+        }
+    }
+
+    @Test
+    public void corruptedByte_neverYieldsWrongRecord() {
+        for (FrameCodec codec : CODECS) {
+            byte[] wire = codec.encodeStates(ALL_LOCOS, ALL_STATES, ALL_LOCOS.length);
+            List<String> valid = expectedAll();
+            for (int i = 0; i < wire.length; i++) {
+                for (int bit = 0; bit < 8; bit++) {
+                    byte[] damaged = wire.clone();
+                    damaged[i] ^= (byte) (1 << bit);
+                    for (String record : decode(codec, damaged, Integer.MAX_VALUE).records) {
+                        assertTrue(name(codec) + " byte=" + i + " bit=" + bit + " -> " + record, valid.contains(record));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void garbageBetweenFrames_isSkipped() {
+        for (FrameCodec codec : CODECS) {
+            ByteArrayOutputStream wire = new ByteArrayOutputStream();
+            wire.write(0x00);
+            wire.write(0x33);
+            write(wire, codec.encodeState(2, 4));
+            wire.write(0x55);
+            write(wire, codec.encodeState(6, 1));
+            assertEquals(name(codec), Arrays.asList("2:4", "6:1"),
+                    decode(codec, wire.toByteArray(), Integer.MAX_VALUE).records);
+        }
+    }
+
+    @Test
+    public void v1_matchesLegacyWireFormat() {
+        // 0x7E | loco | len=1 | state | CRC8(0x31) по loco, len и state
+        assertArrayEquals(new byte[] {0x7E, 0x03, 0x00, 0x01, 0x05, crc(0x03, 0x00, 0x01, 0x05)},
+                FrameCodecV1.INSTANCE.encodeState(3, 5));
+    }
+
+    @Test
+    public void v2_isSmallerThanV1() {
+        FrameCodec v2 = new FrameCodecV2(FrameCodecV2.MAX_COMPACT_PAYLOAD);
+        assertTrue(v2.encodeState(1, 1).length < FrameCodecV1.INSTANCE.encodeState(1, 1).length);
+        int v1Batch = FrameCodecV1.INSTANCE.encodeStates(ALL_LOCOS, ALL_STATES, 8).length;
+        int v2Batch = v2.encodeStates(ALL_LOCOS, ALL_STATES, 8).length;
+        assertEquals(48, v1Batch);
+        assertEquals(12, v2Batch);
+    }
+
+    @Test
+    public void v2_payloadRecord_roundTrips() {
+        FrameCodecV2 v2 = new FrameCodecV2(FrameCodecV2.MAX_COMPACT_PAYLOAD);
+        byte[] data = {0x10, 0x00, 0x64};
+        Collector out = decode(v2, v2.encodePayload(4, data), Integer.MAX_VALUE);
+        assertEquals(Arrays.asList("4:" + Arrays.toString(data)), out.records);
+    }
+
+    @Test
+    public void v2_decoderStillAcceptsV1Frames() {
+        FrameCodec v2 = new FrameCodecV2(FrameCodecV2.MAX_COMPACT_PAYLOAD);
+        assertEquals(Arrays.asList("5:2"),
+                decode(v2, FrameCodecV1.INSTANCE.encodeState(5, 2), Integer.MAX_VALUE).records);
+    }
+
+    @Test
+    public void handshake_negotiatesCommonVersionAndCaps() {
+        ProtocolHandshake.Negotiated n = ProtocolHandshake.negotiate(3,
+                ProtocolHandshake.CAP_GROUP | ProtocolHandshake.CAP_ACK, 32);
+        assertEquals(2, n.version);
+        assertTrue(n.has(ProtocolHandshake.CAP_GROUP));
+        // ACK не объявлен планшетом — пересечение его не содержит
+        assertTrue(!n.has(ProtocolHandshake.CAP_ACK));
+        assertEquals(32, n.maxPayload);
+        assertEquals(2, n.codec().version());
+    }
+
+    @Test
+    public void handshake_helloFrameParsesBack() {
+        byte[] frame = ProtocolHandshake.helloFrame();
+        final ProtocolHandshake.Negotiated[] parsed = new ProtocolHandshake.Negotiated[1];
+        TcpFrameParser parser = new TcpFrameParser(new NullListener() {
+            @Override
+            public void onFrame(int address, byte[] payload, int off, int len) {
+                assertEquals(ProtocolHandshake.SYSTEM_ADDRESS, address);
+                parsed[0] = ProtocolHandshake.parseHello(payload, off, len);
+            }
+        });
+        parser.feed(frame, 0, frame.length);
+        assertNotNull(parsed[0]);
+        assertEquals(ProtocolHandshake.LOCAL_VERSION, parsed[0].version);
+        assertEquals(ProtocolHandshake.LOCAL_CAPS, parsed[0].caps);
+    }
+
+    @Test
+    public void handshake_shortOrForeignMessageFallsBack() {
+        assertNull(ProtocolHandshake.parseHello(new byte[] {0x01, 0x02}, 0, 2));
+        assertNull(ProtocolHandshake.parseHello(new byte[] {0x09, 2, 0, 0, 0, 64}, 0, 6));
+        assertNull(ProtocolHandshake.parseHello(new byte[] {0x01, 0, 0, 0, 0, 64}, 0, 6));
+        assertEquals(1, ProtocolHandshake.Negotiated.V1_FALLBACK.codec().version());
+    }
+
+    private static Collector decode(FrameCodec codec, byte[] wire, int chunk) {
+        Collector collector = new Collector(codec);
+        TcpFrameParser parser = new TcpFrameParser(collector);
+        parser.setCompactFraming(codec.version() >= 2);
+        for (int off = 0; off < wire.length; off += chunk) {
+            parser.feed(wire, off, Math.min(chunk, wire.length - off));
+        }
+        return collector;
+    }
+
+    private static List<String> expectedAll() {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < ALL_LOCOS.length; i++) {
+            out.add(ALL_LOCOS[i] + ":" + ALL_STATES[i]);
+        }
+        return out;
+    }
+
+    private static byte crc(int... bytes) {
+        byte[] buf = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) buf[i] = (byte) bytes[i];
+        return (byte) TcpFrameParser.crc8Update(0, buf, 0, buf.length);
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String name(FrameCodec codec) {
+        return codec.getClass().getSimpleName() + " v" + codec.version();
+    }
+
+    private static class NullListener implements TcpFrameParser.Listener {
+        @Override
+        public void onFrame(int address, byte[] payload, int off, int len) {
+        }
+
+        @Override
+        public void onStreamStart(int address, int length) {
+        }
+
+        @Override
+        public void onStreamChunk(byte[] buf, int off, int len) {
+        }
+
+        @Override
+        public void onStreamEnd(int address, int length, boolean committed) {
+        }
+    }
+
+    private static final class Collector extends NullListener implements FrameCodec.RecordSink {
+        final List<String> records = new ArrayList<>();
+        private final FrameCodec codec;
+
+        Collector(FrameCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void onFrame(int address, byte[] payload, int off, int len) {
+            codec.decodeFrame(address, payload, off, len, this);
+        }
+
+        @Override
+        public void onState(int loco, int state) {
+            records.add(loco + ":" + state);
+        }
+
+        @Override
+        public void onPayload(int address, byte[] payload, int off, int len) {
+            records.add(address + ":" + Arrays.toString(Arrays.copyOfRange(payload, off, off + len)));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.EventBus;
+import com.example.androidbuttons.core.OverlayStateStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RX storm through the service pipeline: ESP bytes → TcpManager → TcpPayloadProcessor →
+ * service event thread → OverlayStateStore → LATEST bus subscription → main looper.
+ * <p>
+ * A single-thread executor with an observable queue stands in for the main looper, and every
+ * UI delivery costs about a frame's worth of work. The main queue must stay at most one task
+ * deep however many reports arrive, and the last report must still reach the UI.
+ */
+public class MainLooperQueueDepthTest {
+
+    private static final int LOCO = 1;
+    private static final int STORM_FRAMES = 20_000;
+    private static final int STORM_CHUNK_FRAMES = 200;
+    private static final long UI_WORK_MS = 2;
+    private static final long DRAIN_BUDGET_MS = 10_000;
+
+    private EspStandIn esp;
+    private TcpManager manager;
+    private ExecutorService serviceLoop;
+    private MainLooper mainLooper;
+    private OverlayStateStore store;
+    private EventBus.Subscription<?> uiSubscription;
+    private final AtomicInteger reports = new AtomicInteger();
+    private volatile int lastRendered;
+
+    @Before
+    public void setUp() throws Exception {
+        esp = new EspStandIn();
+        serviceLoop = Executors.newSingleThreadExecutor(r -> new Thread(r, "tcp-service"));
+        mainLooper = new MainLooper();
+        store = new OverlayStateStore();
+        uiSubscription = store.addListener((state, publishedAt) -> {
+            sleepQuietly(UI_WORK_MS);
+            lastRendered = state;
+        }, mainLooper, EventBus.Policy.LATEST);
+
+        TcpPayloadProcessor processor = new TcpPayloadProcessor(new AtomicInteger(LOCO), null,
+                (loco, state, selected, decodedAt) -> serviceLoop.execute(() -> {
+                    reports.incrementAndGet();
+                    if (selected) store.publish(state);
+                }));
+        manager = new TcpManager(null, null, processor::process, error -> { }, status -> { });
+        manager.enableAutoConnect("127.0.0.1", esp.port());
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!(manager.isConnected() && esp.connectedCount() > 0)) {
+            assertTrue("not connected", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+        serviceLoop.shutdownNow();
+        mainLooper.shutdownNow();
+        esp.close();
+    }
+
+    @Test
+    public void rxStorm_keepsMainQueueShallow() throws Exception {
+        long start = System.nanoTime();
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        for (int i = 0; i < STORM_FRAMES; i++) {
+            byte[] frame = EspStandIn.stateFrame(LOCO, stateFor(i));
+            chunk.write(frame, 0, frame.length);
+            if ((i + 1) % STORM_CHUNK_FRAMES == 0) {
+                esp.send(chunk.toByteArray());
+                chunk.reset();
+            }
+        }
+        if (chunk.size() > 0) {
+            esp.send(chunk.toByteArray());
+        }
+
+        long deadline = System.currentTimeMillis() + DRAIN_BUDGET_MS;
+        while (reports.get() < STORM_FRAMES || mainLooper.getActiveCount() > 0 || !mainLooper.getQueue().isEmpty()) {
+            assertTrue("storm not drained: reports=" + reports.get(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format(Locale.US,
+                "[QUEUE] frames=%d in %.2fs, main tasks=%d, max main queue depth=%d",
+                STORM_FRAMES, seconds, mainLooper.getCompletedTaskCount(), mainLooper.maxDepth.get()));
+        assertEquals(STORM_FRAMES, reports.get());
+        assertEquals(stateFor(STORM_FRAMES - 1), lastRendered);
+        assertTrue("main queue depth " + mainLooper.maxDepth.get(), mainLooper.maxDepth.get() <= 1);
+        assertTrue("every report reached the main thread", mainLooper.getCompletedTaskCount() < STORM_FRAMES);
+        assertEquals("applied + merged", STORM_FRAMES,
+                uiSubscription.deliveredCount() + uiSubscription.conflatedCount());
+    }
+
+    // Соседние кадры всегда с разным состоянием, чтобы ни один не был повтором
+    private static int stateFor(int index) {
+        return 1 + (index % 5);
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // "Main looper": один поток и наблюдаемая очередь ожидающих задач
+    private static final class MainLooper extends ThreadPoolExecutor {
+        final AtomicInteger maxDepth = new AtomicInteger();
+
+        MainLooper() {
+            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    r -> new Thread(r, "main-looper"));
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(command);
+            int depth = getQueue().size();
+            while (true) {
+                int max = maxDepth.get();
+                if (depth <= max || maxDepth.compareAndSet(max, depth)) break;
+            }
+        }
+    }
+}
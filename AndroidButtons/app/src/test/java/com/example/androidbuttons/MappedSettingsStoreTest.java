@@ -0,0 +1,123 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.MappedSettingsStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MappedSettingsStore} on a real file: an app update that changes the layout keeps
+ * the values of surviving keys and does not ask for the legacy import again, and a torn
+ * record write falls back to the previous value of that key.
+ */
+public class MappedSettingsStoreTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("settings", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void layoutChangeCarriesValuesByName() {
+        MappedSettingsStore.Layout before = new MappedSettingsStore.Layout();
+        MappedSettingsStore.Key x = before.intKey("x", 0);
+        MappedSettingsStore.Key host = before.stringKey("host", 32, "default");
+        MappedSettingsStore.Key flag = before.booleanKey("flag", false);
+        MappedSettingsStore store = MappedSettingsStore.open(file, before);
+        assertTrue(store.needsMigration());
+        store.putInt(x, 42);
+        store.putString(host, "10.0.0.5");
+        store.putBoolean(flag, true);
+        store.markMigrated();
+
+        // Новый ключ впереди, порядок другой, у строки выросла ёмкость, флаг сменил тип
+        MappedSettingsStore.Layout after = new MappedSettingsStore.Layout();
+        MappedSettingsStore.Key added = after.longKey("added", 7L);
+        MappedSettingsStore.Key hostAfter = after.stringKey("host", 64, "default");
+        MappedSettingsStore.Key flagAfter = after.intKey("flag", -1);
+        MappedSettingsStore.Key xAfter = after.intKey("x", 0);
+        store = MappedSettingsStore.open(file, after);
+        assertFalse(store.needsMigration());
+        assertEquals(42, store.getInt(xAfter));
+        assertEquals("10.0.0.5", store.getString(hostAfter));
+        assertEquals(7L, store.getLong(added));
+        assertEquals(-1, store.getInt(flagAfter));
+        assertFalse(store.contains(flagAfter));
+
+        // Переписанный файл открывается уже как свой
+        store.putLong(added, 8L);
+        store = MappedSettingsStore.open(file, after);
+        assertFalse(store.needsMigration());
+        assertEquals(42, store.getInt(xAfter));
+        assertEquals(8L, store.getLong(added));
+    }
+
+    @Test
+    public void tornWriteKeepsPreviousValue() throws IOException {
+        MappedSettingsStore.Layout layout = new MappedSettingsStore.Layout();
+        MappedSettingsStore.Key host = layout.stringKey("host", 32, "default");
+        MappedSettingsStore store = MappedSettingsStore.open(file, layout);
+        store.putString(host, "first-host");
+        store.putString(host, "second-host");
+        store.markMigrated();
+
+        corrupt("second-host");
+        store = MappedSettingsStore.open(file, layout);
+        assertEquals("first-host", store.getString(host));
+        assertFalse(store.needsMigration());
+
+        // Следующая запись идёт в испорченный слот и снова становится последней
+        store.putString(host, "third-host");
+        store = MappedSettingsStore.open(file, layout);
+        assertEquals("third-host", store.getString(host));
+
+        corrupt("third-host");
+        corrupt("first-host");
+        store = MappedSettingsStore.open(file, layout);
+        assertEquals("default", store.getString(host));
+        assertFalse(store.contains(host));
+    }
+
+    // Портим последний байт значения, как при оборванной записи
+    private void corrupt(String value) throws IOException {
+        byte[] needle = value.getBytes(StandardCharsets.UTF_8);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully(content);
+            int at = indexOf(content, needle);
+            assertTrue(value + " not found", at >= 0);
+            raf.seek(at + needle.length - 1);
+            raf.write(content[at + needle.length - 1] ^ 0x5A);
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
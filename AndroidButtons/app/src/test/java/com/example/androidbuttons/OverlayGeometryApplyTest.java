@@ -0,0 +1,127 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.EventBus;
+import com.example.androidbuttons.core.MappedSettingsStore;
+import com.example.androidbuttons.core.OverlaySettingsRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Settings edit → repository bus → frame-aligned LATEST subscription → overlay window, the
+ * way FloatingOverlayService wires it. A queue drained by {@link #frame()} stands in for
+ * Choreographer. Each edit must reach the window with exactly one layout update.
+ */
+public class OverlayGeometryApplyTest {
+
+    private static final int BASE_WIDTH = 100;
+    private static final int BASE_HEIGHT = 430;
+    private static final int LEFT_COMPENSATION = 10;
+
+    private final List<Runnable> frameQueue = new ArrayList<>();
+    private final Executor frameExecutor = frameQueue::add;
+    private FakeWindow window;
+    private OverlaySettingsRepository repository;
+    private OverlayGeometryApplier applier;
+
+    @Before
+    public void setUp() {
+        repository = new OverlaySettingsRepository(
+                MappedSettingsStore.inMemory(OverlaySettingsRepository.layout()), new EventBus());
+        window = new FakeWindow();
+        applier = new OverlayGeometryApplier(BASE_WIDTH, BASE_HEIGHT, LEFT_COMPENSATION, window);
+        // Окно показано в геометрии из настроек, как после attach
+        OverlaySettingsRepository.OverlaySettings initial = repository.get();
+        window.x = applier.windowX(initial.x);
+        window.y = initial.y;
+        window.width = Math.round(BASE_WIDTH * initial.scale);
+        window.height = Math.round(BASE_HEIGHT * initial.scale);
+        repository.addListener(applier::apply, frameExecutor, EventBus.Policy.LATEST);
+    }
+
+    @Test
+    public void eachSettingsEditIsAppliedOnce() {
+        repository.setPosition(200, 300);
+        frame();
+        assertEquals(1, window.updates);
+        assertEquals(200, window.x);
+        assertEquals(300, window.y);
+
+        repository.setScale(1.5f);
+        frame();
+        assertEquals(2, window.updates);
+        assertEquals(150, window.width);
+        assertEquals(645, window.height);
+
+        repository.setPosition(0, 300);
+        frame();
+        assertEquals(3, window.updates);
+        assertEquals(-LEFT_COMPENSATION, window.x);
+
+        // Повтор того же значения до окна не доходит
+        repository.setPosition(0, 300);
+        frame();
+        assertEquals(3, window.updates);
+        assertEquals(3, applier.appliedCount());
+    }
+
+    @Test
+    public void editsWithinOneFrameCollapseIntoOneApply() {
+        for (int i = 1; i <= 20; i++) {
+            repository.setScale(1f + i * 0.05f);
+        }
+        frame();
+        assertEquals(1, window.updates);
+        assertEquals(200, window.width);
+    }
+
+    @Test
+    public void gestureCommitDoesNotRelayoutTheWindow() {
+        // Жест уже передвинул окно; коммит в репозиторий совпадает с его геометрией
+        window.x = 320;
+        window.y = 480;
+        window.width = 120;
+        window.height = 516;
+        repository.setGeometry(320, 480, 1.2f);
+        frame();
+        assertEquals(0, window.updates);
+        assertEquals(1, applier.skippedCount());
+    }
+
+    private void frame() {
+        List<Runnable> tasks = new ArrayList<>(frameQueue);
+        frameQueue.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    private static final class FakeWindow implements OverlayGeometryApplier.Window {
+        int x;
+        int y;
+        int width;
+        int height;
+        int updates;
+
+        @Override public boolean isShown() { return true; }
+        @Override public int x() { return x; }
+        @Override public int y() { return y; }
+        @Override public int width() { return width; }
+        @Override public int height() { return height; }
+
+        @Override
+        public void update(int x, int y, int width, int height, float scale) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            updates++;
+        }
+    }
+}
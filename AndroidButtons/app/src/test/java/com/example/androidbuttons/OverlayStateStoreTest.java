@@ -0,0 +1,79 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.OverlayStateStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Switching the selected loco in {@link OverlayStateStore}: a fresh cached state is shown at
+ * once; a stale or missing one is shown as unknown (0) instead of leaving the previous loco's
+ * state on screen.
+ */
+public class OverlayStateStoreTest {
+
+    private static final long MAX_AGE_MS = 50L;
+
+    private final List<Integer> shown = new ArrayList<>();
+    private OverlayStateStore store;
+
+    @Before
+    public void setUp() {
+        store = new OverlayStateStore();
+        store.setMaxCacheAgeMs(MAX_AGE_MS);
+        store.addListener((state, publishedAt) -> shown.add(state));
+    }
+
+    @Test
+    public void freshCachedStateIsShownOnSelect() {
+        store.publish(2, 3);
+        assertTrue(shown.isEmpty());
+
+        assertEquals(3, store.select(2));
+        assertEquals(1, shown.size());
+        assertEquals(3, (int) shown.get(0));
+        assertEquals(3, store.getCurrentState());
+    }
+
+    @Test
+    public void staleCachedStateIsTreatedAsUnknown() throws InterruptedException {
+        store.publish(2, 3);
+        long version = store.snapshot().version(2);
+        Thread.sleep(MAX_AGE_MS + 30);
+
+        assertEquals(0, store.select(2));
+        assertEquals(1, shown.size());
+        assertEquals(0, (int) shown.get(0));
+        assertEquals(0, store.getCurrentState());
+        assertEquals(-1L, store.snapshot().ageMs(2));
+        assertEquals(version + 1, store.snapshot().version(2));
+
+        // Первый же свежий отчёт снова показывается
+        store.publish(2, 1);
+        assertEquals(2, shown.size());
+        assertEquals(1, (int) shown.get(1));
+        assertEquals(1, store.getCurrentState());
+    }
+
+    @Test
+    public void switchToUncachedLocoClearsPreviousState() {
+        store.select(1);
+        store.publish(1, 4);
+        assertEquals(4, (int) shown.get(shown.size() - 1));
+
+        // По локомотиву 3 не было ни одного отчёта
+        assertEquals(0, store.select(3));
+        assertEquals(0, (int) shown.get(shown.size() - 1));
+        assertEquals(0, store.getCurrentState());
+
+        // Возврат к локомотиву 1: его свежий кэш показывается снова
+        assertEquals(4, store.select(1));
+        assertEquals(4, (int) shown.get(shown.size() - 1));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.TcpConfigRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link StandbyConnectionPool} against a loopback listener standing in for a controller:
+ * the warm socket is handed over without the bytes that piled up in standby, and a target
+ * dropped from the profile list has its socket closed.
+ */
+public class StandbyConnectionPoolTest {
+
+    private static final String HOST = "127.0.0.1";
+
+    private ServerSocket controller;
+    private StandbyConnectionPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        controller = new ServerSocket(0, 1, InetAddress.getByName(HOST));
+        controller.setSoTimeout(3000);
+        pool = new StandbyConnectionPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        controller.close();
+    }
+
+    @Test
+    public void warmSocketIsHandedOverDrained() throws Exception {
+        pool.retain(Collections.singletonList(profile()));
+        try (Socket peer = controller.accept()) {
+            awaitLive(1);
+            OutputStream out = peer.getOutputStream();
+            // Накопилось, пока соединение было резервным
+            out.write(new byte[]{1, 2, 3});
+            out.flush();
+            Thread.sleep(50);
+
+            Socket taken = pool.take(HOST, controller.getLocalPort());
+            assertNotNull(taken);
+            assertEquals(0, pool.liveCount());
+            assertNull(pool.take(HOST, controller.getLocalPort()));
+
+            out.write(42);
+            out.flush();
+            InputStream in = taken.getInputStream();
+            assertEquals(42, in.read());
+            taken.close();
+        }
+    }
+
+    @Test
+    public void droppedTargetIsClosed() throws Exception {
+        pool.retain(Collections.singletonList(profile()));
+        try (Socket peer = controller.accept()) {
+            awaitLive(1);
+
+            pool.retain(Collections.emptyList());
+            assertEquals(0, pool.liveCount());
+            peer.setSoTimeout(3000);
+            assertEquals(-1, peer.getInputStream().read());
+        }
+    }
+
+    private TcpConfigRepository.ConnectionProfile profile() {
+        int port = controller.getLocalPort();
+        return new TcpConfigRepository.ConnectionProfile(HOST + ":" + port, HOST, port);
+    }
+
+    private void awaitLive(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (pool.liveCount() != expected) {
+            assertTrue("standby links not ready", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
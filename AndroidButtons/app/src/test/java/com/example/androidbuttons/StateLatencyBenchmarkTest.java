@@ -0,0 +1,219 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.ConsoleLogRepository;
+import com.example.androidbuttons.core.OverlayStateStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End-to-end latency over loopback, in both directions:
+ * <ul>
+ *     <li>forward: ESP bytes → TcpManager → TcpPayloadProcessor → main thread →
+ *     OverlayStateStore.publish → listener</li>
+ *     <li>reverse: OverlayStateStore.publishSelection → main thread → sendControl → bytes at the ESP</li>
+ * </ul>
+ * A single-thread executor stands in for the service's main looper. Prints p50/p99/p999
+ * and sustained throughput; the assertions only guard against loss and gross regressions.
+ */
+public class StateLatencyBenchmarkTest {
+
+    private static final int LOCO = 1;
+    private static final int SEQUENTIAL_SAMPLES = 2000;
+    private static final int[] RATES_PER_SECOND = {100, 500, 2000, 5000};
+    private static final long RATE_RUN_MS = 1000;
+    private static final long DRAIN_BUDGET_MS = 5000;
+    private static final long LOW_RATE_P99_BUDGET_NANOS = 50_000_000L;
+
+    private EspStandIn esp;
+    private TcpManager manager;
+    private ExecutorService main;
+    private OverlayStateStore store;
+    private volatile Recorder recorder;
+    // HELLO рукопожатия не считается: контроллер-заглушка на него не отвечает, остаёмся на v1
+    private long reverseBytes = -ProtocolHandshake.helloFrame().length;
+
+    @Before
+    public void setUp() throws Exception {
+        esp = new EspStandIn();
+        main = Executors.newSingleThreadExecutor(r -> new Thread(r, "main-looper"));
+        store = new OverlayStateStore();
+        store.addListener((state, publishedAt) -> mark());
+        store.addSelectionListener((state, selectedAt) -> main.execute(() -> manager.sendControl(LOCO, state)));
+
+        TcpPayloadProcessor processor = new TcpPayloadProcessor(new AtomicInteger(LOCO), new ConsoleLogRepository(),
+                (loco, state, selected, decodedAt) -> main.execute(() -> {
+                    if (selected) store.publish(state);
+                }));
+        manager = new TcpManager(null, null, processor::process, error -> { }, status -> { });
+        esp.setReceiveListener((buf, off, len, nanoTime) -> {
+            long before = Math.max(0, reverseBytes) / 6;
+            reverseBytes += len;
+            for (long f = before; f < Math.max(0, reverseBytes) / 6; f++) {
+                mark(nanoTime);
+            }
+        });
+
+        manager.enableAutoConnect("127.0.0.1", esp.port());
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!(manager.isConnected() && esp.connectedCount() > 0)) {
+            assertTrue("not connected", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+        main.shutdownNow();
+        esp.close();
+    }
+
+    @Test
+    public void forwardPath_socketToOverlayListener() throws Exception {
+        Result sequential = runSequential(i -> esp.sendState(LOCO, stateFor(i)));
+        report("forward", "sequential", sequential);
+        for (int rate : RATES_PER_SECOND) {
+            Result paced = runPaced(rate, i -> esp.sendState(LOCO, stateFor(i)));
+            report("forward", rate + "/s", paced);
+            if (rate == RATES_PER_SECOND[0]) {
+                assertTrue("p99 " + paced.p99 + " ns", paced.p99 < LOW_RATE_P99_BUDGET_NANOS);
+            }
+        }
+    }
+
+    @Test
+    public void reversePath_selectionToWire() throws Exception {
+        Result sequential = runSequential(i -> store.publishSelection(stateFor(i)));
+        report("reverse", "sequential", sequential);
+        for (int rate : RATES_PER_SECOND) {
+            Result paced = runPaced(rate, i -> store.publishSelection(stateFor(i)));
+            report("reverse", rate + "/s", paced);
+            if (rate == RATES_PER_SECOND[0]) {
+                assertTrue("p99 " + paced.p99 + " ns", paced.p99 < LOW_RATE_P99_BUDGET_NANOS);
+            }
+        }
+    }
+
+    private interface Stimulus {
+        void fire(int index);
+    }
+
+    private Result runSequential(Stimulus stimulus) throws InterruptedException {
+        Recorder rec = new Recorder(SEQUENTIAL_SAMPLES);
+        recorder = rec;
+        long[] sent = new long[SEQUENTIAL_SAMPLES];
+        for (int i = 0; i < SEQUENTIAL_SAMPLES; i++) {
+            sent[i] = System.nanoTime();
+            stimulus.fire(i);
+            awaitCount(rec, i + 1);
+        }
+        return Result.of(sent, rec);
+    }
+
+    private Result runPaced(int ratePerSecond, Stimulus stimulus) throws InterruptedException {
+        int frames = (int) (ratePerSecond * RATE_RUN_MS / 1000);
+        Recorder rec = new Recorder(frames);
+        recorder = rec;
+        long[] sent = new long[frames];
+        long periodNanos = 1_000_000_000L / ratePerSecond;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            long due = start + i * periodNanos;
+            while (System.nanoTime() < due) {
+                Thread.yield();
+            }
+            sent[i] = System.nanoTime();
+            stimulus.fire(i);
+        }
+        awaitCount(rec, frames);
+        return Result.of(sent, rec);
+    }
+
+    private void mark() {
+        mark(System.nanoTime());
+    }
+
+    private void mark(long nanoTime) {
+        Recorder rec = recorder;
+        if (rec != null) rec.mark(nanoTime);
+    }
+
+    private static void awaitCount(Recorder rec, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_BUDGET_MS;
+        while (rec.count.get() < expected) {
+            assertTrue("lost frames: " + rec.count.get() + "/" + expected, System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+        assertEquals(expected, rec.count.get());
+    }
+
+    // Разные соседние состояния, чтобы каждый кадр был отдельным событием
+    private static int stateFor(int index) {
+        return 1 + (index % 5);
+    }
+
+    private static void report(String path, String mode, Result r) {
+        System.out.println(String.format(Locale.US,
+                "[BENCH] %-7s %-10s n=%5d p50=%7.1fus p99=%7.1fus p999=%7.1fus throughput=%8.0f/s",
+                path, mode, r.count, r.p50 / 1000.0, r.p99 / 1000.0, r.p999 / 1000.0, r.throughput));
+    }
+
+    private static final class Recorder {
+        final long[] at;
+        final AtomicInteger count = new AtomicInteger();
+
+        Recorder(int capacity) {
+            at = new long[capacity];
+        }
+
+        void mark(long nanoTime) {
+            int i = count.getAndIncrement();
+            if (i < at.length) at[i] = nanoTime;
+        }
+    }
+
+    private static final class Result {
+        final int count;
+        final long p50;
+        final long p99;
+        final long p999;
+        final double throughput;
+
+        private Result(int count, long p50, long p99, long p999, double throughput) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.throughput = throughput;
+        }
+
+        // Кадры доставляются по порядку и без потерь, поэтому i-я доставка — это i-я отправка
+        static Result of(long[] sent, Recorder rec) {
+            int n = sent.length;
+            long[] latency = new long[n];
+            for (int i = 0; i < n; i++) {
+                latency[i] = rec.at[i] - sent[i];
+            }
+            Arrays.sort(latency);
+            double seconds = Math.max(1, rec.at[n - 1] - sent[0]) / 1e9;
+            return new Result(n, percentile(latency, 0.50), percentile(latency, 0.99),
+                    percentile(latency, 0.999), n / seconds);
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            int idx = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+        }
+    }
+}
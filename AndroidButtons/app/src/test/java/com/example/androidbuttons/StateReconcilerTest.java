@@ -0,0 +1,192 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.StateReconciler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link StateReconciler} driven with explicit timestamps: confirmation by a matching report,
+ * resend with backoff after the grace period, and re-verification after a reconnect that must
+ * never resurrect state this client did not command, nor an old command left unconfirmed.
+ */
+public class StateReconcilerTest {
+
+    private static final long GRACE_MS = 1_000L;
+
+    private final List<int[]> resent = new ArrayList<>();
+    private StateReconciler reconciler;
+
+    @Before
+    public void setUp() {
+        reconciler = new StateReconciler((loco, state, attempt) -> resent.add(new int[]{loco, state, attempt}), GRACE_MS);
+    }
+
+    @Test
+    public void matchingReportConfirmsCommand() {
+        reconciler.onCommand(2, 3, 0L);
+        assertTrue(reconciler.isPending(2));
+        assertEquals(1, reconciler.divergedCount());
+
+        // Старый отчёт, отправленный до прихода команды, подтверждением не считается
+        reconciler.onReport(2, 1, 100L);
+        assertTrue(reconciler.isPending(2));
+
+        reconciler.onReport(2, 3, 200L);
+        assertFalse(reconciler.isPending(2));
+        assertEquals(0, reconciler.divergedCount());
+        assertEquals(0L, reconciler.oldestDivergenceAgeMs(300L));
+        assertEquals(0, reconciler.tick(5_000L));
+        assertTrue(resent.isEmpty());
+    }
+
+    @Test
+    public void unconfirmedCommandIsResentWithBackoff() {
+        reconciler.tick(0L);
+        reconciler.onCommand(1, 2, 0L);
+
+        assertEquals(0, reconciler.tick(GRACE_MS - 1));
+        assertEquals(1, reconciler.tick(GRACE_MS));
+        assertEquals(1, resent.size());
+        assertEquals(1, resent.get(0)[0]);
+        assertEquals(2, resent.get(0)[1]);
+        assertEquals(1, resent.get(0)[2]);
+
+        // Первый повтор — через grace << 1
+        assertEquals(0, reconciler.tick(GRACE_MS + 2 * GRACE_MS - 1));
+        assertEquals(1, reconciler.tick(GRACE_MS + 2 * GRACE_MS));
+        assertEquals(2, resent.get(1)[2]);
+        assertEquals(3 * GRACE_MS, reconciler.oldestDivergenceAgeMs(3 * GRACE_MS));
+
+        reconciler.onReport(1, 2, 3 * GRACE_MS + 10);
+        assertEquals(0, reconciler.tick(100 * GRACE_MS));
+        assertEquals(2, reconciler.resendCount());
+    }
+
+    @Test
+    public void reportsWithoutLocalCommandAreNeverResent() {
+        // Другой планшет водит локомотив 4; этот только видит отчёты
+        reconciler.onReport(4, 3, 0L);
+        reconciler.onReport(4, 1, 100L);
+        assertEquals(0, reconciler.desiredState(4));
+        assertEquals(1, reconciler.reportedState(4));
+
+        reconciler.onReconnect(200L);
+        assertFalse(reconciler.isPending(4));
+        assertEquals(0, reconciler.tick(200L + 10 * GRACE_MS));
+        assertTrue(resent.isEmpty());
+    }
+
+    @Test
+    public void reconnectKeepsConfirmedCommandsSettled() {
+        reconciler.onCommand(3, 2, 0L);
+        reconciler.onReport(3, 2, 50L);
+        // Другой планшет остановил локомотив после нашего подтверждённого хода
+        reconciler.onReport(3, 1, 500L);
+        assertEquals(2, reconciler.desiredState(3));
+        assertFalse(reconciler.isPending(3));
+
+        reconciler.onReconnect(1_000L);
+        assertFalse(reconciler.isPending(3));
+        assertEquals(0, reconciler.tick(1_000L + 10 * GRACE_MS));
+        assertTrue(resent.isEmpty());
+    }
+
+    @Test
+    public void reconnectGivesUnconfirmedCommandsFreshGrace() {
+        reconciler.tick(0L);
+        reconciler.onCommand(5, 3, 0L);
+        assertEquals(1, reconciler.tick(GRACE_MS));
+
+        // Связь пропала и вернулась: повтор ждёт свежих отчётов нового соединения
+        long reconnectAt = 1_500L;
+        reconciler.onReconnect(reconnectAt);
+        assertTrue(reconciler.isPending(5));
+        assertEquals(0, reconciler.tick(reconnectAt + GRACE_MS - 1));
+
+        reconciler.onReport(5, 3, reconnectAt + 200L);
+        assertFalse(reconciler.isPending(5));
+        assertEquals(0, reconciler.tick(reconnectAt + 10 * GRACE_MS));
+        assertEquals(1, resent.size());
+    }
+
+    @Test
+    public void reconnectResendsStillUnconfirmedCommandFromFirstAttempt() {
+        reconciler.tick(0L);
+        reconciler.onCommand(5, 3, 0L);
+        reconciler.tick(GRACE_MS);
+        reconciler.tick(3 * GRACE_MS);
+        assertEquals(2, resent.size());
+
+        reconciler.onReconnect(4_000L);
+        reconciler.onReport(5, 1, 4_100L);
+        assertEquals(1, reconciler.tick(4_000L + GRACE_MS));
+        int[] last = resent.get(resent.size() - 1);
+        assertEquals(5, last[0]);
+        assertEquals(3, last[1]);
+        assertEquals(1, last[2]);
+    }
+
+    @Test
+    public void longUnconfirmedCommandIsGivenUpOnReconnect() {
+        reconciler.tick(0L);
+        reconciler.onCommand(2, 3, 0L);
+        assertEquals(1, reconciler.tick(GRACE_MS));
+
+        // Связь пропала надолго; тем временем локомотив остановили с другого планшета
+        long reconnectAt = StateReconciler.DEFAULT_MAX_PENDING_MS + 2_000L;
+        reconciler.onReconnect(reconnectAt);
+        assertFalse(reconciler.isPending(2));
+        assertEquals(1L, reconciler.expiredCount());
+        reconciler.onReport(2, 1, reconnectAt + 100L);
+        assertEquals(0, reconciler.tick(reconnectAt + 10 * GRACE_MS));
+        assertEquals(1, resent.size());
+        assertEquals(0, reconciler.divergedCount());
+    }
+
+    @Test
+    public void groupCommandIsTrackedPerLoco() {
+        reconciler.tick(0L);
+        // Групповой «стоп»: одна команда, но подтверждается каждым локомотивом отдельно
+        for (int loco : new int[]{1, 2, 3}) {
+            reconciler.onCommand(loco, 4, 0L);
+        }
+        assertEquals(0b111, reconciler.pendingLocoMask());
+        assertEquals(3, reconciler.divergedCount());
+
+        reconciler.onReport(2, 4, 100L);
+        assertEquals(0b101, reconciler.pendingLocoMask());
+
+        assertEquals(2, reconciler.tick(GRACE_MS));
+        assertEquals(2, resent.size());
+        assertEquals(1, resent.get(0)[0]);
+        assertEquals(3, resent.get(1)[0]);
+        assertEquals(4, resent.get(1)[1]);
+
+        reconciler.onReport(1, 4, GRACE_MS + 10);
+        reconciler.onReport(3, 4, GRACE_MS + 20);
+        assertEquals(0, reconciler.pendingLocoMask());
+        assertEquals(0, reconciler.divergedCount());
+    }
+
+    @Test
+    public void newCommandRestartsPendingLimit() {
+        reconciler.setMaxPendingMs(10 * GRACE_MS);
+        reconciler.tick(0L);
+        reconciler.onCommand(4, 2, 0L);
+        reconciler.onCommand(4, 3, 8 * GRACE_MS);
+
+        assertEquals(1, reconciler.tick(12 * GRACE_MS));
+        assertTrue(reconciler.isPending(4));
+        assertEquals(0, reconciler.tick(18 * GRACE_MS));
+        assertFalse(reconciler.isPending(4));
+        assertEquals(1L, reconciler.expiredCount());
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.LatencyStats;
+import com.example.androidbuttons.core.Metrics;
+import com.example.androidbuttons.core.OverlayStateStore;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loopback HTTP client against {@link StatusHttpServer}: routing, Prometheus and JSON bodies,
+ * and the render rate limit.
+ */
+public class StatusHttpServerTest {
+
+    private StatusHttpServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void metricsEndpointServesPrometheusText() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("tcp_rx_bytes").add(1234);
+        metrics.gauge("tcp_connected", () -> 1);
+        metrics.timer("service_report_handling").recordNanos(2_000_000L);
+        LatencyStats latency = new LatencyStats();
+        latency.record(LatencyStats.RX_DECODE, 500_000L);
+        OverlayStateStore store = new OverlayStateStore();
+        store.publish(3, 2);
+
+        start(StatusHttpServer.DEFAULT_MAX_PER_SECOND)
+                .route("/metrics", StatusHttpServer.CONTENT_PROMETHEUS,
+                        out -> StatusReport.appendPrometheus(out, metrics, latency, store.snapshot()));
+
+        Response response = get("/metrics");
+        assertEquals(200, response.code);
+        assertTrue(response.contentType.startsWith("text/plain"));
+        assertTrue(response.body.contains("# TYPE androidbuttons_tcp_rx_bytes counter\nandroidbuttons_tcp_rx_bytes 1234\n"));
+        assertTrue(response.body.contains("# TYPE androidbuttons_tcp_connected gauge\nandroidbuttons_tcp_connected 1\n"));
+        assertTrue(response.body.contains("androidbuttons_service_report_handling_seconds_count 1\n"));
+        assertTrue(response.body.contains("androidbuttons_pipeline_latency_seconds_count{stage=\"rx_decode\"} 1\n"));
+        assertTrue(response.body.contains("androidbuttons_loco_state{loco=\"3\"} 2\n"));
+    }
+
+    @Test
+    public void statusEndpointServesJsonAndUnknownPathsAre404() throws Exception {
+        start(StatusHttpServer.DEFAULT_MAX_PER_SECOND)
+                .route("/status", StatusHttpServer.CONTENT_JSON, out -> {
+                    out.append('{');
+                    StatusReport.key(out, "host");
+                    StatusReport.string(out, "10.0.0.\"5\"").append('}');
+                });
+
+        Response status = get("/status?pretty=1");
+        assertEquals(200, status.code);
+        assertTrue(status.contentType.startsWith("application/json"));
+        assertEquals("{\"host\":\"10.0.0.\\\"5\\\"\"}", status.body);
+
+        assertEquals(404, get("/nope").code);
+    }
+
+    @Test
+    public void rendersAreRateLimited() throws Exception {
+        AtomicInteger renders = new AtomicInteger();
+        start(2).route("/status", StatusHttpServer.CONTENT_JSON, out -> {
+            renders.incrementAndGet();
+            out.append("{}");
+        });
+
+        assertEquals(200, get("/status").code);
+        assertEquals(200, get("/status").code);
+        Response limited = get("/status");
+        assertEquals(429, limited.code);
+        assertEquals(2, renders.get());
+        assertEquals(2, server.servedCount());
+        assertEquals(1, server.rejectedCount());
+
+        Thread.sleep(600);
+        assertEquals(200, get("/status").code);
+    }
+
+    private StatusHttpServer start(int maxPerSecond) throws IOException {
+        server = new StatusHttpServer(maxPerSecond);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return server;
+    }
+
+    private Response get(String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.localPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(2000);
+        connection.setReadTimeout(2000);
+        connection.setUseCaches(false);
+        try {
+            int code = connection.getResponseCode();
+            InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (in != null) {
+                byte[] buf = new byte[1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    bytes.write(buf, 0, n);
+                }
+                in.close();
+            }
+            return new Response(code, connection.getContentType(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static final class Response {
+        final int code;
+        final String contentType;
+        final String body;
+
+        Response(int code, String contentType, String body) {
+            this.code = code;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.EventBus;
+import com.example.androidbuttons.core.MappedSettingsStore;
+import com.example.androidbuttons.core.TcpConfigRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Controller profiles in {@link TcpConfigRepository} over an in-memory store: the MRU order,
+ * named profiles next to auto-named endpoints, and what removal does to the active target.
+ */
+public class TcpConfigRepositoryTest {
+
+    private final List<TcpConfigRepository.TcpConfig> published = new ArrayList<>();
+    private TcpConfigRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new TcpConfigRepository(
+                MappedSettingsStore.inMemory(TcpConfigRepository.layout()), new EventBus());
+        repository.addListener(published::add);
+    }
+
+    @Test
+    public void newEndpointBecomesActiveAutoNamedProfile() {
+        repository.updateHostAndPort("10.0.0.5", 9001);
+        repository.updateHostAndPort(" 10.0.0.6 ", 9002);
+
+        assertEquals(Arrays.asList("10.0.0.6:9002", "10.0.0.5:9001"), names());
+        TcpConfigRepository.TcpConfig config = repository.get();
+        assertEquals("10.0.0.6", config.host);
+        assertEquals("10.0.0.6:9002", config.activeProfile);
+
+        // Возврат к известному адресу не плодит профиль, а поднимает его наверх
+        repository.updateHostAndPort("10.0.0.5", 9001);
+        assertEquals(Arrays.asList("10.0.0.5:9001", "10.0.0.6:9002"), names());
+        assertEquals(3, published.size());
+    }
+
+    @Test
+    public void namedProfileIsSavedAndActivated() {
+        repository.updateHostAndPort("10.0.0.5", 9001);
+        assertTrue(repository.saveProfile("Стенд", "10.0.0.7", 9003));
+        // Новый профиль встаёт в конец, текущая цель не меняется
+        assertEquals(Arrays.asList("10.0.0.5:9001", "Стенд"), names());
+        assertEquals("10.0.0.5", repository.get().host);
+
+        assertTrue(repository.activateProfile("Стенд"));
+        TcpConfigRepository.TcpConfig config = repository.get();
+        assertEquals("10.0.0.7", config.host);
+        assertEquals(9003, config.port);
+        assertEquals("Стенд", config.activeProfile);
+        assertEquals(Arrays.asList("Стенд", "10.0.0.5:9001"), names());
+
+        // Пересохранение под тем же именем меняет адрес на месте, без дубля
+        int before = published.size();
+        assertTrue(repository.saveProfile("Стенд", "10.0.0.8", 9003));
+        assertEquals(Arrays.asList("Стенд", "10.0.0.5:9001"), names());
+        assertEquals("10.0.0.8", repository.getProfiles().get(0).host);
+        assertEquals(before + 1, published.size());
+        assertTrue(repository.saveProfile("Стенд", "10.0.0.8", 9003));
+        assertEquals(before + 1, published.size());
+    }
+
+    @Test
+    public void unusableProfilesAreRejected() {
+        assertFalse(repository.saveProfile(" \t ", "10.0.0.7", 9003));
+        assertFalse(repository.saveProfile("Стенд", "  ", 9003));
+        assertFalse(repository.saveProfile("Стенд", "10.0.0.7", 0));
+        assertFalse(repository.saveProfile("Стенд", "10.0.0.7", 65536));
+        assertFalse(repository.activateProfile("Стенд"));
+        assertFalse(repository.removeProfile("Стенд"));
+        assertTrue(repository.getProfiles().isEmpty());
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void removingActiveProfileKeepsTarget() {
+        repository.saveProfile("Стенд", "10.0.0.7", 9003);
+        repository.activateProfile("Стенд");
+        repository.updateHostAndPort("10.0.0.5", 9001);
+        repository.activateProfile("Стенд");
+
+        assertTrue(repository.removeProfile(" Стенд "));
+        TcpConfigRepository.TcpConfig config = repository.get();
+        assertNull(config.activeProfile);
+        assertEquals("10.0.0.7", config.host);
+        assertEquals(9003, config.port);
+        assertEquals(Arrays.asList("10.0.0.5:9001"), names());
+        assertFalse(repository.removeProfile("Стенд"));
+    }
+
+    private List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (TcpConfigRepository.ConnectionProfile profile : repository.getProfiles()) {
+            names.add(profile.name);
+        }
+        return names;
+    }
+}
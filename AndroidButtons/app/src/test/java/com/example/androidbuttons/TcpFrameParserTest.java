@@ -0,0 +1,113 @@
+package com.example.androidbuttons;
+
+import com.example.androidbuttons.core.TelemetryDecoders;
+import com.example.androidbuttons.core.TelemetryStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A telemetry batch longer than {@link TcpFrameParser#INLINE_PAYLOAD_MAX} arriving in small
+ * reads: streamed through {@link TelemetryStreamAssembler}, it reaches the store only once its
+ * CRC checks out, and a rolled-back frame leaves the store and the following frames intact.
+ */
+public class TcpFrameParserTest {
+
+    private static final int LOCO = 3;
+    private static final int SAMPLES = 16;
+    private static final long NOW_MS = 5_000L;
+
+    private TelemetryStore store;
+    private TelemetryStreamAssembler assembler;
+    private TcpFrameParser parser;
+    private final List<String> shortFrames = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        store = new TelemetryStore(64);
+        assembler = new TelemetryStreamAssembler(TelemetryDecoders.withDefaults(store), () -> NOW_MS);
+        parser = new TcpFrameParser(new TcpFrameParser.Listener() {
+            @Override
+            public void onFrame(int address, byte[] payload, int off, int len) {
+                shortFrames.add(address + ":" + (payload[off] & 0xFF));
+            }
+
+            @Override
+            public void onStreamStart(int address, int length) {
+                assembler.onStreamStart(address, length);
+            }
+
+            @Override
+            public void onStreamChunk(byte[] buf, int off, int len) {
+                assembler.onStreamChunk(buf, off, len);
+            }
+
+            @Override
+            public void onStreamEnd(int address, int length, boolean committed) {
+                assembler.onStreamEnd(address, length, committed);
+            }
+        });
+    }
+
+    @Test
+    public void longFrameSplitAcrossReads_isCommitted() {
+        byte[] frame = batchFrame();
+        feedInReads(frame, 7);
+
+        assertEquals(1, parser.framesOk());
+        assertEquals(1L, assembler.decodedCount());
+        assertEquals(SAMPLES, store.size(LOCO, TelemetryStore.METRIC_SPEED));
+        assertEquals(SAMPLES - 1, store.latestValue(LOCO, TelemetryStore.METRIC_SPEED), 0f);
+        assertEquals(NOW_MS, store.latestTimestamp(LOCO, TelemetryStore.METRIC_SPEED));
+    }
+
+    @Test
+    public void longFrameWithBadCrc_isRolledBack() {
+        byte[] frame = batchFrame();
+        frame[frame.length - 1] ^= 0x5A;
+        byte[] next = EspStandIn.stateFrame(2, 4);
+        byte[] stream = Arrays.copyOf(frame, frame.length + next.length);
+        System.arraycopy(next, 0, stream, frame.length, next.length);
+        feedInReads(stream, 5);
+
+        assertEquals(1, parser.framesBad());
+        assertEquals(1L, assembler.droppedCount());
+        assertEquals(0L, assembler.decodedCount());
+        assertEquals(0, store.size(LOCO, TelemetryStore.METRIC_SPEED));
+        // Разбор продолжается за концом откаченного кадра
+        assertEquals(Arrays.asList("2:4"), shortFrames);
+
+        feedInReads(batchFrame(), 11);
+        assertEquals(SAMPLES, store.size(LOCO, TelemetryStore.METRIC_SPEED));
+    }
+
+    // Пачка TYPE_BATCH: записи «метрика + float BE», значения 0..SAMPLES-1
+    private static byte[] batchFrame() {
+        byte[] payload = new byte[1 + SAMPLES * 5];
+        payload[0] = (byte) TelemetryDecoders.TYPE_BATCH;
+        for (int i = 0; i < SAMPLES; i++) {
+            int bits = Float.floatToIntBits(i);
+            int at = 1 + i * 5;
+            payload[at] = (byte) TelemetryStore.METRIC_SPEED;
+            payload[at + 1] = (byte) (bits >>> 24);
+            payload[at + 2] = (byte) (bits >>> 16);
+            payload[at + 3] = (byte) (bits >>> 8);
+            payload[at + 4] = (byte) bits;
+        }
+        assertTrue(payload.length > TcpFrameParser.INLINE_PAYLOAD_MAX);
+        return FrameCodecV1.buildFrame(LOCO, payload);
+    }
+
+    private void feedInReads(byte[] bytes, int readSize) {
+        for (int off = 0; off < bytes.length; off += readSize) {
+            parser.feed(bytes, off, Math.min(readSize, bytes.length - off));
+        }
+    }
+}
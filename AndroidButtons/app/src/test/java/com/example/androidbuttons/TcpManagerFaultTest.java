@@ -0,0 +1,263 @@
+package com.example.androidbuttons;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reconnect and half-open detection of TcpManager over a degraded loopback link.
+ * Budgets are generous for CI but tight enough to catch a missing detector or a stuck backoff.
+ */
+public class TcpManagerFaultTest {
+
+    private static final long CONNECT_BUDGET_MS = 3000;
+    private static final long RESET_DETECT_BUDGET_MS = 500;
+    private static final long RECOVER_BUDGET_MS = 3000;
+    private static final long IDLE_TIMEOUT_MS = 1000;
+    private static final long STALL_DETECT_BUDGET_MS = IDLE_TIMEOUT_MS + 1000;
+    // Окно проверки кандидата (SWITCH_PROBE_MS) плюс подключение
+    private static final long SWITCH_BUDGET_MS = 3000;
+
+    private EspStandIn esp;
+    private FaultInjectingProxy proxy;
+    private TcpManager manager;
+    private final List<String> statuses = new CopyOnWriteArrayList<>();
+    private final List<String> frames = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        esp = new EspStandIn();
+        proxy = new FaultInjectingProxy("127.0.0.1", esp.port());
+        manager = new TcpManager(null, null,
+                line -> {
+                    if (line.startsWith("cmd=")) frames.add(line.trim());
+                },
+                error -> { },
+                statuses::add);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+        proxy.close();
+        esp.close();
+    }
+
+    @Test
+    public void latencyJitterAndFragmentation_keepFramesIntactAndOrdered() throws Exception {
+        proxy.latency(30, 20).fragment(1);
+        connect();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int state = 1 + (i % 5);
+            esp.sendState(2, state);
+            expected.add("cmd=0x02 loco=2 state=" + state);
+        }
+
+        await(() -> frames.size() >= expected.size(), 3000);
+        assertEquals(expected, frames);
+    }
+
+    @Test
+    public void bandwidthCap_slowsDeliveryWithoutLoss() throws Exception {
+        connect();
+        proxy.bandwidth(1200);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            esp.sendState(1, 1 + (i % 5));
+        }
+        await(() -> frames.size() >= 100, 3000);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(100, frames.size());
+        // 600 байт при 1200 Б/с — не меньше ~0.5 с
+        assertTrue("cap not applied, elapsed=" + elapsed, elapsed >= 400);
+    }
+
+    @Test
+    public void controlFrame_reachesEspThroughLatency() throws Exception {
+        proxy.latency(50, 0);
+        connect();
+
+        manager.sendControl(3, 5);
+        // Первым кадром соединения уходит HELLO, следом — команда
+        byte[] hello = ProtocolHandshake.helloFrame();
+        byte[] control = manager.buildControlFrame(3, 5);
+        byte[] expected = Arrays.copyOf(hello, hello.length + control.length);
+        System.arraycopy(control, 0, expected, hello.length, control.length);
+
+        await(() -> esp.receivedBytes().length >= expected.length, 1000);
+        assertArrayEquals(expected, Arrays.copyOf(esp.receivedBytes(), expected.length));
+    }
+
+    @Test
+    public void groupControl_withoutGroupCapability_isBatchedAsV1Frames() throws Exception {
+        connect();
+        // EspStandIn не отвечает на HELLO — группового кадра контроллер не поддерживает
+        assertFalse(manager.isGroupFramesSupported());
+
+        manager.sendGroupControl((1 << 1) | (1 << 4) | (1 << 6), 4);
+        byte[] hello = ProtocolHandshake.helloFrame();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(hello);
+        for (int loco : new int[]{2, 5, 7}) {
+            expected.write(manager.buildControlFrame(loco, 4));
+        }
+
+        await(() -> esp.receivedBytes().length >= expected.size(), 1000);
+        assertArrayEquals(expected.toByteArray(), Arrays.copyOf(esp.receivedBytes(), expected.size()));
+    }
+
+    @Test
+    public void switchTarget_underLiveLink_swapsAfterProbationWithBufferedBytes() throws Exception {
+        connect();
+        statuses.clear();
+        try (EspStandIn next = new EspStandIn()) {
+            // Отчёт приходит сразу после accept — в окно проверки, до подмены сокетов
+            next.setGreeting(EspStandIn.stateFrame(6, 2));
+            AtomicReference<String> result = new AtomicReference<>();
+            manager.switchTarget("127.0.0.1", next.port(), (success, host, port, reason) ->
+                    result.set(success ? "ok" : "failed: " + reason));
+
+            await(() -> result.get() != null, SWITCH_BUDGET_MS);
+            assertEquals("ok", result.get());
+            await(() -> frames.contains("cmd=0x06 loco=6 state=2"), 1000);
+            // Старый сокет закрыт только после подмены, сессия при этом не прерывалась
+            await(() -> esp.connectedCount() == 0, 1000);
+            assertTrue(manager.isConnected());
+            assertFalse(statuses.contains("disconnected"));
+
+            byte[] control = manager.buildControlFrame(3, 5);
+            manager.sendControl(3, 5);
+            await(() -> indexOf(next.receivedBytes(), control) >= 0, 1000);
+        }
+    }
+
+    @Test
+    public void switchTarget_probationFailure_leavesOldLinkUntouched() throws Exception {
+        connect();
+        statuses.clear();
+        // Принимает подключение и сразу закрывает его — кандидат умирает в окне проверки
+        try (ServerSocket dropper = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try (Socket ignored = dropper.accept()) {
+                    // закрывается сразу
+                } catch (IOException ignored) {
+                }
+            }, "dropper-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            AtomicReference<String> result = new AtomicReference<>();
+            manager.switchTarget("127.0.0.1", dropper.getLocalPort(), (success, host, port, reason) ->
+                    result.set(success ? "ok" : "failed: " + reason));
+            await(() -> result.get() != null, SWITCH_BUDGET_MS);
+            assertEquals("failed: closed by peer during validation", result.get());
+        }
+
+        assertTrue(manager.isConnected());
+        assertFalse(statuses.contains("disconnected"));
+        assertEquals(1, esp.acceptedCount());
+        assertFramesFlow();
+        manager.sendControl(2, 1);
+        byte[] control = manager.buildControlFrame(2, 1);
+        await(() -> indexOf(esp.receivedBytes(), control) >= 0, 1000);
+    }
+
+    @Test
+    public void reset_isDetectedAndRecoveredWithinBudget() throws Exception {
+        connect();
+        statuses.clear();
+
+        proxy.resetConnections();
+        long detect = await(() -> statuses.contains("disconnected"), RESET_DETECT_BUDGET_MS);
+        long recover = await(() -> statuses.contains("connected"), RECOVER_BUDGET_MS);
+
+        System.out.println("[FAULT] RST detect=" + detect + "ms recover=" + recover + "ms");
+        assertFramesFlow();
+    }
+
+    @Test
+    public void silentStall_isDetectedByIdleTimeoutAndRecovered() throws Exception {
+        manager.setIdleTimeoutMs(IDLE_TIMEOUT_MS);
+        esp.startHeartbeat(200, 1, 1);
+        connect();
+        statuses.clear();
+
+        proxy.stall(true);
+        long detect = await(() -> statuses.contains("disconnected"), STALL_DETECT_BUDGET_MS);
+        proxy.stall(false);
+        long recover = await(() -> statuses.contains("connected"), RECOVER_BUDGET_MS);
+
+        System.out.println("[FAULT] stall detect=" + detect + "ms recover=" + recover + "ms");
+        assertTrue("detected before idle timeout: " + detect, detect >= IDLE_TIMEOUT_MS - 100);
+        assertFramesFlow();
+    }
+
+    @Test
+    public void silentStall_withoutIdleTimeout_staysUndetected() throws Exception {
+        connect();
+        statuses.clear();
+
+        proxy.stall(true);
+        Thread.sleep(1500);
+
+        assertTrue(manager.isConnected());
+        assertTrue(statuses.isEmpty());
+    }
+
+    private void connect() throws InterruptedException {
+        manager.enableAutoConnect("127.0.0.1", proxy.port());
+        await(() -> manager.isConnected() && esp.connectedCount() > 0, CONNECT_BUDGET_MS);
+    }
+
+    private void assertFramesFlow() throws InterruptedException {
+        await(() -> esp.connectedCount() > 0, 1000);
+        frames.clear();
+        esp.sendState(4, 3);
+        await(() -> frames.contains("cmd=0x04 loco=4 state=3"), 1000);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // Ждёт условие и возвращает затраченное время; по истечении бюджета — провал теста
+    private static long await(BooleanSupplier condition, long budgetMs) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!condition.getAsBoolean()) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("budget of " + budgetMs + " ms exceeded", elapsed <= budgetMs);
+            Thread.sleep(5);
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
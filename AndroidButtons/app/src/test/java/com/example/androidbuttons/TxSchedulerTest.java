@@ -0,0 +1,98 @@
+package com.example.androidbuttons;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link TxScheduler} under a tap storm: the normal lane is full and overflowing while a stop
+ * command arrives. The stop frame must wait for at most the one frame already being written,
+ * never for the queue, and every frame evicted from the normal lane must be counted.
+ */
+public class TxSchedulerTest {
+
+    private static final int STORM_FRAMES = 1000;
+    private static final long FRAME_WRITE_NANOS = 200_000L;
+
+    private final List<Byte> written = new ArrayList<>();
+    private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+    private TxScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new TxScheduler(frame -> {
+            if (firstWriteStarted.getCount() > 0) {
+                firstWriteStarted.countDown();
+                awaitQuietly(releaseFirstWrite);
+            } else {
+                // Медленный канал: каждый кадр занимает сокет на время записи
+                long until = System.nanoTime() + FRAME_WRITE_NANOS;
+                while (System.nanoTime() < until) {
+                    Thread.yield();
+                }
+            }
+            synchronized (written) {
+                written.add(frame[0]);
+            }
+        }, error -> { });
+    }
+
+    @After
+    public void tearDown() {
+        releaseFirstWrite.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void stopCommandOvertakesTapStorm() throws Exception {
+        scheduler.submit(new byte[]{0}, TxScheduler.LANE_NORMAL);
+        assertTrue(firstWriteStarted.await(2, TimeUnit.SECONDS));
+
+        // Поток записи занят первым кадром; шквал обычных кадров переполняет полосу
+        for (int i = 0; i < STORM_FRAMES; i++) {
+            scheduler.submit(new byte[]{1}, TxScheduler.LANE_NORMAL);
+        }
+        scheduler.submit(new byte[]{2}, TxScheduler.LANE_HIGH);
+        assertEquals(TxScheduler.NORMAL_LANE_CAPACITY, scheduler.queueDepth(TxScheduler.LANE_NORMAL));
+        assertEquals(STORM_FRAMES - TxScheduler.NORMAL_LANE_CAPACITY,
+                scheduler.stats(TxScheduler.LANE_NORMAL).overflowed.get());
+
+        releaseFirstWrite.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.queueDepth(TxScheduler.LANE_NORMAL) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        synchronized (written) {
+            assertEquals(1 + 1 + TxScheduler.NORMAL_LANE_CAPACITY, written.size());
+            // Стоп уходит сразу за кадром, который уже писался, а не за очередью
+            assertEquals(0, (int) written.get(0));
+            assertEquals(2, (int) written.get(1));
+        }
+        TxScheduler.LaneStats high = scheduler.stats(TxScheduler.LANE_HIGH);
+        TxScheduler.LaneStats normal = scheduler.stats(TxScheduler.LANE_NORMAL);
+        assertEquals(1, high.sent.get());
+        assertEquals(0, high.dropped.get());
+        // Задержка стопа — только дописывание начатого кадра, обычные ждут всю очередь
+        assertTrue("high lane waited " + high.maxDelayNanos.get() + " ns, normal "
+                        + normal.maxDelayNanos.get() + " ns",
+                high.maxDelayNanos.get() * 10 < normal.maxDelayNanos.get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}